@@ -0,0 +1,158 @@
+package p1.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import utils.ComUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ComUtils encoding and decoding of every message of the protocol, fields only, without a socket.
+ * Messages are written to and read from reusable in-memory streams.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"HELLO", "READY", "PLAY", "ADMIT", "ACTION", "RESULT", "CONFIG", "ERROR"})
+    public String opcode;
+
+    // Characters of the player name of HELLO and of the message of ERROR
+    @Param({"5", "1000"})
+    public int textLength;
+
+    private String text;
+    private ByteArrayOutputStream sink;
+    private ComUtils writer;
+    private ByteArrayInputStream source;
+    private ComUtils reader;
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < textLength; i++) name.append((char) ('a' + i % 26));
+        text = name.toString();
+        sink = new ByteArrayOutputStream();
+        writer = new ComUtils(new ByteArrayInputStream(new byte[0]), sink);
+        encode();
+        source = new ByteArrayInputStream(sink.toByteArray());
+        reader = new ComUtils(source, new ByteArrayOutputStream());
+    }
+
+    @Benchmark
+    public void encode() throws IOException {
+        sink.reset();
+        writer.getDataOutputStream().writeByte(opcode(opcode));
+        switch (opcode) {
+            case "HELLO":
+                writer.write_int32(0);
+                writer.write_string(text);
+                writer.getDataOutputStream().writeByte(0);
+                writer.getDataOutputStream().writeByte(0);
+                break;
+            case "READY":
+            case "PLAY":
+                writer.write_int32(12345);
+                break;
+            case "ADMIT":
+                writer.write_int32(12345);
+                writer.getDataOutputStream().writeByte(1);
+                break;
+            case "ACTION":
+                writer.write_int32(12345);
+                writer.write_string("1-1");
+                break;
+            case "RESULT":
+                writer.write_int32(12345);
+                writer.write_string("2-0");
+                writer.getDataOutputStream().writeByte(0);
+                break;
+            case "CONFIG":
+                writer.write_int32(12345);
+                writer.getDataOutputStream().writeByte(1);
+                writer.write_int32(7);
+                break;
+            case "ERROR":
+                writer.write_int32(12345);
+                writer.getDataOutputStream().writeByte(1);
+                writer.write_string(text);
+                writer.getDataOutputStream().writeByte(0);
+                writer.getDataOutputStream().writeByte(0);
+                break;
+            default:
+                throw new IllegalStateException(opcode);
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        source.reset();
+        blackhole.consume(reader.getDataInputStream().readByte());
+        switch (opcode) {
+            case "HELLO":
+                blackhole.consume(reader.read_int32());
+                blackhole.consume(reader.findString());
+                break;
+            case "READY":
+            case "PLAY":
+                blackhole.consume(reader.read_int32());
+                break;
+            case "ADMIT":
+                blackhole.consume(reader.read_int32());
+                blackhole.consume(reader.getDataInputStream().readByte());
+                break;
+            case "ACTION":
+                blackhole.consume(reader.read_int32());
+                blackhole.consume(reader.read_string(3));
+                break;
+            case "RESULT":
+                blackhole.consume(reader.read_int32());
+                blackhole.consume(reader.read_string(3));
+                blackhole.consume(reader.getDataInputStream().readByte());
+                break;
+            case "CONFIG":
+                blackhole.consume(reader.read_int32());
+                blackhole.consume(reader.getDataInputStream().readByte());
+                blackhole.consume(reader.read_int32());
+                break;
+            case "ERROR":
+                blackhole.consume(reader.read_int32());
+                blackhole.consume(reader.getDataInputStream().readByte());
+                blackhole.consume(reader.findString());
+                break;
+            default:
+                throw new IllegalStateException(opcode);
+        }
+    }
+
+    private static int opcode(String name) {
+        switch (name) {
+            case "HELLO": return 1;
+            case "READY": return 2;
+            case "PLAY": return 3;
+            case "ADMIT": return 4;
+            case "ACTION": return 5;
+            case "RESULT": return 6;
+            case "CONFIG": return 7;
+            case "ERROR": return 8;
+            default: throw new IllegalArgumentException(name);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package p1.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import p1.server.GameLogic;
+import p1.server.Log;
+import utils.engine.Search;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server move selection from several positions.
+ * A position is the list of client moves, each one answered by the server as in a real game.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineBenchmark {
+
+    // Client moves played before the measured server move
+    @Param({"1-1", "0-0", "1-1,0-2", "0-1,1-0,2-2"})
+    public String position;
+
+    @Param({"MINIMAX", "TABLE"})
+    public GameLogic.Engine engine;
+
+    private String[] clientMoves;
+    private GameLogic game;
+
+    @Setup
+    public void setup() {
+        Log.setLevel(Log.Level.OFF);
+        clientMoves = position.split(",");
+        game = play(clientMoves.length);
+    }
+
+    /**
+     * Plays the position, answering every client move but the last one
+     * @param moves Client moves to play
+     * @return Game with the server to move
+     */
+    private GameLogic play(int moves) {
+        GameLogic logic = new GameLogic(engine);
+        for (int i = 0; i < moves; i++) {
+            if (logic.clientMove(clientMoves[i]) != -1) {
+                throw new IllegalStateException("Position " + position + " is not reachable against " + engine);
+            }
+            if (i < moves - 1) logic.serverMove();
+        }
+        return logic;
+    }
+
+    /**
+     * Search of the position with a warm transposition table
+     * @return Packed score and cell
+     */
+    @Benchmark
+    public int minimax() {
+        return game.minimax(true);
+    }
+
+    /**
+     * Search of the position with an empty transposition table, as the first game after start-up
+     * @return Packed score and cell
+     */
+    @Benchmark
+    public int minimaxCold() {
+        Search.clearTable();
+        return game.minimax(true);
+    }
+
+    /**
+     * A whole server reply: plays the position and picks the server move with the chosen engine
+     * @return Server move
+     */
+    @Benchmark
+    public String serverMove() {
+        return play(clientMoves.length).serverMove();
+    }
+}
@@ -0,0 +1,113 @@
+package p1.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import p1.server.GameLogic;
+import p1.server.GameProtocol;
+import p1.server.Log;
+import utils.ComUtils;
+import utils.engine.Grid;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole games between a scripted client and the server GameProtocol, connected by in-memory pipes.
+ * Client and server run on the benchmark thread: the client writes a message, the server handles it
+ * and the client reads the reply, so the numbers cover the codec, the protocol and the engine but no socket.
+ * The client plays the first empty cell, so every game is the same and the server always wins.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+    private static final byte HELLO = 1;
+    private static final byte PLAY = 3;
+    private static final byte ACTION = 5;
+    private static final byte RESULT = 6;
+
+    @Param({"MINIMAX", "TABLE"})
+    public GameLogic.Engine engine;
+
+    @Param({"false", "true"})
+    public boolean buffered;
+
+    private ComUtils client;
+    private ComUtils server;
+    private GameProtocol protocol;
+    private int id;
+
+    @Setup
+    public void setup() throws IOException {
+        Log.setLevel(Log.Level.OFF);
+        PipedInputStream toServer = new PipedInputStream(1024);
+        PipedInputStream toClient = new PipedInputStream(1024);
+        client = new ComUtils(toClient, new PipedOutputStream(toServer));
+        server = new ComUtils(toServer, new PipedOutputStream(toClient), buffered);
+        protocol = new GameProtocol(null, server, engine);
+
+        client.getDataOutputStream().writeByte(HELLO);
+        client.write_int32(0);
+        client.write_string("bench");
+        client.getDataOutputStream().writeByte(0);
+        client.getDataOutputStream().writeByte(0);
+        serve();
+        client.getDataInputStream().readByte();
+        id = client.read_int32();
+    }
+
+    /**
+     * Lets the server handle the message the client has just written
+     */
+    private void serve() throws IOException {
+        protocol.handleMessage(server.getDataInputStream().readByte());
+    }
+
+    /**
+     * PLAY, ADMIT and then ACTION messages until the RESULT
+     * @return Number of client moves
+     */
+    @Benchmark
+    public int game() throws IOException {
+        client.getDataOutputStream().writeByte(PLAY);
+        client.write_int32(id);
+        serve();
+        client.getDataInputStream().readByte();
+        client.read_int32();
+        client.getDataInputStream().readByte();
+
+        int board = 0;
+        int moves = 0;
+        while (true) {
+            int cell = Integer.numberOfTrailingZeros(~board);
+            board |= 1 << cell;
+            moves++;
+            client.getDataOutputStream().writeByte(ACTION);
+            client.write_int32(id);
+            client.write_string(Grid.formatMove(cell, 3));
+            serve();
+            byte opcode = client.getDataInputStream().readByte();
+            client.read_int32();
+            int reply = Grid.parseMove(client.read_string(3), 3);
+            if (opcode == RESULT) {
+                client.getDataInputStream().readByte();
+                return moves;
+            }
+            board |= 1 << reply;
+        }
+    }
+}
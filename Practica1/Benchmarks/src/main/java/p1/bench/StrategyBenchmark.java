@@ -0,0 +1,72 @@
+package p1.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import p1.server.Tournament;
+import utils.engine.Strategies;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The strategies side by side, through the same interface used by the client, the server and the tournaments.
+ * A position is the list of cells played in turns from the empty board.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StrategyBenchmark {
+
+    // Cells played before the measured move
+    @Param({"", "4", "4,0", "0,4,8"})
+    public String position;
+
+    @Param({"MINIMAX", "TABLE", "MCTS", "WEAK"})
+    public Strategies strategy;
+
+    // Bitboards of the player to move and of the other one
+    private int own;
+    private int opponent;
+
+    @Setup
+    public void setup() {
+        int[] boards = new int[2];
+        int turn = 0;
+        for (String cell : position.split(",")) {
+            if (cell.isEmpty()) continue;
+            boards[turn & 1] |= 1 << Integer.parseInt(cell);
+            turn++;
+        }
+        own = boards[turn & 1];
+        opponent = boards[(turn & 1) ^ 1];
+    }
+
+    /**
+     * One move from the position
+     * @return Cell of the move
+     */
+    @Benchmark
+    public int move() {
+        return strategy.move(own, opponent);
+    }
+
+    /**
+     * A whole game of the strategy against itself
+     * @return Outcome of the game
+     */
+    @Benchmark
+    public int selfPlay() {
+        return Tournament.play(strategy, strategy);
+    }
+}
@@ -8,23 +8,42 @@ import java.util.Scanner;
 import utils.ComUtils;
 
 public class Client {
-    public static final String INIT_ERROR = "Client should be initialized with -h <host> -p <port>";
+    public static final String INIT_ERROR = "Client should be initialized with -h <host> -p <port> [-n <on|off>]";
     Socket socket;
     String host;
     int port;
     ComUtils comutils;
+    // Each message is assembled in memory and sent with a single write, see ComUtils.flush()
+    boolean buffered;
 
     public Client(String host, int port) {
+        this(host, port, false, false);
+    }
+
+    /**
+     * Constructor
+     * @param host Server host
+     * @param port Server port
+     * @param buffered True to send each message with a single write, the ClientProtocol flushes after every message
+     * @param tcpNoDelay True to disable Nagle's algorithm on the socket
+     */
+    public Client(String host, int port, boolean buffered, boolean tcpNoDelay) {
         this.host = host;
         this.port = port;
+        this.buffered = buffered;
         this.socket = setConnection();
+        try {
+            socket.setTcpNoDelay(tcpNoDelay);
+        } catch (IOException e) {
+            throw new RuntimeException("I/O Error when configuring the socket:\n"+e.getMessage());
+        }
         this.comutils = getComutils();
     }
 
     public ComUtils getComutils() {
         if (comutils == null) {
             try {
-                comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream());
+                comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), buffered);
             } catch (IOException e) {
                 throw new RuntimeException("I/O Error when creating the ComUtils:\n"+e.getMessage());
             }
@@ -57,13 +76,20 @@ public class Client {
 
     public static void main(String[] args) {
 
-        if (args.length != 4) {
+        if (args.length != 4 && args.length != 6) {
             throw new IllegalArgumentException("Wrong amount of arguments.\n"+INIT_ERROR);
         }
 
-        if (!args[0].equals("-h") || !args[2].equals("-p")) {
+        if (!args[0].equals("-h") || !args[2].equals("-p") || (args.length == 6 && !args[4].equals("-n"))) {
             throw new IllegalArgumentException("Wrong argument keywords.\n"+INIT_ERROR);
         }
+        boolean tcpNoDelay = true;
+        if (args.length == 6) {
+            if (!args[5].equals("on") && !args[5].equals("off")) {
+                throw new IllegalArgumentException("<nodelay> should be on or off.");
+            }
+            tcpNoDelay = args[5].equals("on");
+        }
         int port;
         try {
             port = Integer.parseInt(args[3]);
@@ -71,21 +97,23 @@ public class Client {
             throw new NumberFormatException("<port> should be an Integer.");
         }
         String host = args[1];
-        Client client = new Client(host, port);
+        Client client = new Client(host, port, true, tcpNoDelay);
            /*
             TO DO
             Create a new GameClient class and call the game execution.
             */
         // Start game client
-        GameClient game = new GameClient(client.getSocket(), client.getComutils());
+        // The game resumes its session on a new connection if this one drops
+        GameClient game = new GameClient(client);
         game.run();
 
         // Close the connection once game finished
         try {
-            client.getComutils().getDataOutputStream().flush();
-            client.getComutils().getDataInputStream().close();
-            client.getComutils().getDataOutputStream().close();
-            client.getSocket().close();
+            Client last = game.getClient();
+            last.getComutils().getDataOutputStream().flush();
+            last.getComutils().getDataInputStream().close();
+            last.getComutils().getDataOutputStream().close();
+            last.getSocket().close();
         } catch (IOException e) {
             throw new RuntimeException("I/O Error when closing the socket:\n" + e.getMessage());
         }
@@ -1,8 +1,14 @@
 package p1.client;
 
 import utils.ComUtils;
+import utils.engine.Grid;
+import utils.engine.GridSearch;
+import utils.engine.Strategies;
+import utils.engine.Strategy;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.net.Socket;
 import java.util.Scanner;
 
@@ -14,15 +20,54 @@ public class ClientProtocol {
     private final byte ADMIT = (byte) 4;
     private final byte ACTION = (byte) 5;
     private final byte RESULT = (byte) 6;
+    private final byte CONFIG = (byte) 7;
     private final byte ERROR = (byte) 8;
+    // CONFIG options
+    public static final byte OPTION_SIZE = (byte) 1;
+    public static final byte OPTION_K = (byte) 2;
+    public static final byte OPTION_MULTIPLEX = (byte) 3;
+    public static final byte OPTION_COMPACT = (byte) 4;
+    public static final byte OPTION_OPPONENT = (byte) 5;
+    public static final byte OPTION_ENGINE = (byte) 6;
+    public static final byte OPTION_RESUME = (byte) 7;
+    // Position byte of a Result without server move in the compact mode
+    private static final int NO_MOVE = 0xFF;
+    // Time budget of the automatic moves on the larger boards, in milliseconds
+    private static final long MOVE_BUDGET_MS = 1000;
     // Session ID
     private int id;
     private final ComUtils comutils;
-    // Table
-    private int[][] board;
+    // Board size and marks in a row accepted by the server for the next game
+    private int size = 3;
+    private int k = 3;
+    // Table of the current game, the client is player 1 and the server player 2
+    private Grid board = new Grid(3, 3);
+    // Strategy of the automatic moves on the classic board, and search used on the larger ones
+    private Strategy strategy = Strategies.MINIMAX;
+    private final GridSearch gridSearch = new GridSearch(MOVE_BUDGET_MS);
     // Last move made by client, used to print after server action or result received
     private String lastMove;
     private Socket socket;
+    // Opcode of the last message received and result flag of the last game
+    private byte lastOpcode;
+    private int result = -1;
+    // Console of the player, a null stream for headless clients
+    private PrintStream out = System.out;
+    private boolean verbose = true;
+    // Messages are sent by flush() instead of one by one, to send several without waiting for the replies
+    private boolean pipelined;
+    // The next Ready message may not give back the id, the session of a dropped connection could not be resumed
+    private boolean resuming;
+    // Token that resumes the session on another connection, 0 until the server gives one with OPTION_RESUME
+    private int resumeToken;
+    // Name sent in the last Hello, sent again to resume the session
+    private String name;
+    // Positions are sent as a single cell index byte, once the server has accepted it
+    private boolean compact;
+    // The opponent is another client, chosen with OPTION_OPPONENT
+    private boolean againstPlayer;
+    // The opponent makes the first move of the current game
+    private boolean opponentFirst;
 
     /**
      * Constructor
@@ -34,7 +79,34 @@ public class ClientProtocol {
     public ClientProtocol(Socket socket, ComUtils comutils) {
         this.socket = socket;
         this.comutils = comutils;
-        board = new int[3][3];
+    }
+
+    /**
+     * Constructor
+     * Goes on with the session of a dropped connection: the next Hello sends its id,
+     * and the server resumes the game where it was
+     *
+     * @param socket New connection
+     * @param comutils Comutils object to handle the communication
+     * @param previous Protocol of the dropped connection
+     */
+    public ClientProtocol(Socket socket, ComUtils comutils, ClientProtocol previous) {
+        this(socket, comutils);
+        this.id = previous.id;
+        this.size = previous.size;
+        this.k = previous.k;
+        this.board = previous.board;
+        this.lastMove = previous.lastMove;
+        this.out = previous.out;
+        this.verbose = previous.verbose;
+        this.resumeToken = previous.resumeToken;
+        this.name = previous.name;
+        this.strategy = previous.strategy;
+        // The server resumes the session with its modes and its match
+        this.compact = previous.compact;
+        this.againstPlayer = previous.againstPlayer;
+        this.opponentFirst = previous.opponentFirst;
+        this.resuming = id != 0;
     }
 
     /**
@@ -64,8 +136,19 @@ public class ClientProtocol {
      * @throws IOException If an I/O error occurs
      */
     public boolean receiveMessages() throws IOException {
-        socket.setSoTimeout(5000); // 5 seconds timeout
-        byte opcode = comutils.getDataInputStream().readByte();
+        // 5 seconds for the server, a human opponent may think longer, the server disconnects idle players
+        socket.setSoTimeout(againstPlayer ? 0 : 5000);
+        return receiveMessage(comutils.getDataInputStream().readByte());
+    }
+
+    /**
+     * Receives a message from the server whose opcode has already been read
+     * @param opcode Opcode of the message
+     * @return True if the game should moveto next state, false otherwise
+     * @throws IOException If an I/O error occurs
+     */
+    public boolean receiveMessage(byte opcode) throws IOException {
+        lastOpcode = opcode;
         switch (opcode) {
             case READY:
                 this.receiveReady();
@@ -82,6 +165,9 @@ public class ClientProtocol {
             case RESULT:
                 this.receiveResult();
                 return true;
+            case CONFIG:
+                this.receiveConfig();
+                return true;
             default:
                 throw new RuntimeException("Invalid opcode");
         }
@@ -99,11 +185,24 @@ public class ClientProtocol {
             System.out.println("Welcome to the game! What's your name:");
             name = sc.nextLine();
         }
+        sendHello(name);
+    }
+
+    /**
+     * Sends a Hello message to the server
+     * @param name Name of the player
+     * @throws IOException If an I/O error occurs
+     */
+    public void sendHello(String name) throws IOException {
+        // The token goes first, the server keeps it for this Hello and does not reply to it
+        if (resuming && resumeToken != 0) sendConfig(OPTION_RESUME, resumeToken);
+        this.name = name;
         comutils.getDataOutputStream().writeByte(HELLO);
         comutils.write_int32(id); // Initial id is 0
         comutils.write_string(name);
         comutils.getDataOutputStream().writeByte(0);
         comutils.getDataOutputStream().writeByte(0);
+        endMessage();
     }
 
     /**
@@ -115,9 +214,16 @@ public class ClientProtocol {
         // If the id is 0, it's the first time the client receives a message, else there is an error
         if (this.id == 0) {
             this.id = id;
+        } else if (resuming && this.id != id) {
+            // The server forgot the session, a new one starts
+            out.println("Session could not be resumed, starting a new one");
+            this.id = id;
+            resumeToken = 0;
+            playAgain();
         } else if (this.id != id) {
             throw new RuntimeException("Invalid id");
         }
+        resuming = false;
     }
 
     /**
@@ -127,6 +233,38 @@ public class ClientProtocol {
     public void sendPlay() throws IOException {
         comutils.getDataOutputStream().writeByte(PLAY);
         comutils.write_int32(id);
+        endMessage();
+    }
+
+    /**
+     * Sends a Config message to the server to choose the variant of the next games
+     * @param option OPTION_SIZE, OPTION_K, OPTION_MULTIPLEX, OPTION_COMPACT, OPTION_OPPONENT, OPTION_ENGINE or OPTION_RESUME
+     * @param value Board size from 3 to 15, marks in a row needed to win, 1/0 to turn a mode on/off,
+     *              opponent group, engine of the server (1 minimax, 2 table, 3 mcts, 4 weak, 0 the default),
+     *              or any value to ask for the resume token of the session
+     * @throws IOException If an I/O error occurs
+     */
+    public void sendConfig(byte option, int value) throws IOException {
+        comutils.getDataOutputStream().writeByte(CONFIG);
+        comutils.write_int32(id);
+        comutils.getDataOutputStream().writeByte(option);
+        comutils.write_int32(value);
+        endMessage();
+    }
+
+    /**
+     * Receives a Config message from the server with the accepted value of an option
+     * @throws IOException If an I/O error occurs
+     */
+    public void receiveConfig() throws IOException {
+        if (comutils.read_int32() != id) throw new RuntimeException("Invalid id");
+        byte option = comutils.getDataInputStream().readByte();
+        int value = comutils.read_int32();
+        if (option == OPTION_SIZE) size = value;
+        else if (option == OPTION_K) k = value;
+        else if (option == OPTION_COMPACT) compact = value == 1;
+        else if (option == OPTION_OPPONENT) againstPlayer = value != 0;
+        else if (option == OPTION_RESUME) resumeToken = value;
     }
 
     /**
@@ -139,19 +277,26 @@ public class ClientProtocol {
         if (this.id != id || flag == 0) {
             throw new RuntimeException("Invalid id or not admitted");
         } else {
-            System.out.println("Admitted to play");
-            System.out.println("Game has started");
-            System.out.println("You are 'X' and the server is 'O'");
-
-            for (int i = 0; i < 3; i++) {
-                if (i > 0) System.out.println("-------------------");
-                System.out.print("| ");
-                for (int j = 0; j < 3; j++) {
-                    System.out.print(i + "-" + j +  " | ");
+            board = new Grid(size, Math.min(k, size));
+            opponentFirst = flag == 2;
+            out.println("Admitted to play");
+            out.println("Game has started");
+            out.println(againstPlayer ? "You are 'X' and your opponent is 'O'" : "You are 'X' and the server is 'O'");
+            if (opponentFirst) out.println("Your opponent moves first");
+            if (board.size() != 3 || board.k() != 3) {
+                out.println("Board " + size + "x" + size + ", " + board.k() + " in a row to win");
+            }
+
+            String separator = line((Grid.moveWidth(size) + 3) * size + 1);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) out.println(separator);
+                out.print("| ");
+                for (int j = 0; j < size; j++) {
+                    out.print(Grid.formatMove(i * size + j, size) +  " | ");
                 }
-                System.out.println();
+                out.println();
             }
-            System.out.println("\n\n");
+            out.println("\n\n");
         }
     }
 
@@ -161,30 +306,34 @@ public class ClientProtocol {
      * @param moved 1 if client moved, 2 if server moved
      */
     private void printBoard(String move, int moved) {
-        int row = Integer.parseInt(move.split("-")[0]);
-        int col = Integer.parseInt(move.split("-")[1]);
+        // The opponent may move before the player has made any move
+        if (move == null || move.isEmpty()) return;
+        int size = board.size();
+        int cell = Grid.parseMove(move, size);
         if (moved == 1) {
-            System.out.println("You have played: " + lastMove);
-            board[row][col] = 1;
+            out.println("You have played: " + lastMove);
         } else if (moved == 2) {
-            System.out.println("Server has played: " + move);
-            board[row][col] = 2;
+            out.println((againstPlayer ? "Your opponent has played: " : "Server has played: ") + move);
         }
-        for (int i = 0; i < 3; i++) {
-            if (i > 0) System.out.println("-------------");
-            System.out.print("| ");
-            for (int j = 0; j < 3; j++) {
-                if (board[i][j] == 0) {
-                    System.out.print("  | ");
-                } else if (board[i][j] == 1) {
-                    System.out.print("X | ");
+        if (cell != -1 && board.get(cell) == 0) board.play(cell, moved);
+        if (!verbose) return;
+        String separator = line(4 * size + 1);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) out.println(separator);
+            out.print("| ");
+            for (int j = 0; j < size; j++) {
+                int owner = board.get(i * size + j);
+                if (owner == 1) {
+                    out.print("X | ");
+                } else if (owner == 2) {
+                    out.print("O | ");
                 } else {
-                    System.out.print("O | ");
+                    out.print("  | ");
                 }
             }
-            System.out.println();
+            out.println();
         }
-        System.out.println("\n\n");
+        out.println("\n\n");
     }
 
     /**
@@ -198,19 +347,48 @@ public class ClientProtocol {
             System.out.println("Do you want to make the move or do you want it to be automatic? (M/A)");
             choice = new Scanner(System.in).nextLine();
         }
+        int width = Grid.moveWidth(board.size());
         if (choice.equalsIgnoreCase("A")) {
-            int[] autoMove = minimaxClient(true);
-            lastMove = autoMove[1] + "-" + autoMove[2];
+            lastMove = automaticMove();
         } else {
             /* Asks for the move to the client, checks for correct format */
-            while (lastMove.length() != 3) {
-                System.out.println("Enter your move with the following format: row-col (from 0 to 2) Example: 0-0");
+            String example = Grid.formatMove(0, board.size());
+            while (lastMove.length() != width) {
+                System.out.println("Enter your move with the following format: row-col (from 0 to " + (board.size() - 1) + ") Example: " + example);
                 lastMove = new Scanner(System.in).nextLine();
             }
         }
+        sendAction(lastMove);
+    }
+
+    /**
+     * Sends an Action message to the server
+     * @param move Position to mark, in the format of the current board
+     * @throws IOException If an I/O error occurs
+     */
+    public void sendAction(String move) throws IOException {
+        lastMove = move;
         comutils.getDataOutputStream().writeByte(ACTION);
         comutils.write_int32(id);
-        comutils.write_string(lastMove);
+        if (compact) {
+            int cell = Grid.parseMove(move, board.size());
+            comutils.getDataOutputStream().writeByte(cell == -1 ? NO_MOVE : cell);
+        } else {
+            comutils.write_string(lastMove);
+        }
+        endMessage();
+    }
+
+    /**
+     * Reads the position of an Action or Result message
+     * @return Position in the format of the current board, dashes if there is no move
+     * @throws IOException If an I/O error occurs
+     */
+    private String readMove() throws IOException {
+        if (!compact) return comutils.read_string(Grid.moveWidth(board.size()));
+        int cell = comutils.getDataInputStream().readUnsignedByte();
+        if (cell < board.size() * board.size()) return Grid.formatMove(cell, board.size());
+        return Grid.moveWidth(board.size()) == 3 ? "---" : "-----";
     }
 
     /**
@@ -220,7 +398,7 @@ public class ClientProtocol {
     public void receiveAction() throws IOException {
         if (comutils.read_int32() != id) throw new RuntimeException("Invalid id");
         printBoard(lastMove, 1);
-        String action = comutils.read_string(3);
+        String action = readMove();
         printBoard(action, 2);
     }
 
@@ -230,22 +408,22 @@ public class ClientProtocol {
      */
     public void receiveResult() throws IOException {
         if (comutils.read_int32() != id) throw new RuntimeException("Invalid id");
-        String position = comutils.read_string(3);
-        int result = comutils.getDataInputStream().readByte();
+        String position = readMove();
+        result = comutils.getDataInputStream().readByte();
         printBoard(lastMove, 1);
         /* Prints the result of the game */
         switch (result) {
             case 0:
-                System.out.println("Last move played: " + position);
+                out.println("Last move played: " + position);
                 printBoard(position, 2);
-                System.out.println("The Server has won.\nBetter luck next time.");
+                out.println((againstPlayer ? "Your opponent has won." : "The Server has won.") + "\nBetter luck next time.");
                 break;
             case 1:
-                System.out.println("Last move played: " + position);
-                System.out.println("Congratulations!! You Win!!");
+                out.println("Last move played: " + position);
+                out.println("Congratulations!! You Win!!");
                 break;
             case 2:
-                System.out.println("It's a draw!");
+                out.println("It's a draw!");
                 break;
             default:
                 throw new RuntimeException("Invalid result");
@@ -265,6 +443,7 @@ public class ClientProtocol {
         comutils.write_string(error);
         comutils.getDataOutputStream().writeByte(0);
         comutils.getDataOutputStream().writeByte(0);
+        endMessage();
     }
 
     /**
@@ -275,7 +454,15 @@ public class ClientProtocol {
         if (comutils.read_int32() != id) throw new RuntimeException("Invalid id");
         int code = comutils.getDataInputStream().readByte();
         String message = comutils.findString();
-        System.out.println(message);
+        out.println(message);
+    }
+
+    /**
+     * Checks who starts the current game
+     * @return True if the first message of the game is the move of the opponent, after an Admit with flag 2
+     */
+    public boolean opponentMovesFirst() {
+        return opponentFirst;
     }
 
     /**
@@ -283,87 +470,108 @@ public class ClientProtocol {
      */
     public void playAgain() {
         lastMove = "";
-        board = new int[3][3];
+        board = new Grid(size, Math.min(k, size));
     }
 
     /**
-     * Minimax algorithm to calculate the best move for the client
-     * @param isMaximizing True if the client is maximizing, false otherwise
-     * @return Array with the score and the row and column of the best move
+     * Best move for the client in the format of the current board
+     * @return Position to mark
      */
-    private int[] minimaxClient(boolean isMaximizing) {
-        if (clientWon()) return new int[]{1, 0, 0};
-        if (serverWon()) return new int[]{-1, 0, 0};
-        if (gameDraw()) return new int[]{0, 0, 0};
+    public String automaticMove() {
+        return Grid.formatMove(autoMove(), board.size());
+    }
 
-        if (isMaximizing) {
-            int[] bestScore = {Integer.MIN_VALUE, 0, 0};
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    if (board[i][j] == 0) {
-                        board[i][j] = 1;
-                        int[] score = minimaxClient(false);
-                        board[i][j] = 0;
-                        if (score[0] > bestScore[0]) bestScore = new int[]{score[0], i, j};
-                    }
-                }
-            }
-            return bestScore;
-        } else {
-            int[] bestScore = {Integer.MAX_VALUE, 0, 0};
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    if (board[i][j] == 0) {
-                        board[i][j] = 2;
-                        int[] score = minimaxClient(true);
-                        board[i][j] = 0;
-                        if (score[0] < bestScore[0]) bestScore = new int[]{score[0], i, j};
-                    }
-                }
-            }
-            return bestScore;
-        }
+    /**
+     * Sends the messages written since the last flush
+     * @throws IOException If an I/O error occurs
+     */
+    public void flush() throws IOException {
+        comutils.flush();
     }
 
     /**
-     * Checks if the client has won
-     * @return True if the client has won, false otherwise
+     * Pipelines the messages: they are kept until flush() and sent together, and the server
+     * replies to each one in order. For instance a Play and the first Action, or several Play
+     * messages for back-to-back games, cost a single round trip
+     * @param pipelined True to send the messages only on flush()
      */
-    private boolean clientWon() {
-        // Code for checking if game is won
-        for (int i = 0; i < 3; i++) {
-            if (board[i][0] == 1 && board[i][1] == 1 && board[i][2] == 1) return true;
-            if (board[0][i] == 1 && board[1][i] == 1 && board[2][i] == 1) return true;
-        }
-        if (board[0][0] == 1 && board[1][1] == 1 && board[2][2] == 1) return true;
-        return board[0][2] == 1 && board[1][1] == 1 && board[2][0] == 1;
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    private void endMessage() throws IOException {
+        if (!pipelined) comutils.flush();
     }
 
     /**
-     * Checks if the server has won
-     * @return True if the server has won, false otherwise
+     * Shows or hides the messages and boards printed for the player
+     * @param verbose False for headless clients
      */
-    private boolean serverWon() {
-        // Code for checking if game is won
-        for (int i = 0; i < 3; i++) {
-            if (board[i][0] == 2 && board[i][1] == 2 && board[i][2] == 2) return true;
-            if (board[0][i] == 2 && board[1][i] == 2 && board[2][i] == 2) return true;
-        }
-        if (board[0][0] == 2 && board[1][1] == 2 && board[2][2] == 2) return true;
-        return board[0][2] == 2 && board[1][1] == 2 && board[2][0] == 2;
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+        this.out = verbose ? System.out : new PrintStream(OutputStream.nullOutputStream());
     }
 
     /**
-     * Checks if the game is a draw
-     * @return True if the game is a draw, false otherwise
+     * Board of the current game, the client is player 1 and the server player 2
+     * @return Board, updated after every move
      */
-    private boolean gameDraw() {
-        // Code for checking if game is a draw
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                if (board[i][j] == 0) return false;
-            }
-        }
-        return !clientWon() && !serverWon();
+    public Grid getBoard() {
+        return board;
+    }
+
+    /**
+     * Opcode of the last message received
+     * @return Opcode, ACTION while the game goes on, RESULT once it has ended and ERROR if a move was refused
+     */
+    public byte getLastOpcode() {
+        return lastOpcode;
+    }
+
+    /**
+     * Result flag of the last game
+     * @return 0 if the server won, 1 if the client won, 2 for a draw, -1 before the first result
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * Checks if the session can be resumed on another connection
+     * @return True once the server has given a resume token
+     */
+    public boolean canResume() {
+        return resumeToken != 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Chooses the strategy of the automatic moves on the classic board, the larger boards always use a timed search
+     * @param strategy Strategy, minimax by default
+     */
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Best move for the client, with the chosen strategy on the classic board and a timed search on the larger ones
+     * @return Cell index of the move
+     */
+    private int autoMove() {
+        if (board.size() == 3 && board.k() == 3) return strategy.move(board.mask(1), board.mask(2));
+        return gridSearch.bestMove(board, 1);
+    }
+
+    private static String line(int length) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < length; i++) line.append('-');
+        return line.toString();
     }
 }
@@ -2,6 +2,8 @@ package p1.client;
 
 import utils.ComUtils;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
@@ -12,7 +14,9 @@ public class GameClient {
     TO DO.
     Class that encapsulates the game's logic. Sequence of states following the established protocol .
      */
-    private final ClientProtocol protocol;
+    private ClientProtocol protocol;
+    // Connection to the server, opened again to resume the session when it drops, null if it can not be
+    private Client client;
 
     /**
      * Constructor
@@ -24,14 +28,74 @@ public class GameClient {
         protocol = new ClientProtocol(socket, comutils);
     }
 
+    /**
+     * Constructor
+     * The session is resumed on a new connection when the connection to the server drops
+     * @param client Connection to the server
+     */
+    public GameClient(Client client) {
+        this(client.getSocket(), client.getComutils());
+        this.client = client;
+    }
+
+    /**
+     * Connection to the server, a new one if the session was resumed
+     * @return Connection, null if the game was built on a socket
+     */
+    public Client getClient() {
+        return client;
+    }
+
     /**
      * Main method to connect and start the game
      */
     public void run() {
         this.connect(); // sendHello
+        this.askResumeToken(); // sendConfig
+        this.configure(); // sendConfig
         this.startGame(); // sendPlay
     }
 
+    /**
+     * Asks the server for the token that resumes the session if the connection drops
+     */
+    private void askResumeToken() {
+        if (client == null) return;
+        try {
+            protocol.sendConfig(ClientProtocol.OPTION_RESUME, 0);
+            protocol.receiveMessages(); // Expected config with the token
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Opens a new connection after the old one dropped and resumes the session with its token.
+     * If the server could not resume it, a new game starts
+     * @return True if the game goes on, false if the session can not be resumed
+     */
+    private boolean reconnect() {
+        if (client == null || !protocol.canResume()) return false;
+        System.out.println("Connection lost, reconnecting...");
+        try {
+            Client next = new Client(client.host, client.port, client.buffered, client.getSocket().getTcpNoDelay());
+            int id = protocol.getId();
+            protocol = new ClientProtocol(next.getSocket(), next.getComutils(), protocol);
+            protocol.sendHello(protocol.getName());
+            protocol.receiveMessages(); // Expected ready with the id of the session
+            client.getSocket().close();
+            client = next;
+            if (protocol.getId() != id) {
+                this.askResumeToken();
+                this.sendPlay();
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not reconnect: " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Connects to the server
      * Sends a Hello message and waits for a Ready message
@@ -48,12 +112,74 @@ public class GameClient {
             } catch (SocketTimeoutException e) {
                 System.err.println("The server is not responding. Goodbye!");
                 System.exit(0);
-            }catch (java.io.IOException e) {
+            } catch (IOException e) {
                 System.err.println(e.getMessage());
             }
         }
     }
 
+    /**
+     * Chooses the opponent and the board of the games
+     * Sends a Config message for the opponent if the player wants to play against another player,
+     * and for the size and the marks in a row if the player wants a larger board
+     */
+    private void configure() {
+        String opponent = "";
+        while (!opponent.equalsIgnoreCase("s") && !opponent.equalsIgnoreCase("p")) {
+            System.out.println("Do you want to play against the server or against another player? (s/p)");
+            opponent = new Scanner(System.in).nextLine().trim();
+        }
+        if (opponent.equalsIgnoreCase("p")) {
+            try {
+                protocol.sendConfig(ClientProtocol.OPTION_OPPONENT, 1);
+                protocol.receiveMessages(); // Expected config, or an error if the server only plays itself
+            } catch (SocketTimeoutException e) {
+                System.err.println("The server is not responding. Goodbye!");
+                System.exit(0);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        int size = askNumber("Board size from 3 to 15 (Enter for the classic 3x3):", 3, 15, 3);
+        if (size == 3) return;
+        int k = Math.min(size, 5);
+        k = askNumber("Marks in a row to win from 3 to " + size + " (Enter for " + k + "):", 3, size, k);
+        try {
+            protocol.sendConfig(ClientProtocol.OPTION_SIZE, size);
+            protocol.receiveMessages(); // Expected config
+            protocol.sendConfig(ClientProtocol.OPTION_K, k);
+            protocol.receiveMessages(); // Expected config
+            protocol.playAgain(); // Board of the new size
+        } catch (SocketTimeoutException e) {
+            System.err.println("The server is not responding. Goodbye!");
+            System.exit(0);
+        } catch (java.io.IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Asks for a number in a range
+     * @param question Question to print
+     * @param min Smallest valid number
+     * @param max Largest valid number
+     * @param defaultNumber Number used if the player only presses Enter
+     * @return The number chosen
+     */
+    private int askNumber(String question, int min, int max, int defaultNumber) {
+        while (true) {
+            System.out.println(question);
+            String input = new Scanner(System.in).nextLine().trim();
+            if (input.isEmpty()) return defaultNumber;
+            try {
+                int number = Integer.parseInt(input);
+                if (number >= min && number <= max) return number;
+            } catch (NumberFormatException e) {
+                // Asks again
+            }
+        }
+    }
+
     /**
      * Starts the game
      * Sends a Play message and starts the game
@@ -103,13 +229,14 @@ public class GameClient {
             try {
                 protocol.sendMessage((byte) 3); // sendPlay
                 condition = protocol.receiveMessages(); // Expected receiveAdmit
-            }  catch (SocketException e) {
+            }  catch (SocketException | EOFException e) {
+                if (reconnect()) continue;
                 System.err.println("You took too long to respond. Goodbye!");
                 System.exit(0);
             } catch (SocketTimeoutException e) {
                 System.err.println("The server is not responding. Goodbye!");
                 System.exit(0);
-            }catch (java.io.IOException e) {
+            } catch (IOException e) {
                 System.err.println(e.getMessage());
             }
         }
@@ -121,17 +248,22 @@ public class GameClient {
       */
     private void play() {
         boolean condition = false;
+        // Against another player the second player waits for the first move
+        boolean waiting = protocol.opponentMovesFirst();
         while (!condition) {
             try {
-                protocol.sendMessage((byte) 5); // sendAction
+                if (!waiting) protocol.sendMessage((byte) 5); // sendAction
+                waiting = false;
                 condition = protocol.receiveMessages(); // Expected action or result
-            }  catch (SocketException e) {
+            }  catch (SocketException | EOFException e) {
+                // The move in flight may be lost: the server asks for it again, or says it is not our turn
+                if (reconnect()) continue;
                 System.err.println("You took too long to respond. Goodbye!");
                 System.exit(0);
             } catch (SocketTimeoutException e) {
                 System.err.println("The server is not responding. Goodbye!");
                 System.exit(0);
-            }catch (java.io.IOException e) {
+            } catch (IOException e) {
                 System.err.println(e.getMessage());
             }
         }
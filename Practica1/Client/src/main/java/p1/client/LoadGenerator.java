@@ -0,0 +1,395 @@
+package p1.client;
+
+import utils.ComUtils;
+import utils.LatencyHistogram;
+import utils.engine.Grid;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator.
+ * Opens many connections to a server and plays games on all of them at once through ClientProtocol,
+ * without any console input, then reports the games per second, the round-trip latency of the moves
+ * and the errors.
+ */
+public class LoadGenerator {
+    public static final String INIT_ERROR = "LoadGenerator should be initialized with -h <host> -p <port> "
+            + "[-c <connections>] [-g <games per connection>] [-r <games per second>] "
+            + "[-s <random|minimax|scripted>] [-b <board size>] [-P <on|off>] [-x <sessions per connection>] [-C <on|off>]";
+    private static final byte ACTION = (byte) 5;
+    private static final byte RESULT = (byte) 6;
+    private static final byte READY = (byte) 2;
+    private static final byte CONFIG = (byte) 7;
+    private static final byte ERROR = (byte) 8;
+    // Order of the cells tried by the scripted strategy: centre, corners, edges
+    private static final int[] SCRIPT = {4, 0, 2, 6, 8, 1, 3, 5, 7};
+
+    /**
+     * How the generated clients choose their moves
+     */
+    public enum Strategy {
+        // Any empty cell
+        RANDOM,
+        // The automatic move of ClientProtocol, perfect play on the classic board
+        MINIMAX,
+        // The first empty cell of a fixed order, every game is the same
+        SCRIPTED
+    }
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int gamesPerConnection;
+    // Games per second started by all the connections together, 0 for as fast as possible
+    private final double rate;
+    private final Strategy strategy;
+    private final int size;
+    // Sends the first Action of every game together with its Play message
+    private final boolean pipelined;
+    // Sessions multiplexed on each connection, 1 for the classic one-session mode
+    private int sessionsPerConnection = 1;
+    // Moves are sent as a single cell index byte
+    private boolean compact;
+
+    // Nanoseconds from sending an Action to receiving the reply
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder[] results = {new LongAdder(), new LongAdder(), new LongAdder()};
+    private long elapsedNanos;
+
+    /**
+     * Constructor
+     * @param host Host of the server
+     * @param port Port of the server
+     * @param connections Connections opened at once, one session and thread each
+     * @param gamesPerConnection Games played on every connection
+     * @param rate Games per second of all the connections together, 0 for no limit
+     * @param strategy How the moves are chosen
+     * @param size Board size, 3 for the classic board
+     */
+    public LoadGenerator(String host, int port, int connections, int gamesPerConnection, double rate, Strategy strategy, int size) {
+        this(host, port, connections, gamesPerConnection, rate, strategy, size, false);
+    }
+
+    /**
+     * Constructor
+     * @param host Host of the server
+     * @param port Port of the server
+     * @param connections Connections opened at once, one session and thread each
+     * @param gamesPerConnection Games played on every connection
+     * @param rate Games per second of all the connections together, 0 for no limit
+     * @param strategy How the moves are chosen
+     * @param size Board size, 3 for the classic board
+     * @param pipelined True to send the first Action of each game with its Play message
+     */
+    public LoadGenerator(String host, int port, int connections, int gamesPerConnection, double rate, Strategy strategy, int size, boolean pipelined) {
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.gamesPerConnection = gamesPerConnection;
+        this.rate = rate;
+        this.strategy = strategy;
+        this.size = size;
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Plays all the games and waits for them to end
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void run() throws InterruptedException {
+        Thread[] sessions = new Thread[connections];
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            int index = i;
+            sessions[i] = new Thread(() -> session(index), "load-" + i);
+            sessions[i].start();
+        }
+        for (Thread session : sessions) session.join();
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Plays the games of one connection
+     * @param index Number of the connection
+     */
+    private void session(int index) {
+        LatencyHistogram latency = new LatencyHistogram();
+        Random random = new Random(index);
+        // Each connection starts a game every interval, the connections are spread over the first interval
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * connections / rate) : 0;
+        long next = System.nanoTime() + (connections == 0 ? 0 : interval * index / connections);
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            ComUtils comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+            if (sessionsPerConnection > 1) {
+                multiplexed(new Multiplexer(socket, comutils, "load-" + index), index, random, latency);
+                return;
+            }
+            ClientProtocol protocol = new ClientProtocol(socket, comutils);
+            protocol.setVerbose(false);
+            protocol.setPipelined(pipelined);
+            protocol.sendHello("load-" + index);
+            protocol.flush();
+            protocol.receiveMessages();
+            if (compact) {
+                protocol.sendConfig(ClientProtocol.OPTION_COMPACT, 1);
+                protocol.flush();
+                protocol.receiveMessages();
+            }
+            if (size != 3) {
+                protocol.sendConfig(ClientProtocol.OPTION_SIZE, size);
+                protocol.sendConfig(ClientProtocol.OPTION_K, Math.min(size, 5));
+                protocol.flush();
+                protocol.receiveMessages();
+                protocol.receiveMessages();
+            }
+            for (int game = 0; game < gamesPerConnection; game++) {
+                if (interval > 0) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                    next += interval;
+                }
+                if (!play(protocol, random, latency)) return;
+                games.increment();
+                results[protocol.getResult()].increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            errors.increment();
+        } finally {
+            moveLatency.add(latency);
+        }
+    }
+
+    /**
+     * Plays the games of every session of a multiplexed connection at once.
+     * Each session always has a message in flight: its next game starts with the Play and the
+     * first Action pipelined, and every reply to an Action is answered with the next move
+     * @param multiplexer Connection, with its first session open
+     * @param index Number of the connection
+     */
+    private void multiplexed(Multiplexer multiplexer, int index, Random random, LatencyHistogram latency) throws IOException {
+        Map<ClientProtocol, long[]> sent = new IdentityHashMap<>();
+        Map<ClientProtocol, Integer> played = new IdentityHashMap<>();
+        for (int i = 1; i < sessionsPerConnection; i++) multiplexer.open("load-" + index + "-" + i);
+        // Replies still expected: the Ready of each new session
+        int pending = sessionsPerConnection - 1;
+        for (ClientProtocol session : multiplexer.all()) {
+            pending += compact ? sendCompact(session) : startGame(session, random, sent);
+            played.put(session, 0);
+        }
+        while (pending > 0) {
+            ClientProtocol session = multiplexer.receive();
+            pending--;
+            switch (session.getLastOpcode()) {
+                case READY:
+                    played.put(session, 0);
+                    pending += compact ? sendCompact(session) : startGame(session, random, sent);
+                    break;
+                case CONFIG:
+                    // The compact mode is on, the moves of the first game can be sent
+                    pending += startGame(session, random, sent);
+                    break;
+                case ACTION:
+                    latency.record(System.nanoTime() - sent.get(session)[0]);
+                    moves.increment();
+                    pending += sendMove(session, random, sent);
+                    break;
+                case RESULT:
+                    latency.record(System.nanoTime() - sent.get(session)[0]);
+                    moves.increment();
+                    games.increment();
+                    results[session.getResult()].increment();
+                    if (played.merge(session, 1, Integer::sum) < gamesPerConnection) pending += startGame(session, random, sent);
+                    break;
+                case ERROR:
+                    errors.increment();
+                    break;
+                default:
+                    // Admit of a game, its first Action is already on the way
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Starts a game on a multiplexed session with its Play and first Action
+     * @return Replies expected
+     */
+    private int startGame(ClientProtocol session, Random random, Map<ClientProtocol, long[]> sent) throws IOException {
+        session.playAgain();
+        session.sendPlay();
+        return 1 + sendMove(session, random, sent);
+    }
+
+    /**
+     * Asks for the compact mode on a multiplexed session, its games start once the server accepts it
+     * @return Replies expected
+     */
+    private int sendCompact(ClientProtocol session) throws IOException {
+        session.sendConfig(ClientProtocol.OPTION_COMPACT, 1);
+        return 1;
+    }
+
+    private int sendMove(ClientProtocol session, Random random, Map<ClientProtocol, long[]> sent) throws IOException {
+        session.sendAction(nextMove(session, random));
+        sent.computeIfAbsent(session, key -> new long[1])[0] = System.nanoTime();
+        return 1;
+    }
+
+    /**
+     * Multiplexes several sessions on each connection, each one plays the given games
+     * @param sessionsPerConnection Sessions on a connection, 1 for the classic one-session mode
+     * @return This generator
+     */
+    public LoadGenerator setSessionsPerConnection(int sessionsPerConnection) {
+        this.sessionsPerConnection = sessionsPerConnection;
+        return this;
+    }
+
+    /**
+     * Sends every move as a single cell index byte instead of a row-col string
+     * @param compact True for the compact mode
+     * @return This generator
+     */
+    public LoadGenerator setCompact(boolean compact) {
+        this.compact = compact;
+        return this;
+    }
+
+    /**
+     * Plays one game until its result
+     * @return False if the server refused a move
+     */
+    private boolean play(ClientProtocol protocol, Random random, LatencyHistogram latency) throws IOException {
+        protocol.playAgain();
+        protocol.sendPlay();
+        // Pipelined, the Admit is read before the reply to the first Action sent with the Play
+        boolean admitPending = pipelined;
+        if (!admitPending) protocol.receiveMessages();
+        while (true) {
+            String move = nextMove(protocol, random);
+            long sent = System.nanoTime();
+            protocol.sendAction(move);
+            protocol.flush();
+            if (admitPending) {
+                protocol.receiveMessages();
+                admitPending = false;
+            }
+            protocol.receiveMessages();
+            latency.record(System.nanoTime() - sent);
+            moves.increment();
+            byte opcode = protocol.getLastOpcode();
+            if (opcode == RESULT) return true;
+            if (opcode != ACTION) {
+                errors.increment();
+                return false;
+            }
+        }
+    }
+
+    private String nextMove(ClientProtocol protocol, Random random) {
+        Grid board = protocol.getBoard();
+        int cells = board.size() * board.size();
+        switch (strategy) {
+            case MINIMAX:
+                return protocol.automaticMove();
+            case SCRIPTED:
+                if (cells == 9) {
+                    for (int cell : SCRIPT) {
+                        if (board.get(cell) == 0) return Grid.formatMove(cell, 3);
+                    }
+                }
+                for (int cell = 0; cell < cells; cell++) {
+                    if (board.get(cell) == 0) return Grid.formatMove(cell, board.size());
+                }
+                throw new IllegalStateException("Board is full");
+            default:
+                int empty = random.nextInt(cells - board.moves());
+                for (int cell = 0; cell < cells; cell++) {
+                    if (board.get(cell) == 0 && empty-- == 0) return Grid.formatMove(cell, board.size());
+                }
+                throw new IllegalStateException("Board is full");
+        }
+    }
+
+    public long games() {
+        return games.sum();
+    }
+
+    public long moves() {
+        return moves.sum();
+    }
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    public LatencyHistogram moveLatency() {
+        return moveLatency;
+    }
+
+    /**
+     * Summary of the last run
+     * @return Games per second, results, move latency in microseconds and errors
+     */
+    public String report() {
+        double seconds = elapsedNanos / 1e9;
+        return String.format("%d games in %.2f s, %.1f games/s, %d moves%n", games(), seconds, games() / seconds, moves())
+                + String.format("results: server %d, client %d, draw %d%n", results[0].sum(), results[1].sum(), results[2].sum())
+                + "move round trip: " + moveLatency.summary(1000, "us") + System.lineSeparator()
+                + "errors: " + errors();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 4 || args.length % 2 != 0 || !args[0].equals("-h") || !args[2].equals("-p")) {
+            throw new IllegalArgumentException("Wrong arguments.\n" + INIT_ERROR);
+        }
+        String host = args[1];
+        int port, connections = 100, games = 10, size = 3;
+        double rate = 0;
+        Strategy strategy = Strategy.RANDOM;
+        boolean pipelined = false;
+        int sessions = 1;
+        boolean compact = false;
+        try {
+            port = Integer.parseInt(args[3]);
+            for (int i = 4; i < args.length; i += 2) {
+                switch (args[i]) {
+                    case "-c": connections = Integer.parseInt(args[i + 1]); break;
+                    case "-g": games = Integer.parseInt(args[i + 1]); break;
+                    case "-r": rate = Double.parseDouble(args[i + 1]); break;
+                    case "-s": strategy = Strategy.valueOf(args[i + 1].toUpperCase()); break;
+                    case "-b": size = Integer.parseInt(args[i + 1]); break;
+                    case "-P": pipelined = args[i + 1].equalsIgnoreCase("on"); break;
+                    case "-x": sessions = Integer.parseInt(args[i + 1]); break;
+                    case "-C": compact = args[i + 1].equalsIgnoreCase("on"); break;
+                    default: throw new IllegalArgumentException("Wrong argument keyword.\n" + INIT_ERROR);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Numeric options should be numbers.\n" + INIT_ERROR);
+        }
+        if (sessions > 1 && size != 3) {
+            throw new IllegalArgumentException("Multiplexed sessions play on the classic board.");
+        }
+        if (size < Grid.MIN_SIZE || size > Grid.MAX_SIZE) {
+            throw new IllegalArgumentException("<board size> should be from " + Grid.MIN_SIZE + " to " + Grid.MAX_SIZE + ".");
+        }
+
+        LoadGenerator generator = new LoadGenerator(host, port, connections, games, rate, strategy, size, pipelined)
+                .setSessionsPerConnection(sessions)
+                .setCompact(compact);
+        generator.run();
+        System.out.println(generator.report());
+    }
+}
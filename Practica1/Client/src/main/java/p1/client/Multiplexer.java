@@ -0,0 +1,102 @@
+package p1.client;
+
+import utils.ComUtils;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Many sessions on one connection.
+ * The first session turns the multiplexed mode on with a Config message, then every Hello opens
+ * another session on the same connection. Each session is a ClientProtocol that plays its own
+ * games, and every reply is handed to the session of its idSessio.
+ * The messages of all the sessions are pipelined and sent when the replies are awaited.
+ */
+public class Multiplexer {
+    private static final byte READY = (byte) 2;
+    private static final byte CONFIG = (byte) 7;
+
+    private final Socket socket;
+    private final ComUtils comutils;
+    private final Map<Integer, ClientProtocol> sessions = new HashMap<>();
+    // Sessions whose Hello has been sent, the Ready messages with their ids come back in the same order
+    private final Queue<ClientProtocol> opening = new ArrayDeque<>();
+
+    /**
+     * Constructor
+     * Opens the first session and turns the multiplexed mode on
+     * @param socket Connection to the server
+     * @param comutils Buffered ComUtils of the connection, the idSessio of each reply is read ahead
+     * @param name Name of the player of the first session
+     * @throws IOException If an I/O error occurs or the server does not multiplex
+     */
+    public Multiplexer(Socket socket, ComUtils comutils, String name) throws IOException {
+        if (!comutils.getDataInputStream().markSupported()) {
+            throw new IllegalArgumentException("Multiplexing needs a buffered ComUtils");
+        }
+        this.socket = socket;
+        this.comutils = comutils;
+        ClientProtocol first = open(name);
+        receive();
+        first.sendConfig(ClientProtocol.OPTION_MULTIPLEX, 1);
+        if (receive() != first || first.getLastOpcode() != CONFIG) {
+            throw new IOException("The server does not multiplex connections");
+        }
+    }
+
+    /**
+     * Opens another session, its Hello is sent with the next messages
+     * @param name Name of the player
+     * @return Session, it has its id once receive() has handed it the Ready message
+     * @throws IOException If an I/O error occurs
+     */
+    public ClientProtocol open(String name) throws IOException {
+        ClientProtocol session = new ClientProtocol(socket, comutils);
+        session.setVerbose(false);
+        session.setPipelined(true);
+        session.sendHello(name);
+        opening.add(session);
+        return session;
+    }
+
+    /**
+     * Receives the next reply and hands it to its session.
+     * The pending messages of every session are sent first if no reply has arrived yet
+     * @return Session that received the reply, its last opcode tells what it was
+     * @throws IOException If an I/O error occurs
+     */
+    public ClientProtocol receive() throws IOException {
+        DataInputStream in = comutils.getDataInputStream();
+        if (in.available() == 0) comutils.flush();
+        socket.setSoTimeout(5000); // 5 seconds timeout
+        byte opcode = in.readByte();
+        ClientProtocol session;
+        if (opcode == READY) {
+            session = opening.remove();
+        } else {
+            in.mark(4);
+            int id = comutils.read_int32();
+            in.reset();
+            session = sessions.get(id);
+            if (session == null) throw new RuntimeException("Invalid id");
+        }
+        session.receiveMessage(opcode);
+        if (opcode == READY) sessions.put(session.getId(), session);
+        return session;
+    }
+
+    /**
+     * Sessions that have received their id
+     * @return Copy of the sessions
+     */
+    public Collection<ClientProtocol> all() {
+        return new ArrayList<>(sessions.values());
+    }
+}
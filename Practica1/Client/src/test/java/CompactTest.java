@@ -0,0 +1,106 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.client.LoadGenerator;
+import p1.server.GameLogic;
+import p1.server.Log;
+import p1.server.Server;
+import utils.ComUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+public class CompactTest {
+
+    private static void start(int port, Server.Mode mode) {
+        Server server = new Server(port, GameLogic.Engine.MINIMAX, mode);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    /**
+     * Turns the compact mode on and plays with one-byte positions,
+     * then checks that taken and unknown cells are refused
+     */
+    private static void compact(int port) throws IOException {
+        int id = 24680;
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            ComUtils comUtils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+            DataOutputStream out = comUtils.getDataOutputStream();
+            DataInputStream in = comUtils.getDataInputStream();
+            out.writeByte(1);
+            comUtils.write_int32(id);
+            comUtils.write_string("compact");
+            out.writeByte(0);
+            out.writeByte(0);
+            out.writeByte(7);
+            comUtils.write_int32(id);
+            out.writeByte(4);
+            comUtils.write_int32(1);
+            out.writeByte(3);
+            comUtils.write_int32(id);
+            out.writeByte(5);
+            comUtils.write_int32(id);
+            out.writeByte(4);
+            comUtils.flush();
+
+            assertEquals(2, in.readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(7, in.readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(4, in.readByte());
+            assertEquals(1, comUtils.read_int32());
+            assertEquals(4, in.readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(1, in.readByte());
+            // The server answers the centre with the 0-0 corner, cell 0
+            assertEquals(5, in.readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(0, in.readUnsignedByte());
+
+            for (int cell : new int[]{4, 9}) {
+                out.writeByte(5);
+                comUtils.write_int32(id);
+                out.writeByte(cell);
+                comUtils.flush();
+                assertEquals(8, in.readByte());
+                assertEquals(id, comUtils.read_int32());
+                assertEquals(cell == 4 ? 1 : 0, in.readByte());
+                comUtils.findString();
+            }
+        }
+    }
+
+    @Test
+    public void moves_are_one_byte_in_compact_mode() throws IOException {
+        Log.setLevel(Log.Level.WARN);
+        start(3737, Server.Mode.THREADS);
+        start(3838, Server.Mode.NIO);
+        compact(3737);
+        compact(3838);
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @Test
+    public void load_generator_plays_in_compact_mode() throws InterruptedException {
+        start(3939, Server.Mode.THREADS);
+        Log.setLevel(Log.Level.WARN);
+        LoadGenerator generator = new LoadGenerator("localhost", 3939, 10, 5, 0, LoadGenerator.Strategy.RANDOM, 3, true)
+                .setCompact(true);
+        generator.run();
+        assertEquals(0, generator.errors());
+        assertEquals(50, generator.games());
+
+        generator = new LoadGenerator("localhost", 3939, 2, 5, 0, LoadGenerator.Strategy.RANDOM, 3)
+                .setSessionsPerConnection(4)
+                .setCompact(true);
+        generator.run();
+        assertEquals(0, generator.errors());
+        assertEquals(40, generator.games());
+        Log.setLevel(Log.Level.INFO);
+    }
+}
@@ -0,0 +1,208 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.server.GameHandler;
+import p1.server.Log;
+import p1.server.Server;
+import utils.ComUtils;
+import utils.engine.Strategies;
+
+import p1.client.Client;
+import p1.client.ClientProtocol;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.IllegalBlockingModeException;
+
+public class ConfigTest {
+
+    class ServerEcho extends Thread{
+
+        private int port;
+        private ServerSocket ss;
+        private Socket socket;
+        private ComUtils comutils;
+
+        public ServerEcho(int port) {
+            this.port = port;
+            setConnection();
+
+        }
+
+        public void run(){
+            this.init();
+        }
+
+        public ComUtils getComutils(Socket socket) {
+            if (comutils == null) {
+                try {
+                    comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream());
+                } catch (IOException e) {
+                    throw new RuntimeException("I/O Error when creating the ComUtils:\n"+e.getMessage());
+                }
+            }
+            return comutils;
+        }
+
+        public void setConnection() {
+            if (this.ss == null) {
+                try {
+                    ss = new ServerSocket(port);
+                    System.out.println("Server up & listening on port "+port+"...\nPress Cntrl + C to stop.");
+                } catch (IOException e) {
+                    throw new RuntimeException("I/O error when opening the Server Socket:\n" + e.getMessage());
+                }
+            }
+        }
+
+        public Socket getSocket() {
+            return this.socket;
+        }
+
+        private void init() {
+            while(true) {
+                try {
+                    socket = ss.accept();
+                    comutils = getComutils(socket);
+                    System.out.println("Client accepted");
+
+                    GameHandler gameHandler = new GameHandler(socket);
+                    gameHandler.run();
+
+                    System.out.println("Closing server...");
+                    socket.close();
+                    ss.close();
+                    break;
+                } catch (IOException e) {
+                    throw new RuntimeException("I/O error when accepting a client:\n" + e.getMessage());
+                } catch (SecurityException e) {
+                    throw new RuntimeException("Operation not accepted:\n"+e.getMessage());
+                } catch (IllegalBlockingModeException e) {
+                    throw new RuntimeException("There is no connection ready to be accepted:\n"+e.getMessage());
+                }
+
+            }
+        }
+    }
+
+
+    @Test
+    public void example_test() {
+
+        try {
+            (new ServerEcho(2323)).start();
+            int id = 0;
+            Client client = new Client("localhost", 2323);
+            System.out.println("Connection started...");
+            ComUtils comUtils = client.getComutils();
+
+            comUtils.getDataOutputStream().writeByte(1);
+            comUtils.write_int32(id);
+            comUtils.write_string("Paula");
+            comUtils.getDataOutputStream().writeByte(0);
+            comUtils.getDataOutputStream().writeByte(0);
+
+            byte response = comUtils.getDataInputStream().readByte();
+            id = comUtils.read_int32();
+
+            // 11x11 board, 4 in a row
+            comUtils.getDataOutputStream().writeByte(7);
+            comUtils.write_int32(id);
+            comUtils.getDataOutputStream().writeByte(1);
+            comUtils.write_int32(11);
+
+            assertEquals(7, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(1, comUtils.getDataInputStream().readByte());
+            assertEquals(11, comUtils.read_int32());
+
+            comUtils.getDataOutputStream().writeByte(7);
+            comUtils.write_int32(id);
+            comUtils.getDataOutputStream().writeByte(2);
+            comUtils.write_int32(4);
+
+            assertEquals(7, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(2, comUtils.getDataInputStream().readByte());
+            assertEquals(4, comUtils.read_int32());
+
+            // Unsupported size
+            comUtils.getDataOutputStream().writeByte(7);
+            comUtils.write_int32(id);
+            comUtils.getDataOutputStream().writeByte(1);
+            comUtils.write_int32(16);
+
+            assertEquals(8, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(2, comUtils.getDataInputStream().readByte());
+            comUtils.findString();
+
+            comUtils.getDataOutputStream().writeByte(3);
+            comUtils.write_int32(id);
+
+            response = comUtils.getDataInputStream().readByte();
+            comUtils.read_int32();
+            comUtils.getDataInputStream().readByte();
+
+            comUtils.getDataOutputStream().writeByte(5);
+            comUtils.write_int32(id);
+            comUtils.write_string("05-05");
+
+            response = comUtils.getDataInputStream().readByte();
+            assertEquals(5, response);
+            assertEquals(id, comUtils.read_int32());
+            String move = comUtils.read_string(5);
+            assertEquals('-', move.charAt(2));
+            assertTrue(Integer.parseInt(move.substring(0, 2)) < 11);
+            assertTrue(Integer.parseInt(move.substring(3)) < 11);
+
+            client.getSocket().close();
+            System.out.println("Connection closed");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void engine_is_chosen_per_session() throws IOException {
+        Server server = new Server(5050);
+        Log.setLevel(Log.Level.WARN);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try (Socket socket = new Socket("localhost", 5050)) {
+            ClientProtocol player = new ClientProtocol(socket, new ComUtils(socket.getInputStream(), socket.getOutputStream()));
+            player.setVerbose(false);
+            player.setStrategy(Strategies.TABLE);
+            player.sendHello("weakling");
+            player.receiveMessages();
+
+            // Engines go from 1 to 4, 0 is the engine of the server
+            player.sendConfig(ClientProtocol.OPTION_ENGINE, 5);
+            player.receiveMessages();
+            assertEquals(8, player.getLastOpcode());
+            player.sendConfig(ClientProtocol.OPTION_ENGINE, 4);
+            player.receiveMessages();
+            assertEquals(7, player.getLastOpcode());
+
+            // The weak engine never blocks, a perfect player beats it
+            int wins = 0;
+            for (int game = 0; game < 10; game++) {
+                player.playAgain();
+                player.sendPlay();
+                player.receiveMessages();
+                do {
+                    player.sendAction(player.automaticMove());
+                    player.receiveMessages();
+                } while (player.getLastOpcode() == 5);
+                assertEquals(6, player.getLastOpcode());
+                assertNotEquals(0, player.getResult());
+                if (player.getResult() == 1) wins++;
+            }
+            assertTrue(wins > 0);
+        } finally {
+            Log.setLevel(Log.Level.INFO);
+        }
+    }
+}
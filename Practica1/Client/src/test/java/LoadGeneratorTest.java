@@ -0,0 +1,29 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.client.LoadGenerator;
+import p1.server.Log;
+import p1.server.Server;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void example_test() throws InterruptedException {
+        Server server = new Server(2525);
+        Log.setLevel(Log.Level.WARN);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        for (LoadGenerator.Strategy strategy : LoadGenerator.Strategy.values()) {
+            LoadGenerator generator = new LoadGenerator("localhost", 2525, 20, 5, 0, strategy, 3);
+            generator.run();
+            System.out.println(generator.report());
+
+            assertEquals(0, generator.errors());
+            assertEquals(100, generator.games());
+            assertEquals(generator.moves(), generator.moveLatency().count());
+        }
+        Log.setLevel(Log.Level.INFO);
+    }
+}
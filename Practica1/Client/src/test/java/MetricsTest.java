@@ -0,0 +1,44 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.client.LoadGenerator;
+import p1.server.Log;
+import p1.server.Metrics;
+import p1.server.Server;
+import p1.server.ServerConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+public class MetricsTest {
+
+    @Test
+    public void example_test() throws InterruptedException, IOException {
+        Server server = new Server(new ServerConfig(2626).setMetricsPort(2627).setLogLevel(Log.Level.WARN));
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        // Other tests may play on the same JVM, so only the increments are checked
+        long games = Metrics.gamesStarted();
+        long moves = Metrics.moves();
+        LoadGenerator generator = new LoadGenerator("localhost", 2626, 4, 5, 0, LoadGenerator.Strategy.SCRIPTED, 3);
+        generator.run();
+        assertEquals(0, generator.errors());
+        assertTrue(Metrics.gamesStarted() - games >= 20);
+        // Every client move is answered by a server move except the last one of a game
+        assertTrue(Metrics.moves() - moves >= 2 * generator.moves() - 20);
+
+        String report;
+        try (InputStream in = new URL("http://localhost:2627/metrics").openStream()) {
+            report = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertTrue(report.contains("games_started "));
+        assertTrue(report.contains("handle_us{opcode=ACTION} count="));
+        assertTrue(report.contains("server_move_us count="));
+        assertTrue(report.contains("write_us count="));
+        Log.setLevel(Log.Level.INFO);
+    }
+}
@@ -0,0 +1,51 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.client.LoadGenerator;
+import p1.client.Multiplexer;
+import p1.server.Log;
+import p1.server.Server;
+import p1.server.ServerConfig;
+import utils.ComUtils;
+
+import java.io.IOException;
+import java.net.Socket;
+
+public class MultiplexTest {
+
+    private static void start(ServerConfig config) {
+        Server server = new Server(config.setLogLevel(Log.Level.WARN));
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @Test
+    public void many_games_share_a_connection() throws InterruptedException {
+        start(new ServerConfig(3434));
+        start(new ServerConfig(3535).setMode(Server.Mode.NIO));
+        for (int port : new int[]{3434, 3535}) {
+            LoadGenerator generator = new LoadGenerator("localhost", port, 4, 3, 0, LoadGenerator.Strategy.RANDOM, 3, false)
+                    .setSessionsPerConnection(8);
+            generator.run();
+            assertEquals(0, generator.errors());
+            assertEquals(4 * 8 * 3, generator.games());
+            assertEquals(generator.moves(), generator.moveLatency().count());
+        }
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @Test
+    public void server_without_read_ahead_keeps_one_session() throws IOException {
+        // Unbuffered, the server can not read the idSessio of a message before routing it
+        start(new ServerConfig(3636).setBufferedWrites(false));
+        try (Socket socket = new Socket("localhost", 3636)) {
+            ComUtils comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+            new Multiplexer(socket, comutils, "classic");
+            fail("The connection should not be multiplexed");
+        } catch (IOException e) {
+            assertEquals("The server does not multiplex connections", e.getMessage());
+        }
+        Log.setLevel(Log.Level.INFO);
+    }
+}
@@ -0,0 +1,166 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.server.GameLogic;
+import p1.server.Log;
+import p1.server.NioServer;
+import p1.server.Server;
+import p1.server.ServerConfig;
+import utils.ComUtils;
+
+import p1.client.Client;
+import java.io.IOException;
+import java.net.Socket;
+
+public class NioTest {
+
+    @Test
+    public void example_test() {
+
+        try {
+            Server server = new Server(2424, GameLogic.Engine.MINIMAX, Server.Mode.NIO);
+            Thread serverThread = new Thread(server::init);
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            int id = 0;
+            Client client = new Client("localhost", 2424);
+            System.out.println("Connection started...");
+            ComUtils comUtils = client.getComutils();
+
+            // HELLO split in two segments, with a name longer than the first read buffer
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 100; i++) name.append("Paula");
+            comUtils.getDataOutputStream().writeByte(1);
+            comUtils.write_int32(id);
+            comUtils.write_string(name.substring(0, 200));
+            comUtils.getDataOutputStream().flush();
+            Thread.sleep(100);
+            comUtils.write_string(name.substring(200));
+            comUtils.getDataOutputStream().writeByte(0);
+            comUtils.getDataOutputStream().writeByte(0);
+
+            assertEquals(2, comUtils.getDataInputStream().readByte());
+            id = comUtils.read_int32();
+
+            comUtils.getDataOutputStream().writeByte(3);
+            comUtils.write_int32(id);
+
+            assertEquals(4, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(1, comUtils.getDataInputStream().readByte());
+
+            comUtils.getDataOutputStream().writeByte(5);
+            comUtils.write_int32(id);
+            comUtils.write_string("1-1");
+
+            assertEquals(5, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals("0-0", comUtils.read_string(3));
+
+            comUtils.getDataOutputStream().writeByte(5);
+            comUtils.write_int32(id);
+            comUtils.write_string("1-1");
+
+            assertEquals(8, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(1, comUtils.getDataInputStream().readByte());
+            assertEquals("Invalid move, there is already a piece in that position", comUtils.findString());
+
+            client.getSocket().close();
+            System.out.println("Connection closed");
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void slow_moves_are_not_served() throws IOException {
+        Server server = new Server(new ServerConfig(5353).setMode(Server.Mode.NIO).setLogLevel(Log.Level.WARN));
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try (Socket socket = new Socket("localhost", 5353)) {
+            socket.setSoTimeout(5000);
+            ComUtils comUtils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+            comUtils.getDataOutputStream().writeByte(1);
+            comUtils.write_int32(0);
+            comUtils.write_string("nio");
+            comUtils.getDataOutputStream().writeByte(0);
+            comUtils.getDataOutputStream().writeByte(0);
+            comUtils.flush();
+            assertEquals(2, comUtils.getDataInputStream().readByte());
+            int id = comUtils.read_int32();
+
+            // A bigger board and the MCTS engine are refused, the quick engines are not
+            int[][] options = {{1, 4}, {6, GameLogic.Engine.MCTS.ordinal() + 1}, {6, GameLogic.Engine.WEAK.ordinal() + 1}};
+            for (int[] option : options) {
+                comUtils.getDataOutputStream().writeByte(7);
+                comUtils.write_int32(id);
+                comUtils.getDataOutputStream().writeByte(option[0]);
+                comUtils.write_int32(option[1]);
+                comUtils.flush();
+                byte opcode = comUtils.getDataInputStream().readByte();
+                assertEquals(id, comUtils.read_int32());
+                if (option == options[2]) {
+                    assertEquals(7, opcode);
+                    assertEquals(option[0], comUtils.getDataInputStream().readByte());
+                    assertEquals(option[1], comUtils.read_int32());
+                } else {
+                    assertEquals(8, opcode);
+                    assertEquals(2, comUtils.getDataInputStream().readByte());
+                    comUtils.findString();
+                }
+            }
+        } finally {
+            Log.setLevel(Log.Level.INFO);
+        }
+
+        try {
+            new NioServer(new ServerConfig(5454).setEngine(GameLogic.Engine.MCTS), 1);
+            fail("The mcts engine is not served by the event loops");
+        } catch (IllegalArgumentException expected) {
+            // Refused before opening the channel
+        }
+    }
+
+    @Test
+    public void matches_against_other_clients_are_refused() throws IOException {
+        Server server = new Server(new ServerConfig(5858).setMode(Server.Mode.NIO).setLogLevel(Log.Level.WARN));
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try (Socket socket = new Socket("localhost", 5858)) {
+            socket.setSoTimeout(5000);
+            ComUtils comUtils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+            comUtils.getDataOutputStream().writeByte(1);
+            comUtils.write_int32(0);
+            comUtils.write_string("nio");
+            comUtils.getDataOutputStream().writeByte(0);
+            comUtils.getDataOutputStream().writeByte(0);
+            comUtils.flush();
+            assertEquals(2, comUtils.getDataInputStream().readByte());
+            int id = comUtils.read_int32();
+
+            // The event loops have no lobby, the client is told so and plays against the server
+            comUtils.getDataOutputStream().writeByte(7);
+            comUtils.write_int32(id);
+            comUtils.getDataOutputStream().writeByte(5);
+            comUtils.write_int32(1);
+            comUtils.flush();
+            assertEquals(8, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(2, comUtils.getDataInputStream().readByte());
+            assertEquals("Games against other clients are not served, the nio mode has no lobby", comUtils.findString());
+
+            comUtils.getDataOutputStream().writeByte(3);
+            comUtils.write_int32(id);
+            comUtils.flush();
+            assertEquals(4, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(1, comUtils.getDataInputStream().readByte());
+        } finally {
+            Log.setLevel(Log.Level.INFO);
+        }
+    }
+}
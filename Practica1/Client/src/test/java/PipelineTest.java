@@ -0,0 +1,86 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.client.LoadGenerator;
+import p1.server.GameLogic;
+import p1.server.Log;
+import p1.server.Server;
+import utils.ComUtils;
+
+import java.io.IOException;
+import java.net.Socket;
+
+public class PipelineTest {
+
+    private static void start(int port, Server.Mode mode) {
+        Server server = new Server(port, GameLogic.Engine.MINIMAX, mode);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    /**
+     * Sends HELLO, PLAY and ACTION in one write, then two PLAY messages in another,
+     * and checks that every reply comes back in order
+     */
+    private static void pipeline(int port) throws IOException {
+        int id = 31337;
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            ComUtils comUtils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+            comUtils.getDataOutputStream().writeByte(1);
+            comUtils.write_int32(id);
+            comUtils.write_string("pipeline");
+            comUtils.getDataOutputStream().writeByte(0);
+            comUtils.getDataOutputStream().writeByte(0);
+            comUtils.getDataOutputStream().writeByte(3);
+            comUtils.write_int32(id);
+            comUtils.getDataOutputStream().writeByte(5);
+            comUtils.write_int32(id);
+            comUtils.write_string("1-1");
+            comUtils.flush();
+
+            assertEquals(2, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(4, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals(1, comUtils.getDataInputStream().readByte());
+            assertEquals(5, comUtils.getDataInputStream().readByte());
+            assertEquals(id, comUtils.read_int32());
+            assertEquals("0-0", comUtils.read_string(3));
+
+            // Back-to-back games: each PLAY gives up the game in progress and is admitted
+            for (int i = 0; i < 2; i++) {
+                comUtils.getDataOutputStream().writeByte(3);
+                comUtils.write_int32(id);
+            }
+            comUtils.flush();
+            for (int i = 0; i < 2; i++) {
+                assertEquals(4, comUtils.getDataInputStream().readByte());
+                assertEquals(id, comUtils.read_int32());
+                assertEquals(1, comUtils.getDataInputStream().readByte());
+            }
+        }
+    }
+
+    @Test
+    public void replies_follow_the_order_of_the_messages() throws IOException {
+        Log.setLevel(Log.Level.WARN);
+        start(3030, Server.Mode.THREADS);
+        start(3131, Server.Mode.NIO);
+        pipeline(3030);
+        pipeline(3131);
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @Test
+    public void load_generator_pipelines_the_first_move() throws InterruptedException {
+        start(3232, Server.Mode.THREADS);
+        Log.setLevel(Log.Level.WARN);
+        LoadGenerator generator = new LoadGenerator("localhost", 3232, 10, 5, 0, LoadGenerator.Strategy.RANDOM, 3, true);
+        generator.run();
+        assertEquals(0, generator.errors());
+        assertEquals(50, generator.games());
+        Log.setLevel(Log.Level.INFO);
+    }
+}
@@ -0,0 +1,199 @@
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import p1.client.ClientProtocol;
+import p1.server.GameJournal;
+import p1.server.Log;
+import p1.server.Server;
+import p1.server.ServerConfig;
+import utils.ComUtils;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PvpTest {
+    private static final byte ACTION = 5;
+    private static final byte RESULT = 6;
+    private static final byte ERROR = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void restore() {
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    private static void start(int port) {
+        start(new Server(port));
+    }
+
+    private static void start(Server server) {
+        Log.setLevel(Log.Level.WARN);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    /**
+     * Connects and asks for a human opponent
+     */
+    private static ClientProtocol player(Socket socket, String name) throws IOException {
+        ClientProtocol protocol = new ClientProtocol(socket, new ComUtils(socket.getInputStream(), socket.getOutputStream(), true));
+        protocol.setVerbose(false);
+        protocol.sendHello(name);
+        protocol.receiveMessages();
+        protocol.sendConfig(ClientProtocol.OPTION_OPPONENT, 1);
+        protocol.receiveMessages();
+        return protocol;
+    }
+
+    @Test
+    public void moves_are_relayed_between_players() throws IOException {
+        start(4141);
+        try (Socket a = new Socket("localhost", 4141); Socket b = new Socket("localhost", 4141)) {
+            ClientProtocol alice = player(a, "alice");
+            ClientProtocol bob = player(b, "bob");
+            alice.sendPlay();
+            bob.sendPlay();
+            alice.receiveMessages();
+            bob.receiveMessages();
+            assertNotEquals(alice.opponentMovesFirst(), bob.opponentMovesFirst());
+            ClientProtocol first = alice.opponentMovesFirst() ? bob : alice;
+            ClientProtocol second = first == alice ? bob : alice;
+
+            // The second player cannot move before the first one
+            second.sendAction("2-0");
+            second.receiveMessages();
+            assertEquals(ERROR, second.getLastOpcode());
+
+            String[] firstMoves = {"0-0", "0-1", "0-2"};
+            String[] secondMoves = {"1-1", "2-2"};
+            for (int i = 0; i < firstMoves.length; i++) {
+                first.sendAction(firstMoves[i]);
+                second.receiveMessages();
+                if (i == firstMoves.length - 1) break;
+                assertEquals(ACTION, second.getLastOpcode());
+                second.sendAction(secondMoves[i]);
+                first.receiveMessages();
+                assertEquals(ACTION, first.getLastOpcode());
+            }
+            assertEquals(RESULT, second.getLastOpcode());
+            assertEquals(0, second.getResult());
+            first.receiveMessages();
+            assertEquals(RESULT, first.getLastOpcode());
+            assertEquals(1, first.getResult());
+        }
+    }
+
+    @Test
+    public void a_player_who_leaves_loses_the_match() throws IOException {
+        start(4242);
+        try (Socket a = new Socket("localhost", 4242); Socket b = new Socket("localhost", 4242)) {
+            ClientProtocol alice = player(a, "alice");
+            ClientProtocol bob = player(b, "bob");
+            alice.sendPlay();
+            bob.sendPlay();
+            alice.receiveMessages();
+            bob.receiveMessages();
+
+            // The player who moves first leaves before moving
+            Socket leaver = alice.opponentMovesFirst() ? b : a;
+            ClientProtocol stays = leaver == a ? bob : alice;
+            leaver.close();
+            stays.receiveMessages();
+            assertEquals(RESULT, stays.getLastOpcode());
+            assertEquals(1, stays.getResult());
+        }
+    }
+
+    @Test
+    public void matches_are_journaled_for_both_players() throws IOException {
+        Path directory = folder.newFolder("journal").toPath();
+        start(new Server(new ServerConfig(5151).setLogLevel(Log.Level.WARN).setJournalDirectory(directory.toString())));
+        try (Socket a = new Socket("localhost", 5151); Socket b = new Socket("localhost", 5151)) {
+            ClientProtocol alice = player(a, "alice");
+            ClientProtocol bob = player(b, "bob");
+            alice.sendPlay();
+            bob.sendPlay();
+            alice.receiveMessages();
+            bob.receiveMessages();
+            ClientProtocol first = alice.opponentMovesFirst() ? bob : alice;
+            ClientProtocol second = first == alice ? bob : alice;
+            String[] moves = {"0-0", "1-1", "0-1", "2-2", "0-2"};
+            for (int i = 0; i < moves.length; i++) {
+                ClientProtocol mover = i % 2 == 0 ? first : second;
+                mover.sendAction(moves[i]);
+                (mover == first ? second : first).receiveMessages();
+            }
+            first.receiveMessages();
+            assertEquals(RESULT, first.getLastOpcode());
+        }
+
+        List<GameJournal.Record> records = new ArrayList<>();
+        for (Path segment : GameJournal.segments(directory)) GameJournal.read(segment, records::add);
+        assertEquals(2, records.size());
+        for (GameJournal.Record record : records) {
+            boolean movedFirst = record.getEngine() == GameJournal.PVP_FIRST;
+            assertEquals(movedFirst ? 1 : 0, record.getOutcome());
+            assertEquals(5, record.getMoveCount());
+            assertEquals(0, record.getMove(0));
+            assertEquals(4, record.getMove(1));
+            assertEquals(2, record.getMove(4));
+        }
+        assertNotEquals(records.get(0).getEngine(), records.get(1).getEngine());
+        assertNotEquals(records.get(0).getName(), records.get(1).getName());
+    }
+
+    @Test
+    public void a_player_who_reconnects_stays_in_the_match() throws IOException {
+        start(5757);
+        try (Socket a = new Socket("localhost", 5757); Socket b = new Socket("localhost", 5757)) {
+            ClientProtocol alice = player(a, "alice");
+            ClientProtocol bob = player(b, "bob");
+            for (ClientProtocol player : new ClientProtocol[]{alice, bob}) {
+                player.sendConfig(ClientProtocol.OPTION_RESUME, 0);
+                player.receiveMessages();
+            }
+            alice.sendPlay();
+            bob.sendPlay();
+            alice.receiveMessages();
+            bob.receiveMessages();
+            ClientProtocol first = alice.opponentMovesFirst() ? bob : alice;
+            ClientProtocol second = first == alice ? bob : alice;
+            first.sendAction("0-0");
+            second.receiveMessages();
+            assertEquals(ACTION, second.getLastOpcode());
+
+            // The first player comes back on a new connection before the server sees the old one drop
+            try (Socket c = new Socket("localhost", 5757)) {
+                ClientProtocol back = new ClientProtocol(c, new ComUtils(c.getInputStream(), c.getOutputStream(), true), first);
+                back.setVerbose(false);
+                back.sendHello(first.getName());
+                back.receiveMessages();
+                assertEquals(first.getId(), back.getId());
+
+                String[] secondMoves = {"1-1", "2-2"};
+                String[] firstMoves = {"0-1", "0-2"};
+                for (int i = 0; i < secondMoves.length; i++) {
+                    second.sendAction(secondMoves[i]);
+                    back.receiveMessages();
+                    assertEquals(ACTION, back.getLastOpcode());
+                    back.sendAction(firstMoves[i]);
+                    second.receiveMessages();
+                }
+                assertEquals(RESULT, second.getLastOpcode());
+                assertEquals(0, second.getResult());
+                back.receiveMessages();
+                assertEquals(RESULT, back.getLastOpcode());
+                assertEquals(1, back.getResult());
+            }
+        }
+    }
+}
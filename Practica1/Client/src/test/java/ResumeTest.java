@@ -0,0 +1,140 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.client.ClientProtocol;
+import p1.server.Log;
+import p1.server.Metrics;
+import p1.server.Server;
+import utils.ComUtils;
+
+import java.io.IOException;
+import java.net.Socket;
+
+public class ResumeTest {
+    private static final byte ACTION = 5;
+    private static final byte RESULT = 6;
+
+    private static ClientProtocol connect(Socket socket, ClientProtocol previous) throws IOException {
+        ComUtils comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream());
+        ClientProtocol protocol = previous == null ? new ClientProtocol(socket, comutils) : new ClientProtocol(socket, comutils, previous);
+        protocol.setVerbose(false);
+        protocol.sendHello("resume");
+        protocol.receiveMessages();
+        return protocol;
+    }
+
+    /**
+     * Says HELLO with a session id, after its resume token if there is one
+     * @return Session id given in the READY
+     */
+    private static int hello(int port, int id, int token) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            ComUtils comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream());
+            if (token != 0) {
+                comutils.getDataOutputStream().writeByte(7);
+                comutils.write_int32(id);
+                comutils.getDataOutputStream().writeByte(ClientProtocol.OPTION_RESUME);
+                comutils.write_int32(token);
+            }
+            comutils.getDataOutputStream().writeByte(1);
+            comutils.write_int32(id);
+            comutils.write_string("thief");
+            comutils.getDataOutputStream().writeByte(0);
+            comutils.getDataOutputStream().writeByte(0);
+            assertEquals(2, comutils.getDataInputStream().readByte());
+            return comutils.read_int32();
+        }
+    }
+
+    @Test
+    public void game_goes_on_after_a_reconnection() throws IOException, InterruptedException {
+        Server server = new Server(2929);
+        Log.setLevel(Log.Level.WARN);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        long resumed = Metrics.resumed();
+        Socket dropped = new Socket("localhost", 2929);
+        ClientProtocol first = connect(dropped, null);
+        first.sendConfig(ClientProtocol.OPTION_RESUME, 0);
+        first.receiveMessages();
+        first.sendPlay();
+        first.receiveMessages();
+        first.sendAction("1-1");
+        first.receiveMessages();
+        assertEquals(ACTION, first.getLastOpcode());
+        assertEquals(2, first.getBoard().moves());
+        // A second client can not take the session while it is played without its token
+        assertNotEquals(first.getId(), hello(2929, first.getId(), 0));
+
+        // The connection drops, the server keeps the game once it notices
+        dropped.close();
+        Thread.sleep(200);
+        // The id alone does not resume the session
+        assertNotEquals(first.getId(), hello(2929, first.getId(), 12345));
+        ClientProtocol second = connect(new Socket("localhost", 2929), first);
+        assertEquals(first.getId(), second.getId());
+        assertEquals(1, Metrics.resumed() - resumed);
+
+        int moves = 0;
+        do {
+            second.sendAction(second.automaticMove());
+            second.receiveMessages();
+            assertNotEquals(8, second.getLastOpcode());
+            moves++;
+        } while (second.getLastOpcode() != RESULT);
+        // The first move was played on the dropped connection, the rest of the game fits the board
+        assertTrue(moves <= 4);
+        // Both sides play perfectly from the centre, so the game is a draw
+        assertEquals(2, second.getResult());
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @Test
+    public void a_reconnection_takes_the_session_over_before_the_drop_is_seen() throws IOException {
+        Server server = new Server(5656);
+        Log.setLevel(Log.Level.WARN);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        long resumed = Metrics.resumed();
+        try (Socket stale = new Socket("localhost", 5656)) {
+            ClientProtocol first = connect(stale, null);
+            first.sendConfig(ClientProtocol.OPTION_RESUME, 0);
+            first.receiveMessages();
+            first.sendConfig(ClientProtocol.OPTION_COMPACT, 1);
+            first.receiveMessages();
+            first.sendPlay();
+            first.receiveMessages();
+            first.sendAction("1-1");
+            first.receiveMessages();
+            assertEquals(ACTION, first.getLastOpcode());
+
+            // A wrong token does not take the session, even while it is played
+            assertNotEquals(first.getId(), hello(5656, first.getId(), 12345));
+
+            // The old connection is still open on both sides when the client comes back
+            ClientProtocol second = connect(new Socket("localhost", 5656), first);
+            assertEquals(first.getId(), second.getId());
+            assertEquals(1, Metrics.resumed() - resumed);
+            stale.setSoTimeout(5000);
+            assertEquals(-1, stale.getInputStream().read());
+
+            // The session keeps its compact moves and its game
+            int moves = 0;
+            do {
+                second.sendAction(second.automaticMove());
+                second.receiveMessages();
+                assertNotEquals(8, second.getLastOpcode());
+                moves++;
+            } while (second.getLastOpcode() != RESULT);
+            assertTrue(moves <= 4);
+            assertEquals(2, second.getResult());
+        } finally {
+            Log.setLevel(Log.Level.INFO);
+        }
+    }
+}
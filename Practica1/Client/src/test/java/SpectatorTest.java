@@ -0,0 +1,207 @@
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.client.ClientProtocol;
+import p1.server.Frame;
+import p1.server.GameLogic;
+import p1.server.Log;
+import p1.server.Metrics;
+import p1.server.Server;
+import p1.server.Spectator;
+import utils.ComUtils;
+import utils.engine.Grid;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SpectatorTest {
+    private static final byte ADMIT = 4;
+    private static final byte ACTION = 5;
+    private static final byte RESULT = 6;
+    private static final byte CONFIG = 7;
+    private static final byte ERROR = 8;
+    private static final byte WATCH = 9;
+
+    @After
+    public void restore() {
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    private static void start(int port, Server.Mode mode) {
+        Server server = new Server(port, GameLogic.Engine.MINIMAX, mode);
+        Log.setLevel(Log.Level.WARN);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    /**
+     * Connects and asks for a human opponent
+     */
+    private static ClientProtocol player(Socket socket, String name) throws IOException {
+        ClientProtocol protocol = new ClientProtocol(socket, new ComUtils(socket.getInputStream(), socket.getOutputStream(), true));
+        protocol.setVerbose(false);
+        protocol.sendHello(name);
+        protocol.receiveMessages();
+        protocol.sendConfig(ClientProtocol.OPTION_OPPONENT, 1);
+        protocol.receiveMessages();
+        return protocol;
+    }
+
+    private static ComUtils watch(Socket socket, int id) throws IOException {
+        socket.setSoTimeout(5000);
+        ComUtils comUtils = new ComUtils(socket.getInputStream(), socket.getOutputStream());
+        comUtils.getDataOutputStream().writeByte(WATCH);
+        comUtils.write_int32(id);
+        return comUtils;
+    }
+
+    /**
+     * Reads the board and the ADMIT that start a game
+     */
+    private static void expectStart(ComUtils spectator, int id, int flag) throws IOException {
+        for (int option = 1; option <= 2; option++) {
+            assertEquals(CONFIG, spectator.getDataInputStream().readByte());
+            assertEquals(id, spectator.read_int32());
+            assertEquals(option, spectator.getDataInputStream().readByte());
+            assertEquals(3, spectator.read_int32());
+        }
+        assertEquals(ADMIT, spectator.getDataInputStream().readByte());
+        assertEquals(id, spectator.read_int32());
+        assertEquals(flag, spectator.getDataInputStream().readByte());
+    }
+
+    /**
+     * Plays a game with automatic moves while a spectator watches it, and checks that the
+     * spectator sees the same board and result as the player
+     */
+    private static void watchGame(int port) throws IOException {
+        try (Socket playerSocket = new Socket("localhost", port); Socket spectatorSocket = new Socket("localhost", port)) {
+            ClientProtocol player = new ClientProtocol(playerSocket, new ComUtils(playerSocket.getInputStream(), playerSocket.getOutputStream()));
+            player.setVerbose(false);
+            player.sendHello("alice");
+            player.receiveMessages();
+            int id = player.getId();
+
+            ComUtils spectator = watch(spectatorSocket, id);
+            expectStart(spectator, id, 1);
+
+            player.sendPlay();
+            player.receiveMessages();
+            expectStart(spectator, id, 1);
+            do {
+                player.sendAction(player.automaticMove());
+                player.receiveMessages();
+            } while (player.getLastOpcode() == ACTION);
+            assertEquals(RESULT, player.getLastOpcode());
+
+            Grid board = new Grid(3, 3);
+            int mark = 1;
+            byte opcode;
+            while ((opcode = spectator.getDataInputStream().readByte()) == ACTION) {
+                assertEquals(id, spectator.read_int32());
+                board.play(Grid.parseMove(spectator.read_string(3), 3), mark);
+                mark = 3 - mark;
+            }
+            assertEquals(RESULT, opcode);
+            assertEquals(id, spectator.read_int32());
+            int last = Grid.parseMove(spectator.read_string(3), 3);
+            int flag = spectator.getDataInputStream().readByte();
+            if (flag == 0) board.play(last, 2);
+            assertEquals(player.getResult(), flag);
+            for (int cell = 0; cell < 9; cell++) assertEquals(player.getBoard().get(cell), board.get(cell));
+
+            // The spectator is disconnected when the player leaves
+            playerSocket.close();
+            assertEquals(-1, spectatorSocket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void a_spectator_sees_every_move() throws IOException {
+        start(4343, Server.Mode.THREADS);
+        watchGame(4343);
+    }
+
+    @Test
+    public void a_spectator_sees_every_move_nio() throws IOException {
+        start(4545, Server.Mode.NIO);
+        watchGame(4545);
+    }
+
+    @Test
+    public void a_spectator_of_a_match_sees_the_moves_so_far() throws IOException {
+        start(5959, Server.Mode.THREADS);
+        try (Socket a = new Socket("localhost", 5959); Socket b = new Socket("localhost", 5959); Socket spectatorSocket = new Socket("localhost", 5959)) {
+            ClientProtocol alice = player(a, "alice");
+            ClientProtocol bob = player(b, "bob");
+            alice.sendPlay();
+            bob.sendPlay();
+            alice.receiveMessages();
+            bob.receiveMessages();
+            ClientProtocol first = alice.opponentMovesFirst() ? bob : alice;
+            ClientProtocol second = first == alice ? bob : alice;
+            first.sendAction("0-0");
+            second.receiveMessages();
+            second.sendAction("1-1");
+            first.receiveMessages();
+
+            // The spectator of the second player joins in the middle of the match
+            int id = second.getId();
+            ComUtils spectator = watch(spectatorSocket, id);
+            expectStart(spectator, id, 2);
+            for (String move : new String[]{"0-0", "1-1"}) {
+                assertEquals(ACTION, spectator.getDataInputStream().readByte());
+                assertEquals(id, spectator.read_int32());
+                assertEquals(move, spectator.read_string(3));
+            }
+
+            first.sendAction("0-1");
+            second.receiveMessages();
+            assertEquals(ACTION, spectator.getDataInputStream().readByte());
+            assertEquals(id, spectator.read_int32());
+            assertEquals("0-1", spectator.read_string(3));
+        }
+    }
+
+    @Test
+    public void watching_an_unknown_session_is_an_error() throws IOException {
+        start(4646, Server.Mode.THREADS);
+        try (Socket socket = new Socket("localhost", 4646)) {
+            ComUtils spectator = watch(socket, 12345);
+            assertEquals(ERROR, spectator.getDataInputStream().readByte());
+            spectator.read_int32();
+            assertEquals(9, spectator.getDataInputStream().readByte());
+        }
+    }
+
+    @Test
+    public void a_slow_spectator_is_dropped() throws IOException {
+        AtomicInteger hangUps = new AtomicInteger();
+        Spectator spectator = new Spectator(4, null, hangUps::incrementAndGet);
+        long dropped = Metrics.spectatorsDropped();
+        Frame frame = Frame.action(10000, 4, 3);
+        for (int i = 0; i < 4; i++) assertTrue(spectator.offer(frame));
+        assertFalse(spectator.offer(frame));
+        assertTrue(spectator.isDropped());
+        assertEquals(1, hangUps.get());
+        assertEquals(dropped + 1, Metrics.spectatorsDropped());
+        assertFalse(spectator.offer(frame));
+        // The queued frames are discarded, the connection only sees the end
+        try {
+            spectator.poll();
+            fail("A dropped spectator has no frames");
+        } catch (IOException expected) {
+            // Ended
+        }
+
+        // Every spectator reads the same bytes through its own view
+        ByteBuffer first = frame.buffer(), second = frame.buffer();
+        first.position(first.limit());
+        assertEquals(frame.length(), second.remaining());
+        assertTrue(first.isReadOnly());
+    }
+}
@@ -1,3 +1,4 @@
 module utils {
     exports utils;
+    exports utils.engine;
 }
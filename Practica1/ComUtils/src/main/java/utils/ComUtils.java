@@ -1,60 +1,115 @@
 package utils;
 
+import utils.engine.Grid;
+
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class ComUtils {
-
+    // Bytes buffered in each direction in buffered mode, far more than any protocol message
+    public static final int BUFFER_SIZE = 8192;
 
     private DataInputStream dataInputStream;
     private DataOutputStream dataOutputStream;
+    // Bytes of the field being read or written, reused so that encoding and decoding allocate nothing.
+    // A ComUtils belongs to one connection and is used by one thread at a time.
+    private byte[] scratch = new byte[64];
 
     public ComUtils(InputStream inputStream, OutputStream outputStream) throws IOException {
+        this(inputStream, outputStream, false);
+    }
+
+    /**
+     * Constructor
+     * In buffered mode the bytes written are kept in memory until flush() is called, so a whole
+     * message goes out in a single write, and reads are served from a buffer instead of one
+     * system call per byte
+     * @param inputStream Stream to read from
+     * @param outputStream Stream to write to
+     * @param buffered True to buffer both streams, the writer must then call flush() after each message
+     * @throws IOException If an I/O error occurs
+     */
+    public ComUtils(InputStream inputStream, OutputStream outputStream, boolean buffered) throws IOException {
+        if (buffered) {
+            inputStream = new BufferedInputStream(inputStream, BUFFER_SIZE);
+            outputStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        }
         dataInputStream = new DataInputStream(inputStream);
         dataOutputStream = new DataOutputStream(outputStream);
     }
 
+    /**
+     * Sends everything written since the last flush, does nothing in unbuffered mode
+     * @throws IOException If an I/O error occurs
+     */
+    public void flush() throws IOException {
+        dataOutputStream.flush();
+    }
+
     public int read_int32() throws IOException {
-        byte bytes[] = read_bytes(4);
+        read_bytes(4);
 
-        return bytesToInt32(bytes,Endianness.BIG_ENNDIAN);
+        return bytesToInt32(scratch,Endianness.BIG_ENNDIAN);
     }
 
     public void write_int32(int number) throws IOException {
-        byte bytes[] = int32ToBytes(number, Endianness.BIG_ENNDIAN);
+        int32ToBytes(number, Endianness.BIG_ENNDIAN, scratch);
 
-        dataOutputStream.write(bytes, 0, 4);
+        dataOutputStream.write(scratch, 0, 4);
     }
 
+    /**
+     * Reads a fixed-width string
+     * Positions such as "1-1" or "01-02" are returned from a table built once, so reading a move allocates nothing
+     * @param size Bytes of the string
+     * @return The string read, without surrounding spaces
+     * @throws IOException If an I/O error occurs
+     */
     public String read_string(int size) throws IOException {
-        String result;
-        byte[] bStr = new byte[size];
-        char[] cStr = new char[size];
+        read_bytes(size);
 
-        bStr = read_bytes(size);
+        String move = cachedMove(size);
+        if (move != null) return move;
 
-        for(int i = 0; i < size;i++)
-            cStr[i]= (char) bStr[i];
-
-        result = String.valueOf(cStr);
-
-        return result.trim();
+        return new String(scratch, 0, size, StandardCharsets.ISO_8859_1).trim();
     }
 
     public void write_string(String str) throws IOException {
-       
         int size = str.length();
-        byte bStr[] = new byte[size];
+        ensureScratch(size);
         for(int i = 0; i < size; i++)
-            bStr[i] = (byte) str.charAt(i);
+            scratch[i] = (byte) str.charAt(i);
 
+        dataOutputStream.write(scratch, 0,size);
+    }
 
+    /**
+     * Looks up the position held in the first bytes of the scratch buffer
+     * @param size Bytes read, 3 for "r-c" and 5 for "rr-cc"
+     * @return Cached position string, null if the bytes are not a position
+     */
+    private String cachedMove(int size) {
+        if (size == 3 && isDigit(0) && scratch[1] == '-' && isDigit(2)) {
+            return Grid.formatMove((scratch[0] - '0') * 10 + scratch[2] - '0', 10);
+        }
+        if (size == 5 && isDigit(0) && isDigit(1) && scratch[2] == '-' && isDigit(3) && isDigit(4)) {
+            int row = (scratch[0] - '0') * 10 + scratch[1] - '0';
+            int col = (scratch[3] - '0') * 10 + scratch[4] - '0';
+            if (row < Grid.MAX_SIZE && col < Grid.MAX_SIZE) return Grid.formatMove(row * Grid.MAX_SIZE + col, Grid.MAX_SIZE);
+        }
+        return null;
+    }
 
-        dataOutputStream.write(bStr, 0,size);
+    private boolean isDigit(int index) {
+        return scratch[index] >= '0' && scratch[index] <= '9';
     }
 
-    private byte[] int32ToBytes(int number, Endianness endianness) {
-        byte[] bytes = new byte[4];
+    private void ensureScratch(int size) {
+        if (scratch.length < size) scratch = Arrays.copyOf(scratch, Math.max(size, scratch.length * 2));
+    }
 
+    private void int32ToBytes(int number, Endianness endianness, byte[] bytes) {
         if(Endianness.BIG_ENNDIAN == endianness) {
             bytes[0] = (byte)((number >> 24) & 0xFF);
             bytes[1] = (byte)((number >> 16) & 0xFF);
@@ -67,7 +122,6 @@ public class ComUtils {
             bytes[2] = (byte)((number >> 16) & 0xFF);
             bytes[3] = (byte)((number >> 24) & 0xFF);
         }
-        return bytes;
     }
 
     /* Passar de bytes a enters */
@@ -84,18 +138,17 @@ public class ComUtils {
         }
         return number;
     }
-    //llegir bytes.
-    private byte[] read_bytes(int numBytes) throws IOException {
+    //llegir bytes al buffer scratch.
+    private void read_bytes(int numBytes) throws IOException {
         int len = 0;
-        byte bStr[] = new byte[numBytes];
+        ensureScratch(numBytes);
         int bytesread = 0;
         do {
-            bytesread = dataInputStream.read(bStr, len, numBytes-len);
+            bytesread = dataInputStream.read(scratch, len, numBytes-len);
             if (bytesread == -1)
                 throw new IOException("Broken Pipe");
             len += bytesread;
         } while (len < numBytes);
-        return bStr;
     }
 
     public enum Endianness {
@@ -115,20 +168,23 @@ public class ComUtils {
 
     /**
      * Finds a string from the input stream
-     * Reads byte by byte till the 00 end sequence is found
+     * Reads byte by byte till the 00 end sequence is found, collecting the bytes in the scratch buffer
      * @return The string read
      * @throws IOException If an I/O error occurs
      */
     public String findString() throws IOException {
-        char one = 0, two;
-        StringBuilder str = new StringBuilder();
+        byte one = 0, two;
+        int length = 0;
         while (true) {
             two = one;
-            one = (char) dataInputStream.readByte();
+            one = dataInputStream.readByte();
             if (one == 0 && two == 0) break;
-            if (one != 0) str.append(one);
+            if (one != 0) {
+                ensureScratch(length + 1);
+                scratch[length++] = one;
+            }
         }
-        return str.toString();
+        return new String(scratch, 0, length, StandardCharsets.ISO_8859_1);
     }
 }
 
@@ -0,0 +1,146 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with a fixed relative precision, in the style of HdrHistogram.
+ * Values below 128 get a bucket each, larger values share a bucket with the values that have the
+ * same highest 7 bits, so any value is reported with an error below 1/64 of itself. Memory is a
+ * fixed 3712 counters whatever the range of the values.
+ * Recording is thread-safe and allocation-free, histograms recorded by different threads can be merged.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    // Values 0 to 127 have their own bucket, every further power of two is split in 64 buckets
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Constructor
+     * Empty histogram
+     */
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Records a value
+     * @param value Latency, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        total.incrementAndGet();
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until the maximum is at least the value
+        }
+    }
+
+    /**
+     * Adds the values of another histogram to this one
+     * @param other Histogram to merge, it is not changed
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) counts.addAndGet(i, count);
+        }
+        total.addAndGet(other.total.get());
+        long otherMax = other.max.get();
+        long current;
+        while (otherMax > (current = max.get()) && !max.compareAndSet(current, otherMax)) {
+            // Retry until the maximum is at least the other one
+        }
+    }
+
+    /**
+     * Removes every value
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.set(0);
+        max.set(0);
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    /**
+     * Largest value recorded, exact
+     * @return Maximum, 0 if the histogram is empty
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Mean of the values, each one counted as the middle of its bucket
+     * @return Mean, 0 if the histogram is empty
+     */
+    public double mean() {
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucket = counts.get(i);
+            if (bucket == 0) continue;
+            count += bucket;
+            sum += bucket * ((lowest(i) + highest(i)) / 2.0);
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Value at a percentile
+     * @param percentile From 0 to 100
+     * @return Highest value of the bucket holding the percentile, capped to the maximum, 0 if the histogram is empty
+     */
+    public long percentile(double percentile) {
+        long count = total.get();
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highest(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * One line summary of the usual percentiles
+     * @param divisor Divides every value, for instance 1000 to print nanoseconds as microseconds
+     * @param unit Unit printed after the values
+     * @return Count, mean, p50, p90, p99, p99.9 and maximum
+     */
+    public String summary(double divisor, String unit) {
+        return String.format("count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f %s",
+                count(), mean() / divisor, percentile(50) / divisor, percentile(90) / divisor,
+                percentile(99) / divisor, percentile(99.9) / divisor, max() / divisor, unit);
+    }
+
+    private static int index(long value) {
+        if (value < 2 * HALF) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - (SUB_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    private static long lowest(int index) {
+        if (index < 2 * HALF) return index;
+        int shift = index / HALF - 1;
+        long mantissa = index % HALF + HALF;
+        return mantissa << shift;
+    }
+
+    private static long highest(int index) {
+        if (index < 2 * HALF) return index;
+        int shift = index / HALF - 1;
+        return lowest(index) + (1L << shift) - 1;
+    }
+}
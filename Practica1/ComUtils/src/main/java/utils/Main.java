@@ -1,6 +1,9 @@
 package utils;
 public class Main {
 
+    private Main() {
+    }
+
     public static void main(String[] args) {
         System.out.println("Hello word");
         //TODO: Put your code here
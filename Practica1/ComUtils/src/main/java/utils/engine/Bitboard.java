@@ -0,0 +1,92 @@
+package utils.engine;
+
+/**
+ * Bitboard helpers for the 3x3 board.
+ * A board is kept as one 9-bit mask per player, bit i is set when the player owns cell i,
+ * where i = row * 3 + col.
+ */
+public final class Bitboard {
+    // All nine cells
+    public static final int FULL = 0b111111111;
+    // Number of distinct cell assignments, 3^9
+    public static final int POSITIONS = 19683;
+    // Rows, columns and diagonals
+    private static final int[] WIN_MASKS = {
+            0b000000111, 0b000111000, 0b111000000,
+            0b001001001, 0b010010010, 0b100100100,
+            0b100010001, 0b001010100
+    };
+    // Base-3 value of every mask, a cell owned by the first player counts 1 and by the second 2
+    private static final int[] BASE3 = new int[1 << 9];
+    // Image of every mask under the 8 rotations and reflections of the board
+    private static final short[][] SYMMETRIES = new short[8][1 << 9];
+
+    static {
+        int[] pow3 = new int[9];
+        pow3[0] = 1;
+        for (int i = 1; i < 9; i++) pow3[i] = pow3[i - 1] * 3;
+        for (int mask = 1; mask < BASE3.length; mask++) {
+            BASE3[mask] = BASE3[mask & (mask - 1)] + pow3[Integer.numberOfTrailingZeros(mask)];
+        }
+
+        for (int s = 0; s < 8; s++) {
+            int[] permutation = new int[9];
+            for (int cell = 0; cell < 9; cell++) {
+                int row = cell / 3, col = cell % 3;
+                // s & 4 transposes, s & 2 mirrors the rows, s & 1 mirrors the columns
+                if ((s & 4) != 0) {
+                    int tmp = row;
+                    row = col;
+                    col = tmp;
+                }
+                if ((s & 2) != 0) row = 2 - row;
+                if ((s & 1) != 0) col = 2 - col;
+                permutation[cell] = row * 3 + col;
+            }
+            for (int mask = 1; mask < BASE3.length; mask++) {
+                int lowest = Integer.numberOfTrailingZeros(mask);
+                SYMMETRIES[s][mask] = (short) (SYMMETRIES[s][mask & (mask - 1)] | (1 << permutation[lowest]));
+            }
+        }
+    }
+
+    private Bitboard() {
+    }
+
+    /**
+     * Checks if a bitboard contains a full row, column or diagonal
+     * @param board Bitboard of one player
+     * @return True if one of the winning masks is covered
+     */
+    public static boolean hasLine(int board) {
+        for (int mask : WIN_MASKS) {
+            if ((board & mask) == mask) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Base-3 encoding of a position
+     * @param first Bitboard of the first player
+     * @param second Bitboard of the second player
+     * @return Key between 0 and POSITIONS - 1
+     */
+    public static int encode(int first, int second) {
+        return BASE3[first] + 2 * BASE3[second];
+    }
+
+    /**
+     * Smallest encoding of a position over its 8 symmetric images,
+     * so rotated and reflected boards share the same key
+     * @param first Bitboard of the first player
+     * @param second Bitboard of the second player
+     * @return Canonical key between 0 and POSITIONS - 1
+     */
+    public static int canonical(int first, int second) {
+        int key = encode(first, second);
+        for (int s = 1; s < 8; s++) {
+            key = Math.min(key, encode(SYMMETRIES[s][first], SYMMETRIES[s][second]));
+        }
+        return key;
+    }
+}
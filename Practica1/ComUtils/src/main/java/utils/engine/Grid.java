@@ -0,0 +1,211 @@
+package utils.engine;
+
+/**
+ * N x N board where K marks in a row win.
+ * Wins are detected incrementally around the last move, and every cell keeps the number of
+ * marks around it so that searches only look at cells next to the ones already played.
+ * Cell index of a position is row * size + col.
+ */
+public final class Grid {
+    public static final int MIN_SIZE = 3;
+    public static final int MAX_SIZE = 15;
+    // Row and column step of the four line directions: horizontal, vertical and both diagonals
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+    // Position strings of every cell of every board size, built once so that no move allocates a string.
+    // Boards with the same move width share the strings of the largest one.
+    private static final String[][] MOVES = new String[MAX_SIZE + 1][];
+
+    static {
+        for (int size : new int[]{10, MAX_SIZE}) {
+            MOVES[size] = new String[size * size];
+            for (int cell = 0; cell < size * size; cell++) {
+                int row = cell / size, col = cell % size;
+                MOVES[size][cell] = moveWidth(size) == 3 ? row + "-" + col
+                        : (row < 10 ? "0" : "") + row + "-" + (col < 10 ? "0" : "") + col;
+            }
+        }
+        for (int size = MIN_SIZE; size < MAX_SIZE; size++) {
+            if (size == 10) continue;
+            int stride = moveWidth(size) == 3 ? 10 : MAX_SIZE;
+            String[] shared = MOVES[stride];
+            MOVES[size] = new String[size * size];
+            for (int cell = 0; cell < size * size; cell++) {
+                MOVES[size][cell] = shared[cell / size * stride + cell % size];
+            }
+        }
+    }
+
+    private final int size;
+    private final int k;
+    // 0 if empty, else the player (1 or 2) that owns the cell
+    private final byte[] cells;
+    // Marks in the 8 cells around each cell
+    private final byte[] near;
+    private final int[] history;
+    private int moves;
+
+    /**
+     * Constructor
+     * @param size Number of rows and columns, from MIN_SIZE to MAX_SIZE
+     * @param k Marks in a row needed to win, from 3 to size
+     */
+    public Grid(int size, int k) {
+        if (size < MIN_SIZE || size > MAX_SIZE) throw new IllegalArgumentException("Invalid board size " + size);
+        if (k < 3 || k > size) throw new IllegalArgumentException("Invalid line length " + k);
+        this.size = size;
+        this.k = k;
+        this.cells = new byte[size * size];
+        this.near = new byte[size * size];
+        this.history = new int[size * size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public int moves() {
+        return moves;
+    }
+
+    public int get(int cell) {
+        return cells[cell];
+    }
+
+    /**
+     * Bitboard of a player, bit i set when the player owns cell i, for boards of up to 5x5
+     * @param player 1 or 2
+     * @return Mask of the player's cells
+     */
+    public int mask(int player) {
+        int mask = 0;
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (cells[cell] == player) mask |= 1 << cell;
+        }
+        return mask;
+    }
+
+    public boolean isFull() {
+        return moves == cells.length;
+    }
+
+    /**
+     * Marks a cell
+     * @param cell Empty cell
+     * @param player 1 or 2
+     * @return True if the move makes a line of k
+     */
+    public boolean play(int cell, int player) {
+        cells[cell] = (byte) player;
+        history[moves++] = cell;
+        updateNear(cell, 1);
+        return wouldWin(cell, player);
+    }
+
+    /**
+     * Removes the last mark
+     */
+    public void undo() {
+        int cell = history[--moves];
+        cells[cell] = 0;
+        updateNear(cell, -1);
+    }
+
+    /**
+     * Checks if a player would complete a line of k by marking a cell,
+     * only the four lines through that cell are looked at
+     * @param cell Cell to check
+     * @param player 1 or 2
+     * @return True if the cell completes a line for the player
+     */
+    public boolean wouldWin(int cell, int player) {
+        int row = cell / size, col = cell % size;
+        for (int[] direction : DIRECTIONS) {
+            int count = 1 + run(row, col, direction[0], direction[1], player)
+                    + run(row, col, -direction[0], -direction[1], player);
+            if (count >= k) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Empty cells worth searching: the ones next to a mark, or the centre on an empty board
+     * @param out Array of at least size * size cells to fill
+     * @return Number of cells written
+     */
+    public int candidates(int[] out) {
+        if (moves == 0) {
+            out[0] = (size / 2) * size + size / 2;
+            return 1;
+        }
+        int count = 0;
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (cells[cell] == 0 && near[cell] > 0) out[count++] = cell;
+        }
+        return count;
+    }
+
+    private int run(int row, int col, int dRow, int dCol, int player) {
+        int count = 0;
+        row += dRow;
+        col += dCol;
+        while (row >= 0 && row < size && col >= 0 && col < size && cells[row * size + col] == player) {
+            count++;
+            row += dRow;
+            col += dCol;
+        }
+        return count;
+    }
+
+    private void updateNear(int cell, int delta) {
+        int row = cell / size, col = cell % size;
+        for (int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                near[r * size + c] += delta;
+            }
+        }
+    }
+
+    /**
+     * Bytes of a position on the wire, "r-c" up to 10 rows and "rr-cc" above
+     * @param size Board size
+     * @return Length of a position string
+     */
+    public static int moveWidth(int size) {
+        return size > 10 ? 5 : 3;
+    }
+
+    /**
+     * Formats a cell as a position string
+     * @param cell Cell index
+     * @param size Board size
+     * @return Position as sent in ACTION and RESULT messages, the same instance on every call
+     */
+    public static String formatMove(int cell, int size) {
+        return MOVES[size][cell];
+    }
+
+    /**
+     * Parses a position string
+     * @param move Position as received in an ACTION message
+     * @param size Board size
+     * @return Cell index, or -1 if the format is wrong or the position is off the board
+     */
+    public static int parseMove(String move, int size) {
+        int width = moveWidth(size);
+        int half = width / 2;
+        if (move.length() != width || move.charAt(half) != '-') return -1;
+        int row = 0, col = 0;
+        for (int i = 0; i < half; i++) {
+            char r = move.charAt(i), c = move.charAt(half + 1 + i);
+            if (r < '0' || r > '9' || c < '0' || c > '9') return -1;
+            row = row * 10 + (r - '0');
+            col = col * 10 + (c - '0');
+        }
+        if (row >= size || col >= size) return -1;
+        return row * size + col;
+    }
+}
@@ -0,0 +1,178 @@
+package utils.engine;
+
+/**
+ * Iterative-deepening alpha-beta search for a {@link Grid} with a time budget per move.
+ * Each iteration searches one ply deeper, and the best move of the last complete iteration is
+ * returned when the budget runs out, so a move never takes much longer than the budget.
+ * Leaves are scored by counting the windows of k cells still open for each player.
+ */
+public final class GridSearch {
+    // Larger than any static score, which is at most 900 windows of 1 << MAX_SHIFT
+    private static final int WIN = 1 << 28;
+    private static final int INFINITY = 2 * WIN;
+    private static final int MAX_SHIFT = 16;
+    // The clock is read every CHECK_INTERVAL + 1 nodes
+    private static final int CHECK_INTERVAL = 255;
+
+    private final long budgetNanos;
+    // Candidate cells of every ply, allocated the first time the ply is reached
+    private int[][] buffers = new int[16][];
+    private long deadline;
+    private boolean timedOut;
+    private long nodes;
+    private int depthReached;
+
+    /**
+     * Constructor
+     * A search keeps its own buffers and should not be shared between threads
+     * @param budgetMillis Time budget for each move, in milliseconds
+     */
+    public GridSearch(long budgetMillis) {
+        this.budgetNanos = budgetMillis * 1_000_000L;
+    }
+
+    /**
+     * Best move for a player, the grid is left as it was
+     * @param grid Current position
+     * @param player Player to move, 1 or 2
+     * @return Cell of the best move, -1 if the board is full
+     */
+    public int bestMove(Grid grid, int player) {
+        deadline = System.nanoTime() + budgetNanos;
+        timedOut = false;
+        nodes = 0;
+        depthReached = 0;
+        int opponent = 3 - player;
+        int[] root = buffer(0, grid);
+        int count = grid.candidates(root);
+        if (count == 0) return -1;
+
+        // Winning at once, or blocking an immediate loss, needs no search
+        for (int i = 0; i < count; i++) {
+            if (grid.wouldWin(root[i], player)) return root[i];
+        }
+        for (int i = 0; i < count; i++) {
+            if (grid.wouldWin(root[i], opponent)) return root[i];
+        }
+
+        int best = root[0];
+        int empty = grid.size() * grid.size() - grid.moves();
+        for (int depth = 1; depth <= empty; depth++) {
+            moveToFront(root, count, best);
+            int alpha = -INFINITY;
+            int bestThisDepth = -1;
+            for (int i = 0; i < count; i++) {
+                grid.play(root[i], player);
+                int score = -negamax(grid, opponent, depth - 1, -INFINITY, -alpha, 1);
+                grid.undo();
+                if (timedOut) break;
+                if (score > alpha) {
+                    alpha = score;
+                    bestThisDepth = root[i];
+                }
+            }
+            // Moves compared before the timeout were fully searched, so a partial iteration still helps
+            if (bestThisDepth != -1) best = bestThisDepth;
+            if (timedOut) break;
+            depthReached = depth;
+            // The result is proven, searching deeper cannot change it
+            if (Math.abs(alpha) >= WIN / 2) break;
+        }
+        return best;
+    }
+
+    /**
+     * Nodes visited by the last call to bestMove
+     * @return Node count
+     */
+    public long nodes() {
+        return nodes;
+    }
+
+    /**
+     * Depth of the last complete iteration of the last call to bestMove
+     * @return Depth in plies
+     */
+    public int depthReached() {
+        return depthReached;
+    }
+
+    private int negamax(Grid grid, int player, int depth, int alpha, int beta, int ply) {
+        if ((++nodes & CHECK_INTERVAL) == 0 && System.nanoTime() > deadline) timedOut = true;
+        if (timedOut) return 0;
+        if (depth == 0) return evaluate(grid, player);
+
+        int[] moves = buffer(ply, grid);
+        int count = grid.candidates(moves);
+        if (count == 0) return 0; // Full board
+
+        int best = -INFINITY;
+        for (int i = 0; i < count && alpha < beta; i++) {
+            int score;
+            if (grid.play(moves[i], player)) {
+                // Faster wins score higher
+                score = WIN - ply;
+            } else {
+                score = -negamax(grid, 3 - player, depth - 1, -beta, -alpha, ply + 1);
+            }
+            grid.undo();
+            if (timedOut) return 0;
+            if (score > best) best = score;
+            if (score > alpha) alpha = score;
+        }
+        return best;
+    }
+
+    /**
+     * Static score for the player to move: every window of k cells holding marks of a single
+     * player counts for that player, more marks count exponentially more
+     */
+    private int evaluate(Grid grid, int player) {
+        int size = grid.size(), k = grid.k();
+        int score = 0;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (col + k <= size) score += window(grid, row, col, 0, 1, player);
+                if (row + k <= size) score += window(grid, row, col, 1, 0, player);
+                if (row + k <= size && col + k <= size) score += window(grid, row, col, 1, 1, player);
+                if (row + k <= size && col - k + 1 >= 0) score += window(grid, row, col, 1, -1, player);
+            }
+        }
+        return score;
+    }
+
+    private static int window(Grid grid, int row, int col, int dRow, int dCol, int player) {
+        int size = grid.size();
+        int own = 0, other = 0;
+        for (int i = 0; i < grid.k(); i++) {
+            int owner = grid.get((row + i * dRow) * size + col + i * dCol);
+            if (owner == player) own++;
+            else if (owner != 0) other++;
+        }
+        if (own > 0 && other > 0) return 0;
+        if (own > 0) return 1 << Math.min(3 * own, MAX_SHIFT);
+        if (other > 0) return -(1 << Math.min(3 * other, MAX_SHIFT));
+        return 0;
+    }
+
+    private int[] buffer(int ply, Grid grid) {
+        if (ply >= buffers.length) {
+            int[][] grown = new int[ply * 2][];
+            System.arraycopy(buffers, 0, grown, 0, buffers.length);
+            buffers = grown;
+        }
+        int cells = grid.size() * grid.size();
+        if (buffers[ply] == null || buffers[ply].length < cells) buffers[ply] = new int[cells];
+        return buffers[ply];
+    }
+
+    private static void moveToFront(int[] moves, int count, int cell) {
+        for (int i = 0; i < count; i++) {
+            if (moves[i] == cell) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = cell;
+                return;
+            }
+        }
+    }
+}
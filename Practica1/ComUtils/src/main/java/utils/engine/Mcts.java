@@ -0,0 +1,151 @@
+package utils.engine;
+
+import java.util.SplittableRandom;
+
+/**
+ * Monte Carlo tree search for the classic board.
+ * Every iteration walks down the tree choosing the child with the best upper confidence bound,
+ * adds one new position, finishes the game with random moves and adds the result to the positions
+ * of the walk. The move played most often from the root is chosen. The tree lives in flat arrays
+ * sized for the iterations, allocated once and reused by every search.
+ */
+public final class Mcts {
+    // Weight of the exploration term of the upper confidence bound
+    private static final double EXPLORATION = 1.4;
+
+    private final int iterations;
+    private final SplittableRandom random;
+    // Bitboards of the player to move and of the player who just moved, by node
+    private final int[] toMove;
+    private final int[] waiting;
+    // Cell that leads to the node, and the tree links
+    private final int[] cell;
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    // Moves of the node without child yet
+    private final int[] untried;
+    private final int[] visits;
+    // Score of the player who moved into the node: 1 per win and 0.5 per draw
+    private final double[] score;
+    private int nodes;
+
+    /**
+     * Constructor
+     * A search keeps its own tree and should not be shared between threads
+     * @param iterations Playouts of every move, at least 1
+     * @param seed Seed of the random moves
+     */
+    public Mcts(int iterations, long seed) {
+        if (iterations < 1) throw new IllegalArgumentException("Invalid number of iterations " + iterations);
+        this.iterations = iterations;
+        this.random = new SplittableRandom(seed);
+        int capacity = iterations + 1;
+        toMove = new int[capacity];
+        waiting = new int[capacity];
+        cell = new int[capacity];
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        untried = new int[capacity];
+        visits = new int[capacity];
+        score = new double[capacity];
+    }
+
+    /**
+     * Best move for the player to move
+     * @param own Bitboard of the player to move
+     * @param opponent Bitboard of the other player
+     * @return Cell of the move, -1 if the game is over
+     */
+    public int bestMove(int own, int opponent) {
+        nodes = 0;
+        int root = newNode(-1, -1, own, opponent);
+        if (untried[root] == 0) return -1;
+        for (int i = 0; i < iterations; i++) {
+            int node = root;
+            // Selection
+            while (untried[node] == 0 && firstChild[node] != -1) node = select(node);
+            // Expansion
+            if (untried[node] != 0 && nodes < toMove.length) {
+                int bit = randomBit(untried[node]);
+                untried[node] &= ~bit;
+                node = newNode(node, Integer.numberOfTrailingZeros(bit), waiting[node], toMove[node] | bit);
+            }
+            // Simulation and backpropagation
+            double result = playout(toMove[node], waiting[node]);
+            for (; node != -1; node = parent[node]) {
+                visits[node]++;
+                score[node] += result;
+                result = 1 - result;
+            }
+        }
+        int best = -1;
+        for (int child = firstChild[root]; child != -1; child = nextSibling[child]) {
+            if (best == -1 || visits[child] > visits[best]) best = child;
+        }
+        return cell[best];
+    }
+
+    private int newNode(int from, int move, int mover, int moved) {
+        int node = nodes++;
+        toMove[node] = mover;
+        waiting[node] = moved;
+        cell[node] = move;
+        parent[node] = from;
+        firstChild[node] = -1;
+        visits[node] = 0;
+        score[node] = 0;
+        boolean over = Bitboard.hasLine(moved) || (mover | moved) == Bitboard.FULL;
+        untried[node] = over ? 0 : ~(mover | moved) & Bitboard.FULL;
+        if (from != -1) {
+            nextSibling[node] = firstChild[from];
+            firstChild[from] = node;
+        }
+        return node;
+    }
+
+    /**
+     * Child with the best upper confidence bound
+     */
+    private int select(int node) {
+        double logVisits = Math.log(visits[node]);
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+            double value = score[child] / visits[child] + EXPLORATION * Math.sqrt(logVisits / visits[child]);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finishes the game with random moves
+     * @param mover Bitboard of the player to move
+     * @param moved Bitboard of the player who just moved
+     * @return Score of the player who just moved: 1 won, 0.5 draw, 0 lost
+     */
+    private double playout(int mover, int moved) {
+        boolean sameSide = true;
+        while (true) {
+            if (Bitboard.hasLine(moved)) return sameSide ? 1 : 0;
+            int empty = ~(mover | moved) & Bitboard.FULL;
+            if (empty == 0) return 0.5;
+            int next = mover | randomBit(empty);
+            mover = moved;
+            moved = next;
+            sameSide = !sameSide;
+        }
+    }
+
+    /**
+     * One of the set bits of a mask, chosen at random
+     */
+    private int randomBit(int mask) {
+        for (int skip = random.nextInt(Integer.bitCount(mask)); skip > 0; skip--) mask &= mask - 1;
+        return Integer.lowestOneBit(mask);
+    }
+}
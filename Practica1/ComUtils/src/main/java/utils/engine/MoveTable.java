@@ -0,0 +1,69 @@
+package utils.engine;
+
+import java.util.Arrays;
+
+/**
+ * Perfect-play move table for the classic board.
+ * Every legal position is solved once with the shared search, the first time the class is used,
+ * and the best move of the player to move is stored by position so that each move is a single
+ * array lookup, for either player.
+ */
+public final class MoveTable {
+    // Best cell for the player to move by Bitboard.encode(first, second), -1 where the game is over
+    private static final byte[] BEST_MOVE = new byte[Bitboard.POSITIONS];
+    private static int legalPositions;
+
+    static {
+        Arrays.fill(BEST_MOVE, (byte) -1);
+        solve(0, 0, new boolean[Bitboard.POSITIONS], new Search());
+    }
+
+    private MoveTable() {
+    }
+
+    /**
+     * Best move for the player to move
+     * @param own Bitboard of the player to move
+     * @param opponent Bitboard of the other player
+     * @return Cell index (row * 3 + col) of the best move, -1 if the game is over
+     */
+    public static int bestMove(int own, int opponent) {
+        // The player who moves first has as many marks as the other one when it is its turn
+        boolean first = Integer.bitCount(own) == Integer.bitCount(opponent);
+        return BEST_MOVE[first ? Bitboard.encode(own, opponent) : Bitboard.encode(opponent, own)];
+    }
+
+    /**
+     * Number of legal positions reachable from the empty board
+     * @return Positions solved when the table was built
+     */
+    public static int legalPositions() {
+        return legalPositions;
+    }
+
+    /**
+     * Visits every position reachable from the given one and stores the search result
+     * for the player to move
+     * @param first Bitboard of the player who moves first
+     * @param second Bitboard of the other player
+     * @param visited Positions already visited, by Bitboard.encode(first, second)
+     * @param search Search used to solve the positions
+     */
+    private static void solve(int first, int second, boolean[] visited, Search search) {
+        int key = Bitboard.encode(first, second);
+        if (visited[key]) return;
+        visited[key] = true;
+        legalPositions++;
+
+        int empty = ~(first | second) & Bitboard.FULL;
+        if (empty == 0 || Bitboard.hasLine(first) || Bitboard.hasLine(second)) return;
+        boolean secondToMove = Integer.bitCount(first) > Integer.bitCount(second);
+        BEST_MOVE[key] = (byte) Search.cell(secondToMove ? search.search(second, first) : search.search(first, second));
+        for (int cell = 0; cell < 9; cell++) {
+            int bit = 1 << cell;
+            if ((empty & bit) == 0) continue;
+            if (secondToMove) solve(first, second | bit, visited, search);
+            else solve(first | bit, second, visited, search);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package utils.engine;
+
+import java.util.Arrays;
+
+/**
+ * Perfect-play search shared by the server and the client.
+ * Positions are scored from the point of view of the player to move (negamax), so the same
+ * search serves both sides. The search is alpha-beta with move ordering (killer move of the ply,
+ * then centre, corners and edges) and a transposition table keyed by the canonical encoding of
+ * the position, shared by every game in the process.
+ * A win scores 1 plus the number of cells still empty, so faster wins are preferred.
+ * Results are packed in an int, see {@link #score(int)} and {@link #cell(int)}.
+ */
+public final class Search {
+    // Centre, corners, edges
+    private static final int[] ORDER = {4, 0, 2, 6, 8, 1, 3, 5, 7};
+    // Bound stored with a table entry
+    private static final int EXACT = 1;
+    private static final int LOWER = 2;
+    private static final int UPPER = 3;
+    // Larger than any score
+    private static final int INFINITY = 64;
+    // Table entry is bound << 8 | (value + 128), 0 if not solved yet.
+    // Entries only hold facts about their position, so a racing writer can lose information but never corrupt it.
+    private static final int[] TABLE = new int[Bitboard.POSITIONS];
+
+    // Killer move of every ply, the last move that caused a cutoff
+    private final int[] killers = new int[10];
+    private long nodes;
+
+    /**
+     * Constructor
+     * A search keeps its own killer moves and node count and should not be shared between threads
+     */
+    public Search() {
+        Arrays.fill(killers, -1);
+    }
+
+    /**
+     * Best move for the player to move, the first one in search order among equally good moves
+     * @param own Bitboard of the player to move
+     * @param opponent Bitboard of the other player
+     * @return Packed score and cell, cell is -1 if the game is over
+     */
+    public int search(int own, int opponent) {
+        int empty = ~(own | opponent) & Bitboard.FULL;
+        if (Bitboard.hasLine(opponent)) return pack(-(Integer.bitCount(empty) + 1), -1);
+        if (empty == 0 || Bitboard.hasLine(own)) return pack(0, -1);
+
+        int best = Integer.MIN_VALUE;
+        int bestCell = -1;
+        int alpha = -INFINITY;
+        for (int cell : ORDER) {
+            int bit = 1 << cell;
+            if ((empty & bit) == 0) continue;
+            int score = -negamax(opponent, own | bit, -INFINITY, -alpha, 1);
+            if (score > best) {
+                best = score;
+                bestCell = cell;
+                alpha = Math.max(alpha, score);
+            }
+        }
+        return pack(best, bestCell);
+    }
+
+    /**
+     * Alpha-beta negamax
+     * @param own Bitboard of the player to move
+     * @param opponent Bitboard of the player that moved last
+     * @param alpha Lower bound of the window
+     * @param beta Upper bound of the window
+     * @param ply Moves made since the root
+     * @return Score for the player to move
+     */
+    private int negamax(int own, int opponent, int alpha, int beta, int ply) {
+        nodes++;
+        int empty = ~(own | opponent) & Bitboard.FULL;
+        if (Bitboard.hasLine(opponent)) return -(Integer.bitCount(empty) + 1);
+        if (empty == 0) return 0;
+
+        int key = Bitboard.canonical(own, opponent);
+        int entry = TABLE[key];
+        if (entry != 0) {
+            int value = (entry & 0xFF) - 128;
+            int bound = entry >>> 8;
+            if (bound == EXACT) return value;
+            if (bound == LOWER) alpha = Math.max(alpha, value);
+            else beta = Math.min(beta, value);
+            if (alpha >= beta) return value;
+        }
+
+        int originalAlpha = alpha;
+        int best = Integer.MIN_VALUE;
+        int killer = killers[ply];
+        for (int i = -1; i < ORDER.length && alpha < beta; i++) {
+            int cell = i == -1 ? killer : ORDER[i];
+            if (cell == -1 || (i != -1 && cell == killer)) continue;
+            int bit = 1 << cell;
+            if ((empty & bit) == 0) continue;
+            int score = -negamax(opponent, own | bit, -beta, -alpha, ply + 1);
+            if (score > best) best = score;
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) killers[ply] = cell;
+        }
+
+        int bound = best <= originalAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+        TABLE[key] = bound << 8 | (best + 128);
+        return best;
+    }
+
+    /**
+     * Nodes visited by this search since it was created
+     * @return Node count
+     */
+    public long nodes() {
+        return nodes;
+    }
+
+    /**
+     * Empties the shared transposition table, used to measure cold searches
+     */
+    public static void clearTable() {
+        Arrays.fill(TABLE, 0);
+    }
+
+    /**
+     * Packs a score and a cell in one int
+     * @param score Score for the player to move
+     * @param cell Cell index, or -1
+     * @return Packed result
+     */
+    public static int pack(int score, int cell) {
+        return score << 8 | (cell & 0xFF);
+    }
+
+    /**
+     * Score of a packed result
+     * @param packed Packed result
+     * @return Score for the player to move, positive if it wins
+     */
+    public static int score(int packed) {
+        return packed >> 8;
+    }
+
+    /**
+     * Cell of a packed result
+     * @param packed Packed result
+     * @return Cell index (row * 3 + col) or -1
+     */
+    public static int cell(int packed) {
+        return (byte) packed;
+    }
+}
@@ -0,0 +1,62 @@
+package utils.engine;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Built-in strategies.
+ * The searches keep state between calls, so every thread gets its own instance of them.
+ */
+public enum Strategies implements Strategy {
+    // Full alpha-beta search with the shared transposition table
+    MINIMAX {
+        private final ThreadLocal<Search> search = ThreadLocal.withInitial(Search::new);
+
+        @Override
+        public int move(int own, int opponent) {
+            return Search.cell(search.get().search(own, opponent));
+        }
+    },
+    // Single lookup in the perfect-play move table, built the first time it is used
+    TABLE {
+        @Override
+        public int move(int own, int opponent) {
+            return MoveTable.bestMove(own, opponent);
+        }
+    },
+    // Monte Carlo tree search
+    MCTS {
+        private final ThreadLocal<Mcts> search = ThreadLocal.withInitial(
+                () -> new Mcts(MCTS_ITERATIONS, ThreadLocalRandom.current().nextLong()));
+
+        @Override
+        public int move(int own, int opponent) {
+            return search.get().bestMove(own, opponent);
+        }
+    },
+    // Deliberately weak bot: takes a line it can complete, otherwise any empty cell, and never blocks
+    WEAK {
+        @Override
+        public int move(int own, int opponent) {
+            int empty = ~(own | opponent) & Bitboard.FULL;
+            for (int moves = empty; moves != 0; moves &= moves - 1) {
+                int bit = Integer.lowestOneBit(moves);
+                if (Bitboard.hasLine(own | bit)) return Integer.numberOfTrailingZeros(bit);
+            }
+            for (int skip = ThreadLocalRandom.current().nextInt(Integer.bitCount(empty)); skip > 0; skip--) empty &= empty - 1;
+            return Integer.numberOfTrailingZeros(empty);
+        }
+    };
+
+    // Playouts of every MCTS move
+    public static final int MCTS_ITERATIONS = 200;
+
+    /**
+     * Strategy by name
+     * @param name minimax, table, mcts or weak, in any case
+     * @return Strategy
+     * @throws IllegalArgumentException If there is no strategy with that name
+     */
+    public static Strategies named(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
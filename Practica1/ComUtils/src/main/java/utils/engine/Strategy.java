@@ -0,0 +1,17 @@
+package utils.engine;
+
+/**
+ * Chooses the moves of a player on the classic board.
+ * The client, the server and the tournaments play through this interface, so any implementation
+ * can be plugged into them. An instance may be called from many threads at once, the built-in
+ * ones are listed in Strategies.
+ */
+public interface Strategy {
+    /**
+     * Move for the player to move
+     * @param own Bitboard of the player to move
+     * @param opponent Bitboard of the other player
+     * @return Cell index (row * 3 + col) of the move
+     */
+    int move(int own, int opponent);
+}
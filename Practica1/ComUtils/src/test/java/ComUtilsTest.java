@@ -1,5 +1,8 @@
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -8,6 +11,7 @@ import java.io.IOException;
 import org.junit.Test;
 
 import utils.ComUtils;
+import utils.engine.Grid;
 
 public class ComUtilsTest {
 
@@ -26,4 +30,45 @@ public class ComUtilsTest {
             e.printStackTrace();
         }
     }
+
+    @Test
+    public void buffered_writes_wait_for_flush() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ComUtils comUtils = new ComUtils(new ByteArrayInputStream(new byte[0]), out, true);
+        comUtils.getDataOutputStream().writeByte(6);
+        comUtils.write_int32(12345);
+        comUtils.write_string("1-1");
+        comUtils.getDataOutputStream().writeByte(0);
+        assertEquals(0, out.size());
+
+        comUtils.flush();
+        assertEquals(9, out.size());
+        ComUtils reader = new ComUtils(new ByteArrayInputStream(out.toByteArray()), new ByteArrayOutputStream(), true);
+        assertEquals(6, reader.getDataInputStream().readByte());
+        assertEquals(12345, reader.read_int32());
+        assertEquals("1-1", reader.read_string(3));
+        assertEquals(0, reader.getDataInputStream().readByte());
+    }
+
+    @Test
+    public void codec_round_trip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ComUtils writer = new ComUtils(new ByteArrayInputStream(new byte[0]), out);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100; i++) name.append("Paula");
+        writer.write_int32(-7);
+        writer.write_string(name.toString());
+        writer.write_string("\0\0");
+        writer.write_string("2-1");
+        writer.write_string("14-03");
+        writer.write_string("ab ");
+
+        ComUtils reader = new ComUtils(new ByteArrayInputStream(out.toByteArray()), new ByteArrayOutputStream());
+        assertEquals(-7, reader.read_int32());
+        assertEquals(name.toString(), reader.findString());
+        // Moves come from the position table, the same instances Grid.formatMove returns
+        assertSame(Grid.formatMove(7, 3), reader.read_string(3));
+        assertSame(Grid.formatMove(14 * 15 + 3, 15), reader.read_string(5));
+        assertEquals("ab", reader.read_string(3));
+    }
 }
@@ -0,0 +1,61 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import utils.engine.Grid;
+import utils.engine.GridSearch;
+
+public class GridSearchTest {
+
+    @Test
+    public void incremental_win_test() {
+        Grid grid = new Grid(5, 4);
+        assertFalse(grid.play(0, 1));
+        assertFalse(grid.play(6, 1));
+        assertFalse(grid.play(12, 1));
+        assertTrue(grid.wouldWin(18, 1));
+        assertFalse(grid.wouldWin(18, 2));
+        assertTrue(grid.play(18, 1));
+        grid.undo();
+        assertEquals(0, grid.get(18));
+        assertEquals(3, grid.moves());
+    }
+
+    @Test
+    public void move_format_test() {
+        assertEquals("1-0", Grid.formatMove(4, 4));
+        assertEquals("01-14", Grid.formatMove(29, 15));
+        assertEquals(29, Grid.parseMove("01-14", 15));
+        assertEquals(-1, Grid.parseMove("1-14", 15));
+        assertEquals(-1, Grid.parseMove("4-0", 4));
+        assertEquals(-1, Grid.parseMove("a-0", 4));
+    }
+
+    @Test
+    public void blocks_and_wins_test() {
+        GridSearch search = new GridSearch(100);
+        Grid grid = new Grid(15, 5);
+        // Player 1 has four in a row on row 7, player 2 must block one end
+        for (int col = 5; col < 9; col++) grid.play(7 * 15 + col, 1);
+        grid.play(7 * 15 + 4, 2);
+        assertEquals(7 * 15 + 9, search.bestMove(grid, 2));
+        // Player 1 wins at once
+        assertEquals(7 * 15 + 9, search.bestMove(grid, 1));
+    }
+
+    @Test
+    public void respects_time_budget_test() {
+        GridSearch search = new GridSearch(50);
+        Grid grid = new Grid(15, 5);
+        grid.play(112, 1);
+        grid.play(113, 2);
+        grid.play(97, 1);
+        long start = System.nanoTime();
+        int cell = search.bestMove(grid, 2);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(0, grid.get(cell));
+        assertEquals(3, grid.moves());
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 500);
+        assertTrue(search.depthReached() >= 1);
+    }
+}
@@ -0,0 +1,53 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import utils.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_within_precision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) histogram.record(value * 1000);
+        assertEquals(100000, histogram.count());
+        assertEquals(100000000, histogram.max());
+        long[][] expected = {{50, 50000000}, {90, 90000000}, {99, 99000000}, {100, 100000000}};
+        for (long[] pair : expected) {
+            long value = histogram.percentile(pair[0]);
+            assertTrue(pair[0] + "th percentile " + value, Math.abs(value - pair[1]) <= pair[1] / 64);
+        }
+        assertEquals(50000500, histogram.mean(), 50000500 / 64.0);
+    }
+
+    @Test
+    public void small_values_are_exact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 128; value++) histogram.record(value);
+        assertEquals(63, histogram.percentile(50));
+        assertEquals(127, histogram.percentile(100));
+        histogram.record(-5);
+        assertEquals(0, histogram.percentile(0));
+    }
+
+    @Test
+    public void merge_keeps_every_value() throws InterruptedException {
+        LatencyHistogram total = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long offset = t;
+            threads[t] = new Thread(() -> {
+                LatencyHistogram own = new LatencyHistogram();
+                for (int i = 0; i < 10000; i++) own.record(i * 10 + offset);
+                total.add(own);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(40000, total.count());
+        assertEquals(99993, total.max());
+        total.reset();
+        assertEquals(0, total.count());
+        assertEquals(0, total.percentile(99));
+    }
+}
@@ -0,0 +1,77 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import utils.engine.Bitboard;
+import utils.engine.Search;
+
+public class SearchTest {
+
+    @Test
+    public void canonical_symmetry_test() {
+        // X in a corner and O in the centre, the four corners are the same position
+        int[] corners = {0, 2, 6, 8};
+        int key = Bitboard.canonical(1, 1 << 4);
+        for (int corner : corners) {
+            assertEquals(key, Bitboard.canonical(1 << corner, 1 << 4));
+        }
+        assertNotEquals(key, Bitboard.canonical(1 << 1, 1 << 4));
+    }
+
+    @Test
+    public void search_matches_plain_minimax_test() {
+        Search search = new Search();
+        assertEquals(0, Search.score(search.search(0, 0)));
+        assertEquals(0, Search.cell(search.search(1 << 4, 0)));
+
+        Random random = new Random(7);
+        for (int game = 0; game < 30; game++) {
+            int own = 0, opponent = 0;
+            while ((own | opponent) != Bitboard.FULL && !Bitboard.hasLine(own) && !Bitboard.hasLine(opponent)) {
+                int result = search.search(own, opponent);
+                assertEquals(plainMinimax(own, opponent), Integer.signum(Search.score(result)));
+                // The chosen move keeps the value of the position
+                int cell = Search.cell(result);
+                assertEquals(Search.score(result), -Search.score(search.search(opponent, own | (1 << cell))));
+
+                do {
+                    cell = random.nextInt(9);
+                } while (((own | opponent) & (1 << cell)) != 0);
+                int moved = own | (1 << cell);
+                own = opponent;
+                opponent = moved;
+            }
+        }
+    }
+
+    @Test
+    public void prefers_faster_wins_test() {
+        // X: 0, 1, 4  O: 3, 5  X to move wins at once with three cells left, or later with fewer
+        int own = 0b000010011;
+        int opponent = 0b000101000;
+        int result = new Search().search(own, opponent);
+        assertEquals(4, Search.score(result));
+        assertTrue(Bitboard.hasLine(own | (1 << Search.cell(result))));
+    }
+
+    @Test
+    public void alpha_beta_node_count_test() {
+        Search.clearTable();
+        Search search = new Search();
+        assertEquals(0, Search.score(search.search(0, 0)));
+        // Plain minimax visits 549,945 nodes below the empty board
+        assertTrue("nodes: " + search.nodes(), search.nodes() < 5000);
+    }
+
+    private static int plainMinimax(int own, int opponent) {
+        if (Bitboard.hasLine(opponent)) return -1;
+        if ((own | opponent) == Bitboard.FULL) return 0;
+        int best = -1;
+        for (int cell = 0; cell < 9; cell++) {
+            if (((own | opponent) & (1 << cell)) == 0) best = Math.max(best, -plainMinimax(opponent, own | (1 << cell)));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,59 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import utils.engine.Bitboard;
+import utils.engine.Mcts;
+import utils.engine.MoveTable;
+import utils.engine.Search;
+import utils.engine.Strategies;
+
+public class StrategiesTest {
+
+    @Test
+    public void strategies_take_wins_and_block_lines() {
+        // X on 0 and 1 wins on 2, O on 3 and 4 would win on 5
+        int x = 0b11, o = 0b11000;
+        for (Strategies strategy : Strategies.values()) {
+            assertEquals(strategy.name(), 2, strategy.move(x, o));
+        }
+        // O to move with X threatening 2 blocks it, but the weak bot does not care
+        assertEquals(2, Strategies.MINIMAX.move(0b10000, 0b11));
+        assertEquals(2, Strategies.TABLE.move(0b10000, 0b11));
+        assertEquals(2, Strategies.MCTS.move(0b10000, 0b11));
+        assertEquals(Strategies.WEAK, Strategies.named("weak"));
+    }
+
+    @Test
+    public void table_agrees_with_the_search() {
+        // Every position of a game between the table and the weak bot, for both sides
+        Search search = new Search();
+        for (int game = 0; game < 50; game++) {
+            int[] boards = new int[2];
+            for (int turn = 0; turn < 9; turn++) {
+                int mover = turn & 1;
+                int own = boards[mover], opponent = boards[mover ^ 1];
+                int cell = MoveTable.bestMove(own, opponent);
+                int best = Search.score(search.search(own, opponent));
+                int played = Search.score(search.search(opponent, own | 1 << cell));
+                assertEquals(best, -played);
+                boards[mover] |= 1 << ((game + mover) % 2 == 0 ? cell : Strategies.WEAK.move(own, opponent));
+                if (Bitboard.hasLine(boards[mover]) || (boards[0] | boards[1]) == Bitboard.FULL) break;
+            }
+        }
+        assertEquals(5478, MoveTable.legalPositions());
+    }
+
+    @Test
+    public void a_search_needs_at_least_one_iteration() {
+        // A single playout still chooses a free cell
+        int cell = new Mcts(1, 7).bestMove(0b11, 0b11000);
+        assertTrue(cell >= 0 && cell < 9 && ((0b11 | 0b11000) & 1 << cell) == 0);
+        try {
+            new Mcts(0, 7);
+            fail("A search without iterations has no move to choose");
+        } catch (IllegalArgumentException expected) {
+            // Refused before allocating the tree
+        }
+    }
+}
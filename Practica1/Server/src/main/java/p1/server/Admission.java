@@ -0,0 +1,185 @@
+package p1.server;
+
+import utils.ComUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Admission control of new clients.
+ * At most a fixed number of sessions are served at once, a client over the limit is handled by the
+ * overload policy. Admitted sessions keep their latency because the server never takes more work
+ * than it can serve, the extra clients wait in the accept backlog or are turned away.
+ */
+public final class Admission {
+    // Error code of the ERROR message sent to the rejected clients
+    public static final int BUSY = 3;
+    // Milliseconds a session has to be silent before it can be shed
+    private static final long SHED_IDLE = 5000;
+    // Milliseconds a rejected client has to close its side before the server closes anyway
+    private static final int REJECT_LINGER = 100;
+    // ERROR message sent to the rejected clients, encoded once
+    private static final byte[] BUSY_MESSAGE = encodeBusy();
+
+    /**
+     * What happens to a client when every slot is taken
+     */
+    public enum Policy {
+        // Sends an ERROR message and closes the connection
+        REJECT,
+        // Stops accepting until a session ends, the next clients wait in the accept backlog
+        DELAY,
+        // Closes the session silent for the longest time, or rejects if every session is active
+        SHED
+    }
+
+    /**
+     * A session that holds a slot and can be closed to free it
+     */
+    public interface Session {
+        /**
+         * Time of the last message of the client
+         * @return Milliseconds since the epoch
+         */
+        long lastActivity();
+
+        /**
+         * Closes the session without waiting for it to end, its slot already belongs to the new client
+         */
+        void shed();
+    }
+
+    private final int limit;
+    private final Policy policy;
+    // Null when the sessions are not limited
+    private final Semaphore slots;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor
+     * @param limit Sessions served at once, 0 for no limit
+     * @param policy What to do with the clients over the limit
+     */
+    public Admission(int limit, Policy policy) {
+        this.limit = limit;
+        this.policy = policy;
+        this.slots = limit > 0 ? new Semaphore(limit) : null;
+        if (limit > 0) Metrics.gauge("sessions_free", slots::availablePermits);
+    }
+
+    /**
+     * Takes a slot for a new client, applying the overload policy if there is none
+     * @return True if the client is admitted, false if it has to be rejected
+     * @throws InterruptedException If interrupted while waiting for a slot
+     */
+    public boolean acquire() throws InterruptedException {
+        if (slots == null || slots.tryAcquire()) return true;
+        switch (policy) {
+            case DELAY:
+                slots.acquire();
+                return true;
+            case SHED:
+                // The slot of the shed session is handed to the new client, so the accepting
+                // thread never waits for the session to end: for a moment both are open
+                Session idlest;
+                while ((idlest = idlest(System.currentTimeMillis() - SHED_IDLE)) != null) {
+                    if (sessions.remove(idlest)) {
+                        idlest.shed();
+                        Metrics.sessionShed();
+                        return true;
+                    }
+                    // The session ended on its own and released its slot
+                    if (slots.tryAcquire()) return true;
+                }
+                break;
+            default:
+                break;
+        }
+        Metrics.sessionRejected();
+        return false;
+    }
+
+    /**
+     * Lets the session be shed while it holds its slot
+     * @param session Admitted session
+     */
+    public void track(Session session) {
+        if (slots != null) sessions.add(session);
+    }
+
+    /**
+     * Frees the slot of an ended session, unless it was shed and its slot already taken
+     * @param session Session that held the slot, null if it never started
+     */
+    public void release(Session session) {
+        if (slots == null) return;
+        if (session != null && !sessions.remove(session)) return;
+        slots.release();
+    }
+
+    /**
+     * Tells the client that the server is busy and closes the connection.
+     * What the client sends is discarded until it closes its side or REJECT_LINGER runs out:
+     * closing a socket with unread data resets the connection, and the client could lose the
+     * message, even if its bytes arrive after the message was written
+     * @param socket Blocking socket of the client
+     */
+    public static void reject(Socket socket) {
+        try (socket) {
+            socket.getOutputStream().write(BUSY_MESSAGE);
+            socket.shutdownOutput();
+            socket.setSoTimeout(REJECT_LINGER);
+            InputStream in = socket.getInputStream();
+            byte[] discarded = new byte[256];
+            long deadline = System.currentTimeMillis() + REJECT_LINGER;
+            while (System.currentTimeMillis() < deadline && in.read(discarded) != -1) {
+                // Discards what the client sent
+            }
+            Log.info("Client rejected, server busy");
+        } catch (SocketTimeoutException e) {
+            Log.info("Client rejected, server busy");
+        } catch (IOException e) {
+            Log.error(0, "Error rejecting client:", e.getMessage());
+        }
+    }
+
+    private static byte[] encodeBusy() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ComUtils comutils = new ComUtils(null, bytes);
+            comutils.getDataOutputStream().writeByte(8);
+            comutils.write_int32(0);
+            comutils.getDataOutputStream().writeByte(BUSY);
+            comutils.write_string("Server busy, try again later");
+            comutils.getDataOutputStream().writeByte(0);
+            comutils.getDataOutputStream().writeByte(0);
+            comutils.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    private Session idlest(long before) {
+        Session idlest = null;
+        for (Session session : sessions) {
+            long last = session.lastActivity();
+            if (last <= before && (idlest == null || last < idlest.lastActivity())) idlest = session;
+        }
+        return idlest;
+    }
+}
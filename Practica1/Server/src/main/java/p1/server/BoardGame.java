@@ -0,0 +1,156 @@
+package p1.server;
+
+import utils.engine.Grid;
+
+import java.util.Arrays;
+
+/**
+ * One game between a client and the server, on any board.
+ * Keeps the turn, the result and the history of the moves, the board itself and the choice
+ * of the server moves belong to the subclasses: GameLogic for the classic board and GridLogic
+ * for the N x N variants.
+ */
+public abstract class BoardGame {
+    /* 1:Client, 2:Server */
+    private int turn = 1;
+    private int winner;
+    private boolean gameEnded;
+    // Cells played in order, the client moves first, kept for the game journal
+    private byte[] moves = new byte[9];
+    private int moveCount;
+    // Time of the first move, in milliseconds since the epoch
+    private long startedAt;
+
+    /**
+     * Client move in the text format, "row-col"
+     * @param move Position to mark
+     * @return -1 if the move is played, 0 if the format is wrong, 1 if the cell is taken
+     */
+    public int clientMove(String move) {
+        return clientMove(Grid.parseMove(move, getSize()));
+    }
+
+    /**
+     * Client move by cell index, as sent in the compact format
+     * @param cell Index of the cell, row * size + col, any other value is refused
+     * @return -1 if the move is played, 0 if the cell does not exist, 1 if the cell is taken
+     */
+    public abstract int clientMove(int cell);
+
+    /**
+     * Chooses and plays the server move
+     * @return Index of the cell marked by the server
+     */
+    public abstract int serverMoveCell();
+
+    /**
+     * Server move in the text format
+     * @return Position marked by the server
+     */
+    public String serverMove() {
+        return Grid.formatMove(serverMoveCell(), getSize());
+    }
+
+    /**
+     * Board size of this game
+     * @return Number of rows and columns
+     */
+    public abstract int getSize();
+
+    /**
+     * Marks in a row needed to win this game
+     * @return Marks in a row
+     */
+    public abstract int getK();
+
+    /**
+     * Checks if a move has been played in this game
+     * @return True once the client has made its first move
+     */
+    public abstract boolean hasStarted();
+
+    /**
+     * Logs the board at DEBUG level
+     */
+    public abstract void printBoard();
+
+    /**
+     * Engine of the server moves, written to the game journal
+     * @return The value of CONFIG option 6 for the engine, 1 minimax, 2 table, 3 mcts, 4 weak,
+     *         or 0 for any other way of choosing the moves
+     */
+    public abstract int getEngine();
+
+    /**
+     * Adds a move to the history of the game
+     * @param cell Index of the cell marked
+     */
+    protected void recordMove(int cell) {
+        if (moveCount == 0) startedAt = System.currentTimeMillis();
+        if (moveCount == moves.length) moves = Arrays.copyOf(moves, moveCount * 2);
+        moves[moveCount++] = (byte) cell;
+    }
+
+    /**
+     * Moves played in this game, by the client and the server in turns
+     * @return Number of moves
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Move of the history of the game
+     * @param index Number of the move, from 0
+     * @return Index of the cell marked
+     */
+    public int getMove(int index) {
+        return moves[index] & 0xFF;
+    }
+
+    /**
+     * Time of the first move
+     * @return Milliseconds since the epoch, 0 if no move has been played
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Ends the game
+     * @param winner 0 for a draw, 1 if the client won, 2 if the server won
+     */
+    protected void endGame(int winner) {
+        this.gameEnded = true;
+        this.winner = winner;
+    }
+
+    /**
+     * Passes the turn
+     * @param turn 1 for the client, 2 for the server
+     */
+    protected void setTurn(int turn) {
+        this.turn = turn;
+    }
+
+    public boolean isGameEnded() {
+        return this.gameEnded;
+    }
+
+    public String getWinner() {
+        switch (winner) {
+            case 0:
+                return "Draw";
+            case 1:
+                return "Client";
+            case 2:
+                return "Server";
+            default:
+                return "No winner";
+        }
+    }
+
+    public void setGameEnded(boolean gameEnded) {
+        this.gameEnded = gameEnded;
+    }
+}
@@ -0,0 +1,110 @@
+package p1.server;
+
+import utils.engine.Grid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message encoded once and shared by every spectator of a session.
+ * The bytes are never modified after the frame is built, so the blocking connections write the
+ * same array and the NIO connections write read-only views of it, without a copy per spectator.
+ * Positions are always row-col strings, spectators do not negotiate the compact mode.
+ */
+public final class Frame {
+    // Opcodes sent to the spectators
+    private static final byte ADMIT = (byte) 4;
+    private static final byte ACTION = (byte) 5;
+    private static final byte RESULT = (byte) 6;
+    private static final byte CONFIG = (byte) 7;
+
+    private final byte[] bytes;
+    private final ByteBuffer view;
+
+    private Frame(byte[] bytes) {
+        this.bytes = bytes;
+        this.view = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Empty frame, used to mark the end of a queue
+     * @return Frame without bytes
+     */
+    static Frame empty() {
+        return new Frame(new byte[0]);
+    }
+
+    /**
+     * ADMIT message of a game that starts
+     * @param id Session id
+     * @param flag Flag of the ADMIT sent to the player
+     * @return Frame
+     */
+    public static Frame admit(int id, int flag) {
+        return new Frame(ByteBuffer.allocate(6).put(ADMIT).putInt(id).put((byte) flag).array());
+    }
+
+    /**
+     * CONFIG message with an option of the game
+     * @param id Session id
+     * @param option Option
+     * @param value Value of the option
+     * @return Frame
+     */
+    public static Frame config(int id, int option, int value) {
+        return new Frame(ByteBuffer.allocate(10).put(CONFIG).putInt(id).put((byte) option).putInt(value).array());
+    }
+
+    /**
+     * ACTION message with a move of the game
+     * @param id Session id
+     * @param cell Cell of the move
+     * @param size Board size
+     * @return Frame
+     */
+    public static Frame action(int id, int cell, int size) {
+        byte[] move = position(cell, size);
+        return new Frame(ByteBuffer.allocate(5 + move.length).put(ACTION).putInt(id).put(move).array());
+    }
+
+    /**
+     * RESULT message that ends the game
+     * @param id Session id
+     * @param cell Last move, or -1 if there is none to show
+     * @param flag Flag of the RESULT sent to the player
+     * @param size Board size
+     * @return Frame
+     */
+    public static Frame result(int id, int cell, int flag, int size) {
+        byte[] move = position(cell, size);
+        return new Frame(ByteBuffer.allocate(6 + move.length).put(RESULT).putInt(id).put(move).put((byte) flag).array());
+    }
+
+    private static byte[] position(int cell, int size) {
+        String move = cell < 0 ? (Grid.moveWidth(size) == 3 ? "---" : "-----") : Grid.formatMove(cell, size);
+        return move.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Writes the frame to a stream
+     * @param out Stream of a spectator
+     * @throws IOException If an I/O error occurs
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    /**
+     * Read-only view of the frame, with its own position
+     * @return Buffer ready to be written to a channel
+     */
+    public ByteBuffer buffer() {
+        return view.duplicate();
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+}
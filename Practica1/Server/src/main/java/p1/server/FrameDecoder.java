@@ -0,0 +1,73 @@
+package p1.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the boundaries of the client messages in a buffer, so that a message is only
+ * handed to the protocol once all of its bytes have arrived.
+ */
+final class FrameDecoder {
+    // Opcodes sent by the client
+    private static final byte HELLO = (byte) 1;
+    private static final byte PLAY = (byte) 3;
+    private static final byte ACTION = (byte) 5;
+    private static final byte CONFIG = (byte) 7;
+    private static final byte ERROR = (byte) 8;
+    private static final byte WATCH = (byte) 9;
+
+    private FrameDecoder() {
+    }
+
+    /**
+     * Length of the message at the position of the buffer, the buffer is not modified
+     * @param buffer Buffer ready to be read
+     * @param moveWidth Bytes of a position in an ACTION message
+     * @return Length of the message including its opcode, or -1 if it is not complete yet
+     */
+    static int frameLength(ByteBuffer buffer, int moveWidth) {
+        int start = buffer.position();
+        int available = buffer.remaining();
+        if (available < 1) return -1;
+        int length;
+        switch (buffer.get(start)) {
+            case HELLO:
+                // idSessio, nomJugador, 00
+                return stringEnd(buffer, start + 5);
+            case ERROR:
+                // idSessio, errCodi, errMsg, 00
+                return stringEnd(buffer, start + 6);
+            case PLAY:
+            case WATCH:
+                length = 5;
+                break;
+            case ACTION:
+                length = 5 + moveWidth;
+                break;
+            case CONFIG:
+                length = 10;
+                break;
+            default:
+                // Unknown opcodes are skipped one byte at a time
+                length = 1;
+                break;
+        }
+        return available >= length ? length : -1;
+    }
+
+    /**
+     * End of a variable string, read the same way as ComUtils.findString: it stops at the
+     * first zero byte that follows another zero byte, and the string starts after a zero
+     * @param buffer Buffer ready to be read
+     * @param from Index where the string starts
+     * @return Length of the message up to the end of the string, or -1 if it is not complete yet
+     */
+    private static int stringEnd(ByteBuffer buffer, int from) {
+        byte previous = 0;
+        for (int i = from; i < buffer.limit(); i++) {
+            byte current = buffer.get(i);
+            if (current == 0 && previous == 0) return i + 1 - buffer.position();
+            previous = current;
+        }
+        return -1;
+    }
+}
@@ -4,7 +4,7 @@ import utils.ComUtils;
 import java.io.IOException;
 import java.net.Socket;
 
-public class GameHandler implements Runnable{
+public class GameHandler implements Runnable, Admission.Session {
 
     /*
     TO DO
@@ -14,6 +14,11 @@ public class GameHandler implements Runnable{
     ComUtils comutils;
     private GameProtocol protocol;
     private final Socket socket;
+    private final ServerConfig config;
+    // Slot of the session, released when it ends
+    private final Admission admission;
+    // Services of the server shared by its sessions
+    private final ServerContext context;
 
     /**
      * Constructor
@@ -21,8 +26,34 @@ public class GameHandler implements Runnable{
      * @throws IOException If an I/O error occurs
      */
     public GameHandler(Socket socket) throws IOException {
+        this(socket, new ServerConfig(socket.getLocalPort()));
+    }
+
+    /**
+     * Constructor
+     * @param socket Socket to be used
+     * @param config Settings of the server
+     * @throws IOException If an I/O error occurs
+     */
+    public GameHandler(Socket socket, ServerConfig config) throws IOException {
+        this(socket, config, new Admission(0, Admission.Policy.REJECT), new ServerContext(config.getEngine()));
+    }
+
+    /**
+     * Constructor
+     * @param socket Socket to be used
+     * @param config Settings of the server
+     * @param admission Admission control that gave the session its slot
+     * @param context Services of the server shared by its sessions
+     * @throws IOException If an I/O error occurs
+     */
+    public GameHandler(Socket socket, ServerConfig config, Admission admission, ServerContext context) throws IOException {
         this.socket = socket;
-        this.comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream());
+        this.config = config;
+        this.admission = admission;
+        this.context = context;
+        socket.setTcpNoDelay(config.isTcpNoDelay());
+        this.comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), config.isBufferedWrites());
     }
 
     /**
@@ -30,11 +61,34 @@ public class GameHandler implements Runnable{
      * Starts the protocol
      */
     public void run() {
-        protocol = new GameProtocol(socket, comutils);
+        protocol = new GameProtocol(socket, comutils, context);
+        Metrics.sessionOpened();
+        admission.track(this);
         try {
             init();
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            protocol.detach();
+            Metrics.sessionClosed();
+            admission.release(this);
+        }
+    }
+
+    @Override
+    public long lastActivity() {
+        return protocol.getLastActivity();
+    }
+
+    /**
+     * Closes the socket, the blocked read fails and the session ends
+     */
+    @Override
+    public void shed() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.error(0, "Error closing connection:", e.getMessage());
         }
     }
 
@@ -49,7 +103,7 @@ public class GameHandler implements Runnable{
             play();
         } catch (Exception e) {
             socket.close();
-            System.out.println("Client disconnected");
+            Log.info("Client disconnected");
         }
     }
 
@@ -64,7 +118,7 @@ public class GameHandler implements Runnable{
                 protocol.receiveMessages();
             } catch (IOException e) {
                 socket.close();
-                System.out.println("Client disconnected");
+                Log.info("Client disconnected");
                 break;
             }
         }
@@ -0,0 +1,557 @@
+package p1.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of the finished games.
+ * Records go to segment files of a fixed size mapped in memory. A game thread claims the bytes of
+ * its record with a single atomic add and copies the record into the mapping, so threads never wait
+ * for each other nor for the disk. A background thread forces the mappings to disk every interval,
+ * maps the next segment ahead of time and closes the full ones. Game threads never create a segment:
+ * a record that finds the segment full before the next one is mapped is dropped and counted.
+ * <p>
+ * Record, big-endian like the protocol: int length of the rest of the record, int MAGIC, long start and end
+ * in milliseconds since the epoch, int session id, byte outcome (the RESULT flag), byte board size,
+ * byte marks in a row, byte engine of the server (BoardGame.getEngine, or PVP_FIRST and PVP_SECOND for
+ * the games against another client), byte name length and the name in ISO-8859-1, byte number of moves
+ * and one cell index per move, in the order they were played. The length is written last: a record
+ * with a length of 0 was claimed but never completed, by a thread that died or a server that crashed.
+ * Threads complete their records out of order, so a reader looks for the next record by its MAGIC,
+ * and the records after a torn one are not lost. Only zeros are left at the end of a segment.
+ */
+public final class GameJournal implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_FORCE_INTERVAL = 1000;
+    // Engine byte of the games against another client, by who moved first
+    public static final int PVP_FIRST = 5;
+    public static final int PVP_SECOND = 6;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".seg";
+    // Start of every record after its length, to find the records that follow a torn one
+    private static final int MAGIC = 0x4A524E4C;
+    // Bytes of a record without the name and the moves
+    private static final int FIXED = 4 + 4 + 8 + 8 + 4 + 1 + 1 + 1 + 1 + 1 + 1;
+    private static final int MAX_NAME = 255;
+    private static final int MAX_RECORD = FIXED + MAX_NAME + 255;
+
+    /**
+     * Segment file mapped in memory
+     */
+    private static final class Segment {
+        private final long index;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // Next free byte, past the capacity once the segment is full
+        private final AtomicInteger position = new AtomicInteger();
+        // Threads copying a record, the segment is closed once they are done
+        private final AtomicInteger writers = new AtomicInteger();
+
+        private Segment(long index, Path path, int size) throws IOException {
+            this.index = index;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Finished game read back from a segment
+     */
+    public static final class Record {
+        private final int sessionId;
+        private final String name;
+        private final int outcome;
+        private final int size;
+        private final int k;
+        private final int engine;
+        private final long startedAt;
+        private final long endedAt;
+        private final byte[] moves;
+
+        Record(int sessionId, String name, int outcome, int size, int k, int engine, long startedAt, long endedAt, byte[] moves) {
+            this.sessionId = sessionId;
+            this.name = name;
+            this.outcome = outcome;
+            this.size = size;
+            this.k = k;
+            this.engine = engine;
+            this.startedAt = startedAt;
+            this.endedAt = endedAt;
+            this.moves = moves;
+        }
+
+        public int getSessionId() {
+            return sessionId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Outcome of the game
+         * @return 0 if the server won, 1 if the client won, 2 for a draw
+         */
+        public int getOutcome() {
+            return outcome;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getK() {
+            return k;
+        }
+
+        /**
+         * Engine of the server in this game
+         * @return Value of CONFIG option 6, 0 for the grid search, PVP_FIRST or PVP_SECOND against another client
+         */
+        public int getEngine() {
+            return engine;
+        }
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        public long getEndedAt() {
+            return endedAt;
+        }
+
+        public int getMoveCount() {
+            return moves.length;
+        }
+
+        /**
+         * Move of the game
+         * @param index Number of the move, even for the client and odd for the server
+         * @return Index of the cell marked
+         */
+        public int getMove(int index) {
+            return moves[index] & 0xFF;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private volatile Segment current;
+    // Next segment, mapped by the background thread before it is needed
+    private Segment spare;
+    // True while a task to map the spare is queued on the background thread
+    private final AtomicBoolean preparing = new AtomicBoolean();
+    // Full segments still to be forced and closed
+    private final Queue<Segment> retired = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService forcer;
+    private final LongAdder records = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Constructor
+     * Opens a new segment after the ones already in the directory
+     * @param directory Directory of the segments, created if needed
+     * @param segmentSize Bytes of each segment file
+     * @param forceInterval Milliseconds between two forces to disk, 0 to force only full segments
+     * @throws IOException If the directory or the first segment cannot be created
+     */
+    public GameJournal(Path directory, int segmentSize, long forceInterval) throws IOException {
+        if (segmentSize < MAX_RECORD + 4) throw new IllegalArgumentException("Segments should have at least " + (MAX_RECORD + 4) + " bytes");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        List<Path> existing = segments(directory);
+        long last = existing.isEmpty() ? -1 : index(existing.get(existing.size() - 1));
+        current = open(last + 1);
+        forcer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = forceInterval > 0 ? forceInterval : DEFAULT_FORCE_INTERVAL;
+        preparing.set(true);
+        forcer.execute(this::prepare);
+        forcer.scheduleWithFixedDelay(() -> maintain(forceInterval > 0), interval, interval, TimeUnit.MILLISECONDS);
+        Log.info("Game journal in " + directory.toAbsolutePath() + ", segment " + current.path.getFileName());
+    }
+
+    /**
+     * Appends a finished game against the server, without waiting for the disk
+     * @param sessionId Session that played the game
+     * @param name Name of the player
+     * @param game Finished game
+     * @param outcome RESULT flag: 0 if the server won, 1 if the client won, 2 for a draw
+     */
+    public void append(int sessionId, String name, BoardGame game, int outcome) {
+        append(sessionId, name, outcome, game.getSize(), game.getK(), game.getEngine(), game.getStartedAt(),
+                game.getMoveCount(), game::getMove);
+    }
+
+    /**
+     * Appends a finished match as seen by one of its players, without waiting for the disk
+     * @param sessionId Session of the player
+     * @param name Name of the player
+     * @param match Finished match
+     * @param player Protocol of the player
+     * @param outcome RESULT flag sent to the player: 0 if the opponent won, 1 if the player won, 2 for a draw
+     */
+    void append(int sessionId, String name, Match match, GameProtocol player, int outcome) {
+        append(sessionId, name, outcome, match.getSize(), match.getK(), match.movedFirst(player) ? PVP_FIRST : PVP_SECOND,
+                match.getStartedAt(), match.getMoveCount(), match::getMove);
+    }
+
+    private void append(int sessionId, String name, int outcome, int size, int k, int engine, long startedAt,
+                        int moveCount, IntUnaryOperator moves) {
+        int nameLength = Math.min(name == null ? 0 : name.length(), MAX_NAME);
+        int length = FIXED + nameLength + moveCount;
+        long endedAt = System.currentTimeMillis();
+        while (true) {
+            Segment segment = current;
+            segment.writers.incrementAndGet();
+            try {
+                int start = segment.position.getAndAdd(length);
+                if (start + length <= segmentSize) {
+                    MappedByteBuffer buffer = segment.buffer;
+                    buffer.putInt(start + 4, MAGIC);
+                    int at = start + 8;
+                    buffer.putLong(at, startedAt == 0 ? endedAt : startedAt);
+                    buffer.putLong(at + 8, endedAt);
+                    buffer.putInt(at + 16, sessionId);
+                    buffer.put(at + 20, (byte) outcome);
+                    buffer.put(at + 21, (byte) size);
+                    buffer.put(at + 22, (byte) k);
+                    buffer.put(at + 23, (byte) engine);
+                    buffer.put(at + 24, (byte) nameLength);
+                    at += 25;
+                    for (int i = 0; i < nameLength; i++) buffer.put(at++, (byte) name.charAt(i));
+                    buffer.put(at++, (byte) moveCount);
+                    for (int i = 0; i < moveCount; i++) buffer.put(at++, (byte) moves.applyAsInt(i));
+                    // The record is complete once it has its length
+                    buffer.putInt(start, length - 4);
+                    records.increment();
+                    return;
+                }
+            } finally {
+                segment.writers.decrementAndGet();
+            }
+            if (!roll(segment)) {
+                // The next segment is not mapped yet, the game thread does not wait for it
+                dropped.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves to the spare segment, only the first thread that finds the segment full does it.
+     * The background thread is asked to map the next spare right away.
+     * @param full Segment that had no room for a record
+     * @return False if there is no spare segment yet
+     */
+    private synchronized boolean roll(Segment full) {
+        if (current != full) return true;
+        Segment next = spare;
+        if (next != null) {
+            spare = null;
+            current = next;
+            retired.add(full);
+        }
+        if (preparing.compareAndSet(false, true)) {
+            try {
+                forcer.execute(this::prepare);
+            } catch (RejectedExecutionException e) {
+                // Closing
+                preparing.set(false);
+            }
+        }
+        return next != null;
+    }
+
+    /**
+     * Work of the background thread: forces the current segment, closes the full ones and maps the next
+     * @param force True to force the current segment to disk
+     */
+    private void maintain(boolean force) {
+        try {
+            if (force) current.buffer.force();
+            for (Segment segment = retired.peek(); segment != null && segment.writers.get() == 0; segment = retired.peek()) {
+                segment.buffer.force();
+                segment.channel.close();
+                retired.remove();
+            }
+        } catch (IOException e) {
+            Log.error(0, "Error in journal:", e.getMessage());
+        }
+        prepare();
+    }
+
+    /**
+     * Maps the spare segment if it is missing, on the background thread only.
+     * The file is created outside the lock so a roll never waits for it.
+     */
+    private void prepare() {
+        preparing.set(false);
+        long index;
+        synchronized (this) {
+            if (spare != null) return;
+            // Without a spare the current segment cannot change
+            index = current.index + 1;
+        }
+        try {
+            Segment next = open(index);
+            synchronized (this) {
+                spare = next;
+            }
+        } catch (IOException e) {
+            Log.error(0, "Error in journal:", e.getMessage());
+        }
+    }
+
+    private Segment open(long index) throws IOException {
+        return new Segment(index, directory.resolve(String.format("%s%012d%s", PREFIX, index, SUFFIX)), segmentSize);
+    }
+
+    /**
+     * Stops the background thread and forces every segment to disk
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        // Outside the lock, the background thread takes it to install the spare
+        forcer.shutdown();
+        try {
+            forcer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeSegments();
+        }
+    }
+
+    private void closeSegments() throws IOException {
+        for (Segment segment : retired) {
+            segment.buffer.force();
+            segment.channel.close();
+        }
+        retired.clear();
+        current.buffer.force();
+        current.channel.close();
+        if (spare != null) {
+            spare.channel.close();
+            Files.deleteIfExists(spare.path);
+            spare = null;
+        }
+    }
+
+    /**
+     * Games appended since the journal was opened
+     * @return Number of records
+     */
+    public long records() {
+        return records.sum();
+    }
+
+    /**
+     * Games lost because the next segment was not mapped yet or could not be created
+     * @return Number of records
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Segment files of a directory, oldest first
+     * @param directory Directory of the journal
+     * @return Paths of the segments
+     * @throws IOException If the directory cannot be listed
+     */
+    public static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(GameJournal::isSegment).sorted().forEach(segments::add);
+        }
+        return segments;
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    private static long index(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Reads the records of a segment in the order they were appended
+     * @param segment Segment file
+     * @param consumer Receives each record
+     * @throws IOException If the segment cannot be read
+     */
+    public static void read(Path segment, Consumer<Record> consumer) throws IOException {
+        try (Cursor cursor = new Cursor(segment)) {
+            while (cursor.next()) {
+                byte[] moves = new byte[cursor.getMoveCount()];
+                for (int i = 0; i < moves.length; i++) moves[i] = (byte) cursor.getMove(i);
+                consumer.accept(new Record(cursor.getSessionId(), cursor.getName(), cursor.getOutcome(), cursor.getSize(),
+                        cursor.getK(), cursor.getEngine(), cursor.getStartedAt(), cursor.getEndedAt(), moves));
+            }
+        }
+    }
+
+    /**
+     * Streams the records of a segment without copying them.
+     * The segment is mapped read-only and the getters read the fields of the current record
+     * straight from the mapping, so scanning a segment allocates nothing per record.
+     */
+    public static final class Cursor implements Closeable {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // First byte after the length and the magic of the current record, -1 before the first call to next()
+        private int record = -1;
+        private int next;
+        // Torn records skipped so far
+        private int torn;
+
+        /**
+         * Constructor
+         * @param segment Segment file
+         * @throws IOException If the segment cannot be mapped
+         */
+        public Cursor(Path segment) throws IOException {
+            channel = FileChannel.open(segment, StandardOpenOption.READ);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        /**
+         * Moves to the next record, past the torn ones
+         * @return False at the end of the segment
+         */
+        public boolean next() {
+            int at = next;
+            if (!isRecord(at)) {
+                // A record claimed but never completed, the next complete one starts with the magic
+                do {
+                    at++;
+                } while (at + FIXED <= buffer.limit() && !isRecord(at));
+                if (at + FIXED > buffer.limit()) return false;
+                torn++;
+            }
+            record = at + 8;
+            next = at + 4 + buffer.getInt(at);
+            return true;
+        }
+
+        /**
+         * Checks for a complete record: the magic, and a length that fits the segment and matches
+         * the lengths of the name and the moves
+         * @param at Offset of the length of the record
+         * @return True if a complete record starts there
+         */
+        private boolean isRecord(int at) {
+            int limit = buffer.limit();
+            if (at + FIXED > limit || buffer.getInt(at + 4) != MAGIC) return false;
+            int length = buffer.getInt(at);
+            if (length < FIXED - 4 || at + 4 + length > limit) return false;
+            int nameLength = buffer.get(at + 32) & 0xFF;
+            if (FIXED + nameLength > length + 4) return false;
+            return FIXED + nameLength + (buffer.get(at + 33 + nameLength) & 0xFF) == length + 4;
+        }
+
+        /**
+         * Torn records skipped, claimed but never completed
+         * @return Number of records skipped so far
+         */
+        public int getTorn() {
+            return torn;
+        }
+
+        public long getStartedAt() {
+            return buffer.getLong(record);
+        }
+
+        public long getEndedAt() {
+            return buffer.getLong(record + 8);
+        }
+
+        public int getSessionId() {
+            return buffer.getInt(record + 16);
+        }
+
+        /**
+         * Outcome of the game
+         * @return 0 if the server won, 1 if the client won, 2 for a draw
+         */
+        public int getOutcome() {
+            return buffer.get(record + 20);
+        }
+
+        public int getSize() {
+            return buffer.get(record + 21) & 0xFF;
+        }
+
+        public int getK() {
+            return buffer.get(record + 22) & 0xFF;
+        }
+
+        /**
+         * Engine of the server in the current record
+         * @return Value of CONFIG option 6, 0 for the grid search, PVP_FIRST or PVP_SECOND against another client
+         */
+        public int getEngine() {
+            return buffer.get(record + 23) & 0xFF;
+        }
+
+        public String getName() {
+            char[] name = new char[nameLength()];
+            for (int i = 0; i < name.length; i++) name[i] = (char) (buffer.get(record + 25 + i) & 0xFF);
+            return new String(name);
+        }
+
+        public int getMoveCount() {
+            return buffer.get(record + 25 + nameLength()) & 0xFF;
+        }
+
+        /**
+         * Move of the current record
+         * @param index Number of the move, even for the client and odd for the server
+         * @return Index of the cell marked
+         */
+        public int getMove(int index) {
+            return buffer.get(record + 26 + nameLength() + index) & 0xFF;
+        }
+
+        private int nameLength() {
+            return buffer.get(record + 24) & 0xFF;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
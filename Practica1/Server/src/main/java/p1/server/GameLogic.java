@@ -1,171 +1,164 @@
 package p1.server;
 
-public class GameLogic {
-    private final int[][] board;
-    /* 1:Client, 2:Server */
-    private int turn;
-    private int winner;
-    private boolean gameEnded;
+import utils.engine.Bitboard;
+import utils.engine.Search;
+import utils.engine.Strategies;
+import utils.engine.Strategy;
+
+/**
+ * Game on the classic 3x3 board, one bitboard per player.
+ * The server moves come from a Strategy, and the position can be searched with minimax.
+ */
+public class GameLogic extends BoardGame {
+    /**
+     * Algorithm used by the server to choose its moves, the value of CONFIG option 6 is its ordinal plus one
+     */
+    public enum Engine {
+        // Full minimax search on every server turn
+        MINIMAX(Strategies.MINIMAX),
+        // Single lookup in the precomputed perfect-play table
+        TABLE(Strategies.TABLE),
+        // Monte Carlo tree search, strong but not perfect
+        MCTS(Strategies.MCTS),
+        // Takes its own wins but never blocks, for beginners
+        WEAK(Strategies.WEAK);
+
+        private final Strategy strategy;
+
+        Engine(Strategy strategy) {
+            this.strategy = strategy;
+        }
 
-    public GameLogic() {
-        this.board = new int[3][3];
-        this.turn = 1;
-        this.gameEnded = false;
+        public Strategy strategy() {
+            return strategy;
+        }
+    }
+
+    // Bit of each cell by index, 0 for the bytes that are not a cell, so a move is validated with one lookup
+    private static final int[] CELL_BIT = new int[256];
+    // Bitboards, one per player, cell index of a position is row * 3 + col
+    private int clientBoard;
+    private int serverBoard;
+    private final Strategy strategy;
+    // Engine of the strategy, null for the strategies given directly
+    private final Engine engine;
+    private final Search search = new Search();
+
+    static {
+        for (int cell = 0; cell < 9; cell++) CELL_BIT[cell] = 1 << cell;
     }
 
-    private int validateMove(String move) {
-        if (move.length()!= 3) return 0; // Invalid format
-        if (move.charAt(1) != '-') return 0;
-        String[] parts = move.split("-");
+    public GameLogic() {
+        this(Engine.MINIMAX);
+    }
 
-        if (parts.length != 2) return 0;
+    public GameLogic(Engine engine) {
+        this.strategy = engine.strategy();
+        this.engine = engine;
+    }
 
-        int row = Integer.parseInt(parts[0]);
-        int col = Integer.parseInt(parts[1]);
-        if (row < 0 || row > 2 || col < 0 || col > 2) return 0;
-        if (board[row][col] != 0) return 1; // Invalid move
-        return -1; // Success
+    /**
+     * Constructor
+     * @param strategy Strategy of the server moves
+     */
+    public GameLogic(Strategy strategy) {
+        this.strategy = strategy;
+        this.engine = null;
     }
 
-    public int clientMove(String move) {
-        int validMove = validateMove(move);
-        if (validMove != -1) return validMove;
-        String[] parts = move.split("-");
-        int row = Integer.parseInt(parts[0]);
-        int col = Integer.parseInt(parts[1]);
-        board[row][col] = 1;
+    @Override
+    public int clientMove(int cell) {
+        int bit = CELL_BIT[cell & 0xFF];
+        if (bit == 0 || cell != (cell & 0xFF)) return 0; // Invalid format
+        if (((clientBoard | serverBoard) & bit) != 0) return 1; // Invalid move
+        clientBoard |= bit;
+        recordMove(cell);
 
-        System.out.println("Client Moved");
+        Log.debug("Client Moved");
         printBoard();
         if (clientWon()) {
-            gameEnded = true;
-            winner = 1;
+            endGame(1);
         } else if (gameDraw()) {
-            gameEnded = true;
-            winner = 0;
+            endGame(0);
         } else {
-            turn = 2;
-        }
-        return validMove;
-    }
-
-    public int[] minimax(boolean isMaximizing) {
-        if (clientWon()) return new int[]{-1, 0, 0};
-        if (serverWon()) return new int[]{1, 0, 0};
-        if (gameDraw()) return new int[]{0, 0, 0};
-
-        if (isMaximizing) {
-            int[] bestScore = {Integer.MIN_VALUE, 0, 0};
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    if (board[i][j] == 0) {
-                        board[i][j] = 2;
-                        int[] score = minimax(false);
-                        board[i][j] = 0;
-                        if (score[0] > bestScore[0]) bestScore = new int[]{score[0], i, j};
-                    }
-                }
-            }
-            return bestScore;
-        } else {
-            int[] bestScore = {Integer.MAX_VALUE, 0, 0};
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    if (board[i][j] == 0) {
-                        board[i][j] = 1;
-                        int[] score = minimax(true);
-                        board[i][j] = 0;
-                        if (score[0] < bestScore[0]) bestScore = new int[]{score[0], i, j};
-                    }
-                }
-            }
-            return bestScore;
+            setTurn(2);
         }
+        return -1;
+    }
+
+    /**
+     * Alpha-beta minimax with the shared transposition table, only the classic board has an exact search
+     * @param isMaximizing True if the server is to move, false if the client is
+     * @return Score for the server and best cell packed in an int, see Search.score and Search.cell
+     */
+    public int minimax(boolean isMaximizing) {
+        int result = isMaximizing ? search.search(serverBoard, clientBoard) : search.search(clientBoard, serverBoard);
+        return isMaximizing ? result : Search.pack(-Search.score(result), Search.cell(result));
     }
 
+    /**
+     * Logs the board at DEBUG level, it is drawn by the log writer thread
+     */
+    @Override
     public void printBoard() {
-        for (int i = 0; i < 3; i++) {
-            if (i > 0) System.out.println("-------------");
-            System.out.print("| ");
-            for (int j = 0; j < 3; j++) {
-                if (board[i][j] == 0) {
-                    System.out.print("  | ");
-                } else if (board[i][j] == 1) {
-                    System.out.print("X | ");
-                } else {
-                    System.out.print("O | ");
-                }
-            }
-            System.out.println();
-        }
-        System.out.println("\n\n");
+        Log.board(clientBoard, serverBoard);
     }
 
-    public String serverMove() {
-        int[] bestMove = minimax(true);
-        board[bestMove[1]][bestMove[2]] = 2;
-        System.out.println("Server Moved");
-        printBoard();
-        if (serverWon()) {
-            gameEnded = true;
-            winner = 2;
-        } else if (gameDraw()) {
-            gameEnded = true;
-            winner = 0;
-        } else {
-            turn = 1;
-        }
-        return bestMove[1] + "-" + bestMove[2];
+    /**
+     * Marks in a row needed to win this game
+     * @return 3 on the classic board
+     */
+    @Override
+    public int getK() {
+        return 3;
+    }
+
+    /**
+     * Board size of this game
+     * @return Number of rows and columns
+     */
+    @Override
+    public int getSize() {
+        return 3;
     }
 
-    public boolean isGameEnded() {
-        return this.gameEnded;
+    @Override
+    public int getEngine() {
+        return engine == null ? 0 : engine.ordinal() + 1;
     }
 
-    public String getWinner() {
-        switch (winner) {
-            case 0:
-                return "Draw";
-            case 1:
-                return "Client";
-            case 2:
-                return "Server";
-            default:
-                return "No winner";
+    @Override
+    public boolean hasStarted() {
+        return (clientBoard | serverBoard) != 0;
+    }
+
+    @Override
+    public int serverMoveCell() {
+        int cell = strategy.move(serverBoard, clientBoard);
+        serverBoard |= 1 << cell;
+        recordMove(cell);
+        Log.debug("Server Moved");
+        printBoard();
+        if (serverWon()) {
+            endGame(2);
+        } else if (gameDraw()) {
+            endGame(0);
+        } else {
+            setTurn(1);
         }
+        return cell;
     }
 
     private boolean clientWon() {
-        // Code for checking if game is won
-        for (int i = 0; i < 3; i++) {
-            if (board[i][0] == 1 && board[i][1] == 1 && board[i][2] == 1) return true;
-            if (board[0][i] == 1 && board[1][i] == 1 && board[2][i] == 1) return true;
-        }
-        if (board[0][0] == 1 && board[1][1] == 1 && board[2][2] == 1) return true;
-        return board[0][2] == 1 && board[1][1] == 1 && board[2][0] == 1;
+        return Bitboard.hasLine(clientBoard);
     }
 
     private boolean serverWon() {
-        // Code for checking if game is won
-        for (int i = 0; i < 3; i++) {
-            if (board[i][0] == 2 && board[i][1] == 2 && board[i][2] == 2) return true;
-            if (board[0][i] == 2 && board[1][i] == 2 && board[2][i] == 2) return true;
-        }
-        if (board[0][0] == 2 && board[1][1] == 2 && board[2][2] == 2) return true;
-        return board[0][2] == 2 && board[1][1] == 2 && board[2][0] == 2;
+        return Bitboard.hasLine(serverBoard);
     }
 
     private boolean gameDraw() {
-        // Code for checking if game is a draw
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                if (board[i][j] == 0) return false;
-            }
-        }
-        return !clientWon() && !serverWon();
-    }
-
-    public void setGameEnded(boolean gameEnded) {
-        this.gameEnded = gameEnded;
+        // Full board without a line for either player
+        return (clientBoard | serverBoard) == Bitboard.FULL && !clientWon() && !serverWon();
     }
-}
\ No newline at end of file
+}
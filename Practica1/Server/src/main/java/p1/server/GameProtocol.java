@@ -1,13 +1,24 @@
 package p1.server;
 
 import utils.ComUtils;
+import utils.engine.Grid;
 
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.util.Random;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class GameProtocol {
+    // Milliseconds a client can stay silent before it is disconnected
+    public static final int IDLE_TIMEOUT = 30000;
     // Session id
     private int id;
     // Opcodes
@@ -17,22 +28,153 @@ public class GameProtocol {
     private final byte ADMIT = (byte) 4;
     private final byte ACTION = (byte) 5;
     private final byte RESULT = (byte) 6;
+    private final byte CONFIG = (byte) 7;
     private final byte ERROR = (byte) 8;
+    private final byte WATCH = (byte) 9;
+    // CONFIG options
+    private final byte OPTION_SIZE = (byte) 1;
+    private final byte OPTION_K = (byte) 2;
+    private final byte OPTION_MULTIPLEX = (byte) 3;
+    private final byte OPTION_COMPACT = (byte) 4;
+    private final byte OPTION_OPPONENT = (byte) 5;
+    private final byte OPTION_ENGINE = (byte) 6;
+    private final byte OPTION_RESUME = (byte) 7;
+    // Position byte of a RESULT without server move in the compact mode
+    private static final int NO_MOVE = 0xFF;
     // ComUtils object to handle the communication
     private final ComUtils comutils;
-    // GameLogic object to handle the game logic
-    private GameLogic gameLogic;
+    // Services of the server, given to the other sessions of a multiplexed connection
+    private final ServerContext context;
+    // Logic of the current game, GameLogic on the classic board and GridLogic on the others
+    private BoardGame gameLogic;
+    // Engine used for the server moves
+    private final GameLogic.Engine engine;
+    // Engine of the next games chosen with CONFIG, null for the one of the server
+    private GameLogic.Engine chosenEngine;
+    // Board size and marks in a row of the next game, negotiated with CONFIG
+    private int size = 3;
+    private int k = 3;
     private boolean gameEnded;
+    // Positions are a single cell index byte instead of a row-col string
+    private boolean compact;
     private Socket socket;
+    // Sessions of the server, to give unique ids and resume the games of dropped connections
+    private final SessionRegistry registry;
+    // Journal of the finished games, null when it is not kept
+    private final GameJournal journal;
+    // Name sent in the HELLO, written to the journal
+    private String name;
+    // Session and token sent with CONFIG option 7 to resume that session with the next HELLO
+    private int resumeId;
+    private int resumeToken;
+    // Other sessions carried by the same connection by id, null in the classic one-session mode
+    private Map<Integer, GameProtocol> sessions;
+    // Session that multiplexes this one, null for the session that owns the connection
+    private final GameProtocol parent;
+    // Time of the last message, in milliseconds since the epoch
+    private volatile long lastActivity = System.currentTimeMillis();
+    // Players waiting for a human opponent, null if the server only plays against its clients
+    private final Lobby lobby;
+    // Only the classic board and the quick engines, the moves are computed on an event loop
+    private final boolean inlineMoves;
+    // Bucket of the human opponents of the next games chosen with CONFIG, 0 to play against the server
+    private int opponent;
+    // Bucket the session waits in, 0 if it is not waiting, cleared by the thread of the opponent that takes it
+    private volatile int waitingIn;
+    // Game against another client, set by the thread of whichever player started it
+    private volatile Match match;
+    // Moves of the match sent to this client, the ones its spectators have seen
+    private int matchMoves;
+    // Held while a message is handled and while another connection writes to this one, shared by the sessions of a connection
+    private final ReentrantLock writeLock;
+    // Messages for other connections, sent once the lock of this one is released so two locks are never held together
+    private final List<Relay> relays;
+    // Ratings of the players, null if the games are not rated
+    private final Ratings ratings;
+    // Spectators of this session, written to by the thread that holds the lock of the connection
+    private final List<Spectator> spectators = new CopyOnWriteArrayList<>();
+    // Subscription of this connection when it watches another session, null if it plays
+    private Spectator spectator;
+    // Session watched by this connection
+    private GameProtocol watched;
+    // Wakes the connection up when frames arrive for its subscription, null if the connection waits for them
+    private Runnable wakeup;
+    // Closes the connection when its subscription is dropped or its session taken over
+    private Runnable hangUp = this::closeSocket;
+
+    /**
+     * Message written to the connection of another player
+     */
+    private interface Delivery {
+        void write(GameProtocol target) throws IOException;
+    }
+
+    private static final class Relay {
+        private final GameProtocol target;
+        private final Delivery delivery;
+
+        private Relay(GameProtocol target, Delivery delivery) {
+            this.target = target;
+            this.delivery = delivery;
+        }
+    }
 
     /**
      * Constructor
      * @param comutils ComUtils object to handle the communication
      */
     public GameProtocol(Socket socket, ComUtils comutils) {
+        this(socket, comutils, GameLogic.Engine.MINIMAX);
+    }
+
+    /**
+     * Constructor
+     * @param comutils ComUtils object to handle the communication
+     * @param engine Engine used for the server moves
+     */
+    public GameProtocol(Socket socket, ComUtils comutils, GameLogic.Engine engine) {
+        this(socket, comutils, new ServerContext(engine));
+    }
+
+    /**
+     * Constructor
+     * @param comutils ComUtils object to handle the communication
+     * @param context Services of the server shared by its sessions
+     */
+    public GameProtocol(Socket socket, ComUtils comutils, ServerContext context) {
+        this(socket, comutils, context, null);
+    }
+
+    /**
+     * Constructor
+     * @param comutils ComUtils object to handle the communication
+     * @param context Services of the server shared by its sessions
+     * @param parent Session that owns the connection, null if this one owns it
+     */
+    private GameProtocol(Socket socket, ComUtils comutils, ServerContext context, GameProtocol parent) {
         this.socket = socket;
         this.comutils = comutils;
-        gameLogic = new GameLogic();
+        this.context = context;
+        this.engine = context.getEngine();
+        this.registry = context.getRegistry();
+        this.journal = context.getJournal();
+        this.lobby = context.getLobby();
+        this.inlineMoves = context.isInlineMoves();
+        this.ratings = context.getRatings();
+        this.parent = parent;
+        this.writeLock = parent == null ? new ReentrantLock() : parent.writeLock;
+        this.relays = parent == null ? new ArrayList<>() : parent.relays;
+        gameLogic = newGame();
+    }
+
+    /**
+     * Creates the logic of a new game with the negotiated variant
+     * @return Classic bitboard logic for 3x3, grid logic for the other variants
+     */
+    private BoardGame newGame() {
+        int lineLength = Math.min(k, size);
+        if (size == 3 && lineLength == 3) return new GameLogic(chosenEngine != null ? chosenEngine : engine);
+        return new GridLogic(size, lineLength);
     }
 
     /**
@@ -42,27 +184,61 @@ public class GameProtocol {
     public void clientConnection() {
         gameEnded = false;
         try {
-            receiveHello();
-            sendReady();
+            if (receiveHello()) sendReady();
         } catch (Exception e) {
-            System.err.println("Error in connection: " + e.getMessage());
+            Log.error(id, "Error in connection:", e.getMessage());
         }
     }
 
     /**
      * Receive hello message
-     * Receives the hello message from the client
+     * Receives the hello message from the client.
+     * An id of a session without connection resumes its game if the client sent its token with
+     * CONFIG option 7 first, and with the token it also takes over a session still played on another
+     * connection. The id 0, the id of a session played on another connection without the token or
+     * a wrong token get a new unique id. If there is no id left the client gets an ERROR and no READY
+     * @return True if the READY should be sent now, false if there is no id left or the READY is
+     *         relayed once the old connection has handed the session over
      */
-    public void receiveHello() {
+    public boolean receiveHello() {
         try {
-            id = comutils.read_int32();
-            String name = comutils.findString();
-            // If the id is 0, generate a random id
-            if (id == 0) {
-                Random rand = new Random();
-                id = rand.nextInt(90000) + 10000;
+            int requested = comutils.read_int32();
+            name = comutils.findString();
+            int token = requested == resumeId ? resumeToken : 0;
+            resumeId = 0;
+            resumeToken = 0;
+            // A second HELLO on the same connection leaves the previous session
+            detach();
+            SessionRegistry.Claim claim = requested == 0 ? null : registry.claim(requested, token, this);
+            if (claim == null) {
+                try {
+                    id = registry.allocate(this);
+                } catch (IllegalStateException e) {
+                    id = 0;
+                    sendError(3, "Server busy, no session id left");
+                    Log.warn(0, "No session id left for:", name);
+                    return false;
+                }
+            } else {
+                id = requested;
+                GameProtocol previous = claim.previous;
+                if (previous != null) {
+                    // The old connection hands the session over once this one is unlocked, and only
+                    // then the READY goes out, so no move of the session reaches the old connection after it
+                    relay(previous, target -> target.handOver(this, claim.entry));
+                    relay(this, GameProtocol::sendReady);
+                    Log.info(id, "Client takes its session over:", name);
+                    return false;
+                }
+                if (claim.entry.game != null) {
+                    restoreSession(claim.entry);
+                    Metrics.sessionResumed();
+                    Log.info(id, "Client resumed its session:", name);
+                    return true;
+                }
             }
-            System.out.println("Client: " + name + ", with id: " + id + " started a game, good luck!");
+            Log.info(id, "Client started a game, good luck:", name);
+            return true;
         } catch (Exception e) {
             throw new RuntimeException("Error in receiveHello: " + e.getMessage());
         }
@@ -83,41 +259,292 @@ public class GameProtocol {
 
     /**
      * Receive messages
-     * Receives the messages from the client
+     * Receives the messages from the client until the current game ends
      * @throws IOException If an I/O error occurs
      */
     public void receiveMessages() throws IOException {
         // If the game has ended, start a new game
         if (gameLogic.isGameEnded()) {
-            gameLogic = new GameLogic();
+            gameLogic = newGame();
         }
-        socket.setSoTimeout(30000); // 30 seconds for client to send message
+        socket.setSoTimeout(IDLE_TIMEOUT); // 30 seconds for client to send message
         while (!gameLogic.isGameEnded()) {
-            switch (comutils.getDataInputStream().readByte()) {
-                case HELLO:
-                    clientConnection();
-                    break;
-                case PLAY:
-                    int flag = receivePlay();
-                    sendAdmit(flag);
-                    break;
-                case ACTION:
-                    if (gameLogic.isGameEnded()) throw new IOException("Game ended");
-                    boolean valid = receiveAction();
-                    if (!gameLogic.isGameEnded() && valid) serverMove();
-                    break;
-                case ERROR:
-                    this.receiveError();
-                    gameLogic.setGameEnded(true);
-                    break;
-                default:
-                    System.err.println("Invalid opcode");
-                    break;
+            byte opcode;
+            try {
+                opcode = comutils.getDataInputStream().readByte();
+            } catch (SocketTimeoutException e) {
+                // A player waiting in the lobby is silent until it gets its ADMIT, it is not idle
+                if (waitingIn == 0) throw e;
+                continue;
             }
+            handleMessage(opcode);
+            if (spectator != null && socket != null) watch();
         }
         gameEnded = true;
     }
 
+    /**
+     * Handle message
+     * Handles one message from the client whose opcode has already been read,
+     * the rest of the message is read from the ComUtils.
+     * The replies are flushed once the message has been handled, unless the client has
+     * pipelined more messages that are already received: those are handled first and all the
+     * replies go out in one write, in the order of the messages.
+     * The handling time goes to the metrics by opcode, and the flush time as write time
+     * when the protocol writes to a socket (the NIO connections time their own writes).
+     * The connection is locked meanwhile, so the moves relayed by an opponent's thread never
+     * interleave with the replies, and the messages for the opponent are relayed afterwards
+     * @param opcode Opcode of the message
+     * @throws IOException If an I/O error occurs
+     */
+    public void handleMessage(byte opcode) throws IOException {
+        writeLock.lock();
+        try {
+            handleLocked(opcode);
+        } finally {
+            writeLock.unlock();
+        }
+        if (!writeLock.isHeldByCurrentThread()) sendRelays();
+    }
+
+    private void handleLocked(byte opcode) throws IOException {
+        long start = System.nanoTime();
+        lastActivity = System.currentTimeMillis();
+        if (spectator != null) {
+            // Spectators are read-only, the NIO connections still read what they send
+            Log.warn(id, "Message of a spectator ignored", null);
+            return;
+        }
+        if (sessions != null) {
+            // Multiplexed: a HELLO opens another session, the other messages go to the session of their idSessio
+            if (opcode == HELLO) {
+                openSession();
+                return;
+            }
+            GameProtocol session = sessions.get(peekId());
+            if (session != null) {
+                session.handleMessage(opcode);
+                return;
+            }
+        }
+        try {
+            dispatch(opcode);
+        } finally {
+            long handled = System.nanoTime();
+            Metrics.handled(opcode, handled - start);
+            if (!hasPendingInput()) {
+                comutils.flush();
+                if (socket != null) Metrics.writeTime(System.nanoTime() - handled);
+            }
+        }
+    }
+
+    /**
+     * Open session
+     * Handles a HELLO on a multiplexed connection: the new session plays its own games,
+     * independent of the other sessions of the connection
+     * @throws IOException If an I/O error occurs
+     */
+    private void openSession() throws IOException {
+        GameProtocol session = new GameProtocol(socket, comutils, context, this);
+        // The token of a session to resume goes to the session that says the HELLO
+        session.resumeId = resumeId;
+        session.resumeToken = resumeToken;
+        resumeId = 0;
+        resumeToken = 0;
+        session.handleMessage(HELLO);
+        // The registry never gives the id of a session played on this connection to another one
+        if (session.id == 0) return;
+        Metrics.sessionOpened();
+        sessions.put(session.id, session);
+    }
+
+    /**
+     * Reads the idSessio that follows the opcode without consuming it
+     * @return Session id of the message
+     * @throws IOException If an I/O error occurs
+     */
+    private int peekId() throws IOException {
+        DataInputStream in = comutils.getDataInputStream();
+        in.mark(4);
+        int sessionId = comutils.read_int32();
+        in.reset();
+        return sessionId;
+    }
+
+    /**
+     * Checks if the client has sent more bytes that can be read without blocking
+     * @return True if the next message is at least partly received
+     */
+    private boolean hasPendingInput() {
+        try {
+            return comutils.getDataInputStream().available() > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void dispatch(byte opcode) throws IOException {
+        // If the game has ended, the message belongs to a new game
+        if (gameLogic.isGameEnded()) {
+            gameLogic = newGame();
+        }
+        switch (opcode) {
+            case HELLO:
+                clientConnection();
+                break;
+            case PLAY:
+                // A resumed client may give up its game and start a new one
+                if (gameLogic.hasStarted()) gameLogic = newGame();
+                int flag = receivePlay();
+                if (flag == 1 && opponent > 0) findOpponent();
+                else sendAdmit(flag);
+                break;
+            case CONFIG:
+                receiveConfig();
+                break;
+            case ACTION:
+                if (match != null) {
+                    receiveMatchAction();
+                    break;
+                }
+                boolean valid = receiveAction();
+                if (!gameLogic.isGameEnded() && valid) serverMove();
+                break;
+            case ERROR:
+                this.receiveError();
+                gameLogic.setGameEnded(true);
+                break;
+            case WATCH:
+                receiveWatch();
+                break;
+            default:
+                Log.warn(id, "Invalid opcode", null);
+                break;
+        }
+    }
+
+    /**
+     * Keeps the state of the session in its registry entry
+     * @param entry Entry of the session, locked by the registry
+     */
+    void saveSession(SessionRegistry.Entry entry) {
+        entry.game = gameLogic;
+        entry.size = size;
+        entry.k = k;
+        entry.compact = compact;
+        entry.engine = chosenEngine;
+        entry.opponent = opponent;
+    }
+
+    /**
+     * Plays on with the state of a resumed session
+     * @param entry Entry of the session
+     */
+    private void restoreSession(SessionRegistry.Entry entry) {
+        gameLogic = entry.game;
+        size = entry.size;
+        k = entry.k;
+        compact = entry.compact;
+        chosenEngine = entry.engine;
+        opponent = entry.opponent;
+    }
+
+    /**
+     * Hands the session over to the connection that took it with its resume token, called with
+     * this connection locked. The new connection gets the game, the match and the spectators,
+     * this one is closed, or only leaves its multiplexed connection
+     * @param next Protocol of the new connection, which waits for the session before its next message
+     * @param entry Entry of the session
+     */
+    private void handOver(GameProtocol next, SessionRegistry.Entry entry) {
+        if (id != next.id) return;
+        if (waitingIn != 0) {
+            // The new connection waits again with its next PLAY
+            lobby.leave(waitingIn, this);
+            waitingIn = 0;
+        }
+        saveSession(entry);
+        next.restoreSession(entry);
+        gameLogic = newGame();
+        Match current = match;
+        if (current != null) {
+            current.replace(this, next);
+            next.match = current;
+            next.matchMoves = matchMoves;
+            match = null;
+        }
+        next.spectators.addAll(spectators);
+        spectators.clear();
+        // The session is no longer this one's, its end leaves the new connection alone
+        int sessionId = id;
+        id = 0;
+        Metrics.sessionResumed();
+        Log.info(sessionId, "Session taken over by a new connection", null);
+        if (parent != null) {
+            parent.sessions.remove(sessionId);
+            Metrics.sessionClosed();
+        } else {
+            hangUp.run();
+        }
+    }
+
+    /**
+     * Leaves the session when the connection ends, its game can be resumed by another connection
+     */
+    public void detach() {
+        if (id != 0) registry.detach(id, this);
+        leaveMatch();
+        // The spectators see the frames already queued, then their connections end
+        writeLock.lock();
+        try {
+            for (Spectator subscribed : spectators) subscribed.end(false);
+            spectators.clear();
+        } finally {
+            writeLock.unlock();
+        }
+        if (spectator != null) {
+            spectator.end(true);
+            watched.spectators.remove(spectator);
+        }
+        if (sessions != null) {
+            for (GameProtocol session : sessions.values()) {
+                session.detach();
+                Metrics.sessionClosed();
+            }
+            sessions.clear();
+        }
+        // A second HELLO detaches while the connection is locked, the relays are sent after the message
+        if (!writeLock.isHeldByCurrentThread()) sendRelays();
+    }
+
+    /**
+     * Time of the last message, a player waiting in the lobby is always active
+     * @return Milliseconds since the epoch
+     */
+    public long getLastActivity() {
+        return waitingIn != 0 ? System.currentTimeMillis() : lastActivity;
+    }
+
+    /**
+     * Width of the position strings of the next ACTION message
+     * @return Bytes of a position
+     */
+    public int moveWidth() {
+        if (compact) return 1;
+        return Grid.moveWidth(gameLogic.isGameEnded() ? size : gameLogic.getSize());
+    }
+
+    /**
+     * Width of the position strings of the next ACTION message of a session of the connection
+     * @param sessionId idSessio of the message, ignored in the classic one-session mode
+     * @return Bytes of a position
+     */
+    public int moveWidth(int sessionId) {
+        GameProtocol session = sessions == null ? null : sessions.get(sessionId);
+        return session != null ? session.moveWidth() : moveWidth();
+    }
+
     /**
      * Receive play message
      * Receives the play message from the client
@@ -128,12 +555,12 @@ public class GameProtocol {
         try {
             if (this.id == comutils.read_int32()) {
                 flag = 1;
-                System.out.println("Client " + id + " wants to play");
+                Log.info(id, "Client wants to play", null);
             } else {
                 sendError(9, "Invalid session id");
             }
         } catch (Exception e) {
-            System.err.println("Error in receivePlay: " + e.getMessage());
+            Log.error(id, "Error in receivePlay:", e.getMessage());
         }
         return flag;
     }
@@ -148,11 +575,144 @@ public class GameProtocol {
             comutils.getDataOutputStream().writeByte(ADMIT);
             comutils.write_int32(id);
             comutils.getDataOutputStream().writeByte(flag);
-            System.out.println("Admitting client " + id + " with flag " + flag);
-            System.out.println("Tic-Tac-Toe game started");
+            Log.info(id, flag == 1 ? "Client admitted, game started" : "Client not admitted", null);
+            // Both players of a match count the game, as both count its end
+            if (flag != 0) Metrics.gameStarted();
+            if (flag != 0) broadcastStart(flag);
+        } catch (Exception e) {
+            Log.error(id, "Error in sendAdmit:", e.getMessage());
+        }
+    }
+
+    /**
+     * Receive config message
+     * Receives an option for the next games and echoes the accepted value,
+     * or sends an error if the option or its value is not supported
+     */
+    public void receiveConfig() {
+        try {
+            int sessionId = comutils.read_int32();
+            byte option = comutils.getDataInputStream().readByte();
+            int value = comutils.read_int32();
+            if (option == OPTION_RESUME) {
+                configureResume(sessionId, value);
+                return;
+            }
+            if (sessionId != id) {
+                sendError(9, "Invalid session id");
+                return;
+            }
+            if (option == OPTION_MULTIPLEX) {
+                configureMultiplex(value);
+                return;
+            }
+            if (inlineMoves && (option == OPTION_SIZE && value > 3 || option == OPTION_ENGINE && value == GameLogic.Engine.MCTS.ordinal() + 1)) {
+                // A long search would stall every other client of the event loop
+                sendError(2, "Option " + option + " with value " + value + " not served in nio mode");
+                return;
+            }
+            if (option == OPTION_OPPONENT && value > 0 && lobby == null) {
+                // The NIO event loops do not relay moves between clients
+                sendError(2, "Games against other clients are not served, the nio mode has no lobby");
+                return;
+            }
+            if (option == OPTION_OPPONENT && value >= 0 && value < 1 << 23) {
+                leaveMatch();
+                opponent = value;
+                sendConfig(option, value);
+                Log.info(id, value == 0 ? "Client plays against the server" : "Client plays against other clients, bucket", value == 0 ? null : String.valueOf(value));
+                return;
+            }
+            if (option == OPTION_ENGINE && value >= 0 && value <= GameLogic.Engine.values().length) {
+                chosenEngine = value == 0 ? null : GameLogic.Engine.values()[value - 1];
+                if (!gameLogic.hasStarted()) gameLogic = newGame();
+                sendConfig(option, value);
+                Log.info(id, "Client chose the server engine", (chosenEngine != null ? chosenEngine : engine).name().toLowerCase());
+                return;
+            }
+            if (option == OPTION_COMPACT && (value == 0 || value == 1)) {
+                compact = value == 1;
+                sendConfig(option, value);
+                Log.info(id, compact ? "Client switched to compact moves" : "Client switched to text moves", null);
+                return;
+            }
+            if ((option == OPTION_SIZE || option == OPTION_K) && waitingIn != 0) {
+                // The bucket depends on the board, the player waits again with its next PLAY
+                lobby.leave(waitingIn, this);
+                waitingIn = 0;
+            }
+            if (option == OPTION_SIZE && value >= Grid.MIN_SIZE && value <= Grid.MAX_SIZE) {
+                size = value;
+            } else if (option == OPTION_K && value >= 3 && value <= Grid.MAX_SIZE) {
+                k = value;
+            } else {
+                sendError(2, "Invalid option " + option + " with value " + value);
+                return;
+            }
+            // The variant applies to the next game, or to this one if it has not started
+            if (!gameLogic.hasStarted()) gameLogic = newGame();
+            sendConfig(option, value);
+            Log.info(id, "Client configured board", size + "x" + size + ", " + Math.min(k, size) + " in a row");
         } catch (Exception e) {
-            System.err.println("Error in sendAdmit: " + e.getMessage());
+            Log.error(id, "Error in receiveConfig:", e.getMessage());
+        }
+    }
+
+    /**
+     * Resume token of a session.
+     * On the session of the connection the server gives it a new token, echoed as the value. With
+     * the id of another session the value is the token of that session, kept without reply for
+     * the next HELLO, which resumes the session if the token is right
+     * @param sessionId idSessio of the message
+     * @param value Ignored on the session of the connection, or the token of the session to resume
+     * @throws IOException If an I/O error occurs
+     */
+    private void configureResume(int sessionId, int value) throws IOException {
+        if (sessionId == 0 || sessionId != id) {
+            resumeId = sessionId;
+            resumeToken = value;
+            return;
         }
+        int token = registry.issueToken(id, this);
+        if (token == 0) {
+            sendError(2, "Invalid option " + OPTION_RESUME + " with value " + value);
+            return;
+        }
+        sendConfig(OPTION_RESUME, token);
+        Log.info(id, "Client got a resume token", null);
+    }
+
+    /**
+     * Turns the multiplexed mode of the connection on (1) or off (0) and echoes the value.
+     * Only the session that owns the connection can change it, and the input must support
+     * mark, as the idSessio of each message is read before the message is routed
+     * @param value 1 for many sessions on the connection, 0 for the classic one-session mode
+     * @throws IOException If an I/O error occurs
+     */
+    private void configureMultiplex(int value) throws IOException {
+        boolean supported = parent == null && comutils.getDataInputStream().markSupported();
+        if (!supported || (value != 0 && value != 1) || (value == 0 && sessions != null && !sessions.isEmpty())) {
+            sendError(2, "Invalid option " + OPTION_MULTIPLEX + " with value " + value);
+            return;
+        }
+        if (value == 0) sessions = null;
+        else if (sessions == null) sessions = new HashMap<>();
+        sendConfig(OPTION_MULTIPLEX, value);
+        Log.info(id, value == 1 ? "Client multiplexed the connection" : "Client back to one session", null);
+    }
+
+    /**
+     * Send config message
+     * Echoes an accepted option to the client
+     * @param option Option
+     * @param value Accepted value
+     * @throws IOException If an I/O error occurs
+     */
+    private void sendConfig(byte option, int value) throws IOException {
+        comutils.getDataOutputStream().writeByte(CONFIG);
+        comutils.write_int32(id);
+        comutils.getDataOutputStream().writeByte(option);
+        comutils.write_int32(value);
     }
 
     /**
@@ -166,8 +726,11 @@ public class GameProtocol {
                 sendError(9, "Invalid session id");
                 return false;
             }
-            String action = comutils.read_string(3);
-            int clientMove = gameLogic.clientMove(action);
+            // The compact byte is checked against the board as it is, the text is parsed first
+            int cell = compact
+                    ? comutils.getDataInputStream().readUnsignedByte()
+                    : Grid.parseMove(comutils.read_string(moveWidth()), gameLogic.getSize());
+            int clientMove = gameLogic.clientMove(cell);
             switch (clientMove){
                 case 0:
                     sendError(0, "Unknown move, check the format move format: row-col (from 0 to 2) Example: 0-0");
@@ -178,13 +741,15 @@ public class GameProtocol {
                 default:
                     break;
             }
-            System.out.println("Client " + id + " played: " + action);
+            Log.info(id, "Client played:", Grid.formatMove(cell, gameLogic.getSize()));
+            Metrics.move();
+            broadcastMove(cell);
             if (gameLogic.isGameEnded()) {
-                sendResult(action);
+                sendResult(cell);
                 return true;
             }
         } catch (Exception e) {
-            System.err.println("Error in readAction: " + e.getMessage());
+            Log.error(id, "Error in readAction:", e.getMessage());
         }
         return true;
     }
@@ -194,7 +759,10 @@ public class GameProtocol {
      * Makes the server move
      */
     public void serverMove() {
-        String move = gameLogic.serverMove();
+        long start = System.nanoTime();
+        int move = gameLogic.serverMoveCell();
+        Metrics.serverMoveTime(System.nanoTime() - start);
+        Metrics.move();
         if (gameLogic.isGameEnded()) {
             sendResult(move);
             return;
@@ -206,16 +774,17 @@ public class GameProtocol {
      * Send action message
      * If the game hasn't ended
      * Sends the action message to the client
-     * @param move Move to be sent
+     * @param move Cell of the move to be sent
      */
-    private void sendAction(String move) {
+    private void sendAction(int move) {
         try {
             comutils.getDataOutputStream().writeByte(ACTION);
             comutils.write_int32(id);
-            comutils.write_string(move);
-            System.out.println("Server played: " + move);
+            writeMove(move);
+            broadcastMove(move);
+            Log.info(id, "Server played:", Grid.formatMove(move, gameLogic.getSize()));
         } catch (Exception e) {
-            System.err.println("Error in sendAction: " + e.getMessage());
+            Log.error(id, "Error in sendAction:", e.getMessage());
         }
     }
 
@@ -223,23 +792,23 @@ public class GameProtocol {
      * Send result message
      * If the game has ended
      * Sends the result message to the client
-     * @param move Move to be sent
+     * @param move Cell of the last move
      */
-    private void sendResult(String move) {
+    private void sendResult(int move) {
         int flag;
         switch (gameLogic.getWinner()) {
             case "Client":
-                System.out.println("Client " + id + " won");
+                Log.info(id, "Client won", null);
                 flag = 1;
-                move = "---";
+                move = -1;
                 break;
             case "Server":
-                System.out.println("Server played: " + move);
-                System.out.println("Server won");
+                Log.info(id, "Server played:", Grid.formatMove(move, gameLogic.getSize()));
+                Log.info(id, "Server won", null);
                 flag = 0;
                 break;
             case "Draw":
-                System.out.println("Game ended in a draw");
+                Log.info(id, "Game ended in a draw", null);
                 // No need to implement Server causing a draw as Client will always go first.
                 flag = 2;
                 break;
@@ -249,11 +818,348 @@ public class GameProtocol {
         try {
             comutils.getDataOutputStream().writeByte(RESULT);
             comutils.write_int32(id);
-            comutils.write_string(move);
+            writeMove(move);
             comutils.getDataOutputStream().writeByte(flag);
-            System.out.println("Game ended");
+            broadcastResult(move, flag);
+            Metrics.gameEnded(flag);
+            if (journal != null) journal.append(id, name, gameLogic, flag);
+            rate(name, Ratings.SERVER, flag);
+            Log.info(id, "Game ended", null);
         } catch (Exception e) {
-            System.err.println("Error in sendResult: " + e.getMessage());
+            Log.error(id, "Error in sendResult:", e.getMessage());
+        }
+    }
+
+    /**
+     * Looks for an opponent in the lobby after a PLAY.
+     * If one is waiting, the match starts: the waiting player moves first and gets ADMIT flag 1,
+     * this one gets ADMIT flag 2 and waits for its opponent's move. Otherwise this player waits,
+     * and gets its ADMIT when the next player of the bucket comes
+     */
+    private void findOpponent() {
+        leaveMatch();
+        // Players are paired with the same board, and the group chosen with CONFIG
+        int bucket = opponent << 8 | size << 4 | Math.min(k, size);
+        GameProtocol waiting = lobby.join(bucket, this);
+        if (waiting == null) {
+            waitingIn = bucket;
+            Log.info(id, "Client waiting for an opponent", null);
+            return;
+        }
+        waitingIn = 0;
+        Match started = new Match(waiting, this, size, Math.min(k, size));
+        match = started;
+        matchMoves = 0;
+        sendAdmit(2);
+        relay(waiting, target -> {
+            target.waitingIn = 0;
+            target.match = started;
+            target.matchMoves = 0;
+            target.sendAdmit(1);
+        });
+    }
+
+    /**
+     * Receives a move of a match and relays it to the opponent, or the result if the move ends the match.
+     * The RESULT flags are as seen by each player: 0 if the opponent won, 1 if the player won, 2 for a draw
+     */
+    private void receiveMatchAction() {
+        try {
+            if (comutils.read_int32() != id) {
+                sendError(9, "Invalid session id");
+                return;
+            }
+            int cell = compact
+                    ? comutils.getDataInputStream().readUnsignedByte()
+                    : Grid.parseMove(comutils.read_string(moveWidth()), gameLogic.getSize());
+            Match current = match;
+            int status = current.play(this, cell);
+            switch (status) {
+                case Match.UNKNOWN_MOVE:
+                    sendError(0, "Unknown move, check the format move format: row-col (from 0 to 2) Example: 0-0");
+                    return;
+                case Match.OCCUPIED:
+                    sendError(1, "Invalid move, there is already a piece in that position");
+                    return;
+                case Match.NOT_YOUR_TURN:
+                    sendError(4, "Not your turn, wait for the move of your opponent");
+                    return;
+                default:
+                    break;
+            }
+            Log.info(id, "Client played:", Grid.formatMove(cell, gameLogic.getSize()));
+            Metrics.move();
+            matchMoves++;
+            broadcastMove(cell);
+            GameProtocol other = current.opponent(this);
+            if (status == Match.MOVED) {
+                relay(other, target -> target.sendOpponentMove(cell));
+            } else if (status == Match.WON) {
+                rate(name, other.name, 1);
+                sendMatchResult(current, -1, 1);
+                relay(other, target -> target.sendMatchResult(current, cell, 0));
+            } else {
+                rate(name, other.name, 2);
+                sendMatchResult(current, cell, 2);
+                relay(other, target -> target.sendMatchResult(current, cell, 2));
+            }
+        } catch (Exception e) {
+            Log.error(id, "Error in receiveMatchAction:", e.getMessage());
+        }
+    }
+
+    /**
+     * Leaves the lobby, and the match in progress if there is one: the opponent wins
+     */
+    private void leaveMatch() {
+        if (waitingIn != 0) {
+            lobby.leave(waitingIn, this);
+            waitingIn = 0;
+        }
+        Match current = match;
+        if (current == null) return;
+        match = null;
+        GameProtocol winner = current.forfeit(this);
+        if (winner == null) return;
+        rate(winner.name, name, 1);
+        relay(winner, target -> target.sendMatchResult(current, -1, 1));
+    }
+
+    /**
+     * Rates a finished game, a game of a player without name is not rated
+     * @param player Name of the player who got the RESULT
+     * @param opponent Name of its opponent, SERVER for the games against the server
+     * @param flag Flag of the RESULT: 0 the opponent won, 1 the player won, 2 draw
+     */
+    private void rate(String player, String opponent, int flag) {
+        if (ratings == null) return;
+        ratings.record(player, opponent, flag == 1 ? 1 : flag == 2 ? 0.5 : 0);
+    }
+
+    /**
+     * Queues a message for another connection, it is written once this connection is unlocked
+     * @param target Protocol of the other player
+     * @param delivery Writes the message
+     */
+    private void relay(GameProtocol target, Delivery delivery) {
+        relays.add(new Relay(target, delivery));
+    }
+
+    /**
+     * Writes the queued messages to their connections, each one under the lock of its connection.
+     * A player whose connection fails has left: its opponent wins
+     */
+    private void sendRelays() {
+        for (int i = 0; i < relays.size(); i++) {
+            Relay relay = relays.get(i);
+            GameProtocol target = relay.target;
+            target.writeLock.lock();
+            try {
+                relay.delivery.write(target);
+                target.comutils.flush();
+            } catch (IOException e) {
+                Match lost = target.match;
+                GameProtocol winner = lost == null ? null : lost.forfeit(target);
+                if (winner != null) {
+                    rate(winner.name, target.name, 1);
+                    relay(winner, other -> other.sendMatchResult(lost, -1, 1));
+                }
+            } finally {
+                target.writeLock.unlock();
+            }
+        }
+        relays.clear();
+    }
+
+    /**
+     * Send action message with the move of the opponent of a match
+     * @param cell Cell marked by the opponent
+     * @throws IOException If an I/O error occurs
+     */
+    private void sendOpponentMove(int cell) throws IOException {
+        comutils.getDataOutputStream().writeByte(ACTION);
+        comutils.write_int32(id);
+        writeMove(cell);
+        matchMoves++;
+        broadcastMove(cell);
+        Log.info(id, "Opponent played:", Grid.formatMove(cell, gameLogic.getSize()));
+    }
+
+    /**
+     * Send result message of a match, the match of this player is over.
+     * Like the games against the server, it is counted in the metrics and written to the journal
+     * @param finished Match that ended
+     * @param cell Last move, or -1 if there is none to show
+     * @param flag 0 if the opponent won, 1 if this player won, 2 for a draw
+     * @throws IOException If an I/O error occurs
+     */
+    private void sendMatchResult(Match finished, int cell, int flag) throws IOException {
+        match = null;
+        comutils.getDataOutputStream().writeByte(RESULT);
+        comutils.write_int32(id);
+        writeMove(cell);
+        comutils.getDataOutputStream().writeByte(flag);
+        broadcastResult(cell, flag);
+        Metrics.gameEnded(flag);
+        if (journal != null) journal.append(id, name, finished, this, flag);
+        Log.info(id, flag == 1 ? "Client won the match" : flag == 0 ? "Client lost the match" : "Match ended in a draw", null);
+    }
+
+    /**
+     * Receive watch message
+     * Subscribes the connection to another session as a read-only spectator.
+     * The subscription is made by the watched session under the lock of its connection, which
+     * queues the board, an ADMIT and the moves of the game in progress before the next frames.
+     * Only a connection with a single session can watch, and it sends nothing else afterwards
+     * @throws IOException If an I/O error occurs
+     */
+    private void receiveWatch() throws IOException {
+        int watchedId = comutils.read_int32();
+        GameProtocol target = registry.owner(watchedId);
+        if (target == null || target == this || parent != null || sessions != null) {
+            sendError(9, "No live session " + watchedId + " to watch");
+            return;
+        }
+        // The session of the connection, if there is one, can be resumed elsewhere
+        detach();
+        Spectator subscription = new Spectator(Spectator.DEFAULT_CAPACITY, wakeup, hangUp);
+        spectator = subscription;
+        watched = target;
+        relay(target, session -> session.addSpectator(watchedId, subscription));
+        Log.info(id, "Client watches session", String.valueOf(watchedId));
+    }
+
+    /**
+     * Adds a spectator to this session, called with the connection locked
+     * @param watchedId Session id the spectator asked for
+     * @param subscription Queue of the spectator
+     */
+    private void addSpectator(int watchedId, Spectator subscription) {
+        // The session may have ended, or said another HELLO, since it was looked up
+        if (watchedId != id || registry.owner(id) != this) {
+            subscription.end(false);
+            return;
+        }
+        Match current = match;
+        int boardSize = current != null ? current.getSize() : gameLogic.getSize();
+        subscription.offer(Frame.config(id, OPTION_SIZE, boardSize));
+        subscription.offer(Frame.config(id, OPTION_K, current != null ? current.getK() : gameLogic.getK()));
+        subscription.offer(Frame.admit(id, current != null && !current.movedFirst(this) ? 2 : 1));
+        if (current != null) {
+            // Only the moves this client was sent, the next ones reach the spectator as they are relayed
+            for (int i = 0; i < matchMoves; i++) subscription.offer(Frame.action(id, current.getMove(i), boardSize));
+        } else if (!gameLogic.isGameEnded()) {
+            for (int i = 0; i < gameLogic.getMoveCount(); i++) subscription.offer(Frame.action(id, gameLogic.getMove(i), boardSize));
+        }
+        spectators.add(subscription);
+    }
+
+    /**
+     * Watch
+     * Writes the frames of the watched session to the socket as they come, until the
+     * subscription ends or is dropped. Every spectator writes the same bytes of a frame
+     * @throws IOException If the subscription ends or an I/O error occurs
+     */
+    private void watch() throws IOException {
+        comutils.flush();
+        OutputStream out = socket.getOutputStream();
+        try {
+            while (true) {
+                spectator.take().writeTo(out);
+                lastActivity = System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while watching");
+        }
+    }
+
+    /**
+     * Sends the start of a game to the spectators: the board, then the ADMIT
+     * @param flag Flag of the ADMIT sent to the player
+     */
+    private void broadcastStart(int flag) {
+        if (spectators.isEmpty()) return;
+        broadcast(Frame.config(id, OPTION_SIZE, gameLogic.getSize()));
+        broadcast(Frame.config(id, OPTION_K, gameLogic.getK()));
+        broadcast(Frame.admit(id, flag));
+    }
+
+    /**
+     * Sends a move to the spectators, the moves of the player included
+     * @param cell Cell of the move
+     */
+    private void broadcastMove(int cell) {
+        if (!spectators.isEmpty()) broadcast(Frame.action(id, cell, gameLogic.getSize()));
+    }
+
+    /**
+     * Sends the result of the game to the spectators
+     * @param cell Last move, or -1 if there is none to show
+     * @param flag Flag of the RESULT sent to the player
+     */
+    private void broadcastResult(int cell, int flag) {
+        if (!spectators.isEmpty()) broadcast(Frame.result(id, cell, flag, gameLogic.getSize()));
+    }
+
+    /**
+     * Queues a frame for every spectator, encoded once and shared by all of them.
+     * Never blocks: the spectators that cannot keep up are dropped
+     * @param frame Frame to send
+     */
+    private void broadcast(Frame frame) {
+        for (Spectator subscribed : spectators) {
+            if (!subscribed.offer(frame)) spectators.remove(subscribed);
+        }
+    }
+
+    /**
+     * Sets how the connection learns about the frames of its subscription
+     * @param wakeup Run when frames arrive, instead of waiting for them
+     * @param hangUp Run when the subscription is dropped or the session taken over, instead of closing the socket
+     */
+    void setConnection(Runnable wakeup, Runnable hangUp) {
+        this.wakeup = wakeup;
+        this.hangUp = hangUp;
+    }
+
+    /**
+     * Subscription of the connection
+     * @return Queue of the frames to write, null if the connection does not watch a session
+     */
+    Spectator getSpectator() {
+        return spectator;
+    }
+
+    /**
+     * Spectators of the session
+     * @return Number of spectators subscribed
+     */
+    public int spectators() {
+        return spectators.size();
+    }
+
+    private void closeSocket() {
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException e) {
+            Log.error(id, "Error closing connection:", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the position of a move, as a cell index byte in the compact mode
+     * or as a row-col string otherwise
+     * @param cell Cell index, or -1 for no move
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeMove(int cell) throws IOException {
+        if (compact) {
+            comutils.getDataOutputStream().writeByte(cell < 0 ? NO_MOVE : cell);
+        } else if (cell < 0) {
+            comutils.write_string(Grid.moveWidth(gameLogic.getSize()) == 3 ? "---" : "-----");
+        } else {
+            comutils.write_string(Grid.formatMove(cell, gameLogic.getSize()));
         }
     }
 
@@ -272,8 +1178,9 @@ public class GameProtocol {
             comutils.write_string(errorMessage);
             comutils.getDataOutputStream().writeByte(0);
             comutils.getDataOutputStream().writeByte(0);
+            Metrics.errorSent();
         } catch (Exception e) {
-            System.err.println("Error in sendError: " + e.getMessage());
+            Log.error(id, "Error in sendError:", e.getMessage());
         }
     }
 
@@ -287,9 +1194,9 @@ public class GameProtocol {
             if (comutils.read_int32() != id) sendError(9, "Invalid session id");
             int code = comutils.getDataInputStream().readByte();
             String message = comutils.findString();
-            System.out.println("Error Code " + code + ": " + message);
+            Log.warn(id, "Client sent error code " + code + ":", message);
         } catch (Exception e) {
-            System.err.println("Error in receiveError: " + e.getMessage());
+            Log.error(id, "Error in receiveError:", e.getMessage());
         }
     }
 }
@@ -0,0 +1,107 @@
+package p1.server;
+
+import utils.engine.Grid;
+import utils.engine.GridSearch;
+
+/**
+ * Game logic for the N x N, K-in-a-row variants negotiated with CONFIG.
+ * The server answers with an iterative-deepening search bounded by MOVE_BUDGET_MS,
+ * so large boards never stall the handler thread.
+ */
+public class GridLogic extends BoardGame {
+    // Time budget of the server for each move, in milliseconds
+    public static final long MOVE_BUDGET_MS = 200;
+    private final Grid grid;
+    private final GridSearch search;
+
+    /**
+     * Constructor
+     * @param size Number of rows and columns
+     * @param k Marks in a row needed to win
+     */
+    public GridLogic(int size, int k) {
+        this.grid = new Grid(size, k);
+        this.search = new GridSearch(MOVE_BUDGET_MS);
+    }
+
+    @Override
+    public int clientMove(int cell) {
+        if (cell < 0 || cell >= grid.size() * grid.size()) return 0; // Invalid format
+        if (grid.get(cell) != 0) return 1; // Invalid move
+
+        boolean won = grid.play(cell, 1);
+        recordMove(cell);
+        Log.debug("Client Moved");
+        printBoard();
+        if (won) {
+            endGame(1);
+        } else if (grid.isFull()) {
+            endGame(0);
+        } else {
+            setTurn(2);
+        }
+        return -1;
+    }
+
+    @Override
+    public int serverMoveCell() {
+        int cell = search.bestMove(grid, 2);
+        boolean won = grid.play(cell, 2);
+        recordMove(cell);
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug(0, "Server Moved", "(depth " + search.depthReached() + ", " + search.nodes() + " nodes)");
+        }
+        printBoard();
+        if (won) {
+            endGame(2);
+        } else if (grid.isFull()) {
+            endGame(0);
+        } else {
+            setTurn(1);
+        }
+        return cell;
+    }
+
+    @Override
+    public int getSize() {
+        return grid.size();
+    }
+
+    @Override
+    public int getK() {
+        return grid.k();
+    }
+
+    @Override
+    public int getEngine() {
+        // The grid variants always use the timed search
+        return 0;
+    }
+
+    @Override
+    public boolean hasStarted() {
+        return grid.moves() > 0;
+    }
+
+    @Override
+    public void printBoard() {
+        // The grid changes after this call, so it is drawn here, and only when boards are logged
+        if (!Log.isEnabled(Log.Level.DEBUG)) return;
+        int size = grid.size();
+        StringBuilder board = new StringBuilder("\n");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                for (int j = 0; j < 4 * size + 1; j++) board.append('-');
+                board.append('\n');
+            }
+            board.append("| ");
+            for (int j = 0; j < size; j++) {
+                int owner = grid.get(i * size + j);
+                board.append(owner == 1 ? "X | " : owner == 2 ? "O | " : "  | ");
+            }
+            board.append('\n');
+        }
+        board.setLength(board.length() - 1);
+        Log.debug(0, "Board", board.toString());
+    }
+}
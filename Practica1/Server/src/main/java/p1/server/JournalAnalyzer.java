@@ -0,0 +1,313 @@
+package p1.server;
+
+import utils.engine.Bitboard;
+import utils.engine.Grid;
+import utils.engine.Search;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline statistics of a game journal.
+ * Each segment is scanned by its own task with a GameJournal.Cursor, so the records are read
+ * straight from the mapped file and only the aggregates live on the heap, whatever the size of the
+ * journal. The partial statistics of the segments are merged at the end.
+ * <p>
+ * Blunders are looked for in the classic 3x3 games: a client move is a blunder when the minimax
+ * value of the position for the client drops, a won position played into a draw or a loss, or a
+ * drawn one into a loss. In the games against another client the moves of the player of the record
+ * are judged, the first or the second ones as the engine byte tells. They are judged against perfect play whatever the engine of the server was,
+ * so they are also counted by the engine recorded in each game: the client's blunders are only
+ * comparable between games against the same engine.
+ */
+public final class JournalAnalyzer {
+    public static final String INIT_ERROR = "JournalAnalyzer should be initialized with -j <journal directory> [-t <threads>] [-n <top>]";
+    // Marks the missing moves of an opening shorter than OPENING_MOVES
+    private static final int NO_MOVE = 0xFF;
+    private static final int OPENING_MOVES = 3;
+
+    /**
+     * Statistics of some games, the partial statistics of two segments can be merged
+     */
+    public static final class Stats {
+        // Games of each player by RESULT flag: server won, client won, draw
+        private final Map<String, long[]> outcomes = new HashMap<>();
+        // Games by their first moves, board size and up to three cells packed in an int
+        private final Map<Integer, long[]> openings = new HashMap<>();
+        // Blunders by the position they were made in, client bitboard and server bitboard packed in an int
+        private final Map<Integer, long[]> blunderPositions = new HashMap<>();
+        // Blunders by the engine of the server, value of CONFIG option 6
+        private final Map<Integer, long[]> engineBlunders = new HashMap<>();
+        private long games;
+        private long moves;
+        private long blunders;
+        // Records claimed but never completed, skipped by the cursors
+        private long torn;
+
+        /**
+         * Adds the game under the cursor
+         * @param cursor Cursor on a record
+         * @param search Search of the thread, used to find the blunders
+         */
+        void add(GameJournal.Cursor cursor, Search search) {
+            int size = cursor.getSize();
+            int moveCount = cursor.getMoveCount();
+            games++;
+            moves += moveCount;
+            int outcome = cursor.getOutcome();
+            if (outcome >= 0 && outcome < 3) outcomes.computeIfAbsent(cursor.getName(), name -> new long[3])[outcome]++;
+
+            int opening = size;
+            for (int i = 0; i < OPENING_MOVES; i++) opening = opening << 8 | (i < moveCount ? cursor.getMove(i) : NO_MOVE);
+            openings.computeIfAbsent(opening, key -> new long[1])[0]++;
+
+            if (size == 3 && cursor.getK() == 3) findBlunders(cursor, moveCount, search);
+        }
+
+        private void findBlunders(GameJournal.Cursor cursor, int moveCount, Search search) {
+            // Parity of the moves of the player, the client or the player of a match
+            int own = cursor.getEngine() == GameJournal.PVP_SECOND ? 1 : 0;
+            int client = 0, server = 0;
+            for (int i = 0; i < moveCount; i++) {
+                int bit = 1 << cursor.getMove(i);
+                if (i % 2 != own) {
+                    server |= bit;
+                    continue;
+                }
+                int before = Integer.signum(Search.score(search.search(client, server)));
+                int after;
+                if (Bitboard.hasLine(client | bit)) after = 1;
+                else if ((client | bit | server) == Bitboard.FULL) after = 0;
+                else after = -Integer.signum(Search.score(search.search(server, client | bit)));
+                if (after < before) {
+                    blunders++;
+                    engineBlunders.computeIfAbsent(cursor.getEngine(), key -> new long[1])[0]++;
+                    blunderPositions.computeIfAbsent(client << 9 | server, key -> new long[1])[0]++;
+                }
+                client |= bit;
+            }
+        }
+
+        /**
+         * Adds the statistics of other games
+         * @param other Statistics to add, left unchanged
+         * @return These statistics
+         */
+        Stats merge(Stats other) {
+            games += other.games;
+            moves += other.moves;
+            blunders += other.blunders;
+            torn += other.torn;
+            other.outcomes.forEach((name, counts) -> {
+                long[] total = outcomes.computeIfAbsent(name, key -> new long[3]);
+                for (int i = 0; i < 3; i++) total[i] += counts[i];
+            });
+            other.openings.forEach((key, count) -> openings.computeIfAbsent(key, k -> new long[1])[0] += count[0]);
+            other.blunderPositions.forEach((key, count) -> blunderPositions.computeIfAbsent(key, k -> new long[1])[0] += count[0]);
+            other.engineBlunders.forEach((key, count) -> engineBlunders.computeIfAbsent(key, k -> new long[1])[0] += count[0]);
+            return this;
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        /**
+         * Average game length
+         * @return Moves per game, client and server moves included
+         */
+        public double getAverageLength() {
+            return games == 0 ? 0 : (double) moves / games;
+        }
+
+        /**
+         * Outcomes of the games of a player
+         * @param name Name of the player
+         * @return Games lost, won and drawn by the player, in the order of the RESULT flags
+         */
+        public long[] getOutcomes(String name) {
+            long[] counts = outcomes.get(name);
+            return counts == null ? new long[3] : counts.clone();
+        }
+
+        public long getTorn() {
+            return torn;
+        }
+
+        public long getBlunders() {
+            return blunders;
+        }
+
+        /**
+         * Blunders made against one engine
+         * @param engine Value of CONFIG option 6, 0 for the games without an engine
+         * @return Number of blunders of the clients in the games against that engine
+         */
+        public long getBlunders(int engine) {
+            long[] count = engineBlunders.get(engine);
+            return count == null ? 0 : count[0];
+        }
+
+        /**
+         * Most common openings
+         * @param top Number of openings
+         * @return Openings as "size: moves", most common first
+         */
+        public List<String> getTopOpenings(int top) {
+            List<String> result = new ArrayList<>();
+            for (Map.Entry<Integer, long[]> entry : top(openings, top)) result.add(formatOpening(entry.getKey()));
+            return result;
+        }
+
+        /**
+         * Text report of the statistics
+         * @param top Number of players, openings and blunder positions listed
+         * @return One statistic per line
+         */
+        public String report(int top) {
+            StringBuilder report = new StringBuilder();
+            report.append("games ").append(games).append('\n');
+            if (torn > 0) report.append("torn_records ").append(torn).append('\n');
+            report.append(String.format("average_length %.2f%n", getAverageLength()));
+            List<Map.Entry<String, long[]>> players = new ArrayList<>(outcomes.entrySet());
+            players.sort(Comparator.comparingLong((Map.Entry<String, long[]> e) -> -(e.getValue()[0] + e.getValue()[1] + e.getValue()[2])));
+            for (Map.Entry<String, long[]> player : players.subList(0, Math.min(top, players.size()))) {
+                long[] counts = player.getValue();
+                report.append("outcomes{player=").append(player.getKey()).append("} server=").append(counts[0])
+                        .append(" client=").append(counts[1]).append(" draw=").append(counts[2]).append('\n');
+            }
+            for (Map.Entry<Integer, long[]> opening : top(openings, top)) {
+                report.append("opening{").append(formatOpening(opening.getKey())).append("} games=").append(opening.getValue()[0]).append('\n');
+            }
+            report.append("blunders ").append(blunders).append('\n');
+            for (Map.Entry<Integer, long[]> engine : top(engineBlunders, engineBlunders.size())) {
+                report.append("blunders{engine=").append(engineName(engine.getKey())).append("} ")
+                        .append(engine.getValue()[0]).append('\n');
+            }
+            for (Map.Entry<Integer, long[]> position : top(blunderPositions, top)) {
+                report.append("blunder{position=").append(formatPosition(position.getKey())).append("} count=")
+                        .append(position.getValue()[0]).append('\n');
+            }
+            return report.toString();
+        }
+
+        private static List<Map.Entry<Integer, long[]>> top(Map<Integer, long[]> counts, int top) {
+            List<Map.Entry<Integer, long[]>> entries = new ArrayList<>(counts.entrySet());
+            entries.sort(Comparator.comparingLong((Map.Entry<Integer, long[]> e) -> -e.getValue()[0]).thenComparing(Map.Entry::getKey));
+            return entries.subList(0, Math.min(top, entries.size()));
+        }
+
+        private static String engineName(int engine) {
+            if (engine == GameJournal.PVP_FIRST) return "pvp_first";
+            if (engine == GameJournal.PVP_SECOND) return "pvp_second";
+            GameLogic.Engine[] engines = GameLogic.Engine.values();
+            return engine > 0 && engine <= engines.length ? engines[engine - 1].name().toLowerCase() : "other";
+        }
+
+        private static String formatOpening(int opening) {
+            int size = opening >>> 8 * OPENING_MOVES;
+            StringBuilder text = new StringBuilder().append(size).append('x').append(size).append(':');
+            for (int i = OPENING_MOVES - 1; i >= 0; i--) {
+                int cell = opening >>> 8 * i & 0xFF;
+                if (cell != NO_MOVE) text.append(' ').append(Grid.formatMove(cell, size));
+            }
+            return text.toString();
+        }
+
+        /**
+         * Draws a 3x3 position in one line, rows separated by '/', X for the player who blundered
+         */
+        private static String formatPosition(int position) {
+            int client = position >>> 9, server = position & 0x1FF;
+            StringBuilder text = new StringBuilder();
+            for (int cell = 0; cell < 9; cell++) {
+                if (cell > 0 && cell % 3 == 0) text.append('/');
+                text.append((client >> cell & 1) != 0 ? 'X' : (server >> cell & 1) != 0 ? 'O' : '.');
+            }
+            return text.toString();
+        }
+    }
+
+    private final int threads;
+
+    /**
+     * Constructor
+     * @param threads Segments scanned at once
+     */
+    public JournalAnalyzer(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Scans every segment of a journal
+     * @param directory Directory of the journal
+     * @return Statistics of all the games
+     * @throws IOException If a segment cannot be read
+     */
+    public Stats analyze(Path directory) throws IOException {
+        List<Path> segments = GameJournal.segments(directory);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, segments.size())));
+        try {
+            List<Future<Stats>> partial = new ArrayList<>();
+            for (Path segment : segments) partial.add(pool.submit(() -> analyze(segment, new Search())));
+            Stats total = new Stats();
+            for (Future<Stats> stats : partial) total.merge(stats.get());
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning the journal");
+        } catch (ExecutionException e) {
+            throw new IOException("Error scanning the journal: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Scans one segment
+     * @param segment Segment file
+     * @param search Search of the thread
+     * @return Statistics of the games of the segment
+     * @throws IOException If the segment cannot be read
+     */
+    private static Stats analyze(Path segment, Search search) throws IOException {
+        Stats stats = new Stats();
+        try (GameJournal.Cursor cursor = new GameJournal.Cursor(segment)) {
+            while (cursor.next()) stats.add(cursor, search);
+            stats.torn = cursor.getTorn();
+        }
+        return stats;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length % 2 != 0 || !args[0].equals("-j")) {
+            throw new IllegalArgumentException("Wrong arguments.\n" + INIT_ERROR);
+        }
+        int threads = Runtime.getRuntime().availableProcessors(), top = 10;
+        try {
+            for (int i = 2; i < args.length; i += 2) {
+                switch (args[i]) {
+                    case "-t": threads = Integer.parseInt(args[i + 1]); break;
+                    case "-n": top = Integer.parseInt(args[i + 1]); break;
+                    default: throw new IllegalArgumentException("Wrong argument keyword.\n" + INIT_ERROR);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Numeric options should be numbers.\n" + INIT_ERROR);
+        }
+        long start = System.nanoTime();
+        Stats stats = new JournalAnalyzer(threads).analyze(Paths.get(args[1]));
+        System.out.print(stats.report(top));
+        System.out.printf("scan_seconds %.2f%n", (System.nanoTime() - start) / 1e9);
+    }
+}
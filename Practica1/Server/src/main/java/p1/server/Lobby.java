@@ -0,0 +1,57 @@
+package p1.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Matchmaking of the players who want a human opponent.
+ * Each bucket, a board variant and the group chosen by the client, has a single waiting slot: a
+ * player who finds it empty takes it and waits, the next one takes the waiting player out with one
+ * compare-and-set and starts the match. Matching is O(1), lock-free, and players of different
+ * buckets never touch the same slot.
+ */
+public final class Lobby {
+    private final ConcurrentHashMap<Integer, AtomicReference<GameProtocol>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Joins a bucket
+     * @param bucket Bucket of the player
+     * @param player Protocol of the player
+     * @return Opponent that was waiting, or null if the player now waits in the bucket
+     */
+    GameProtocol join(int bucket, GameProtocol player) {
+        AtomicReference<GameProtocol> slot = buckets.get(bucket);
+        if (slot == null) slot = buckets.computeIfAbsent(bucket, key -> new AtomicReference<>());
+        while (true) {
+            GameProtocol waiting = slot.get();
+            if (waiting == player) return null;
+            if (waiting == null) {
+                if (slot.compareAndSet(null, player)) return null;
+            } else if (slot.compareAndSet(waiting, null)) {
+                return waiting;
+            }
+        }
+    }
+
+    /**
+     * Stops waiting, nothing happens if an opponent has already taken the player
+     * @param bucket Bucket of the player
+     * @param player Protocol of the player
+     */
+    void leave(int bucket, GameProtocol player) {
+        AtomicReference<GameProtocol> slot = buckets.get(bucket);
+        if (slot != null) slot.compareAndSet(player, null);
+    }
+
+    /**
+     * Players waiting for an opponent
+     * @return Number of players, read slot by slot
+     */
+    public int waiting() {
+        int waiting = 0;
+        for (AtomicReference<GameProtocol> slot : buckets.values()) {
+            if (slot.get() != null) waiting++;
+        }
+        return waiting;
+    }
+}
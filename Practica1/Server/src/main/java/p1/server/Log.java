@@ -0,0 +1,280 @@
+package p1.server;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous server log.
+ * A handler thread only claims a slot of a lock-free ring buffer and fills in the fields of its event,
+ * a background thread formats the events and writes them in batches, so game threads never wait for
+ * the console nor for each other. Events that find the ring full are dropped and counted.
+ * An idle writer parks until the next event is published, the producer that finds it asleep unparks it.
+ * Boards are DEBUG events and are left out at the default INFO level.
+ */
+public final class Log {
+    /**
+     * Severity of an event, events below the current level are discarded by the caller
+     */
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        // Nothing is logged
+        OFF
+    }
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+    // Characters collected before the writer prints a batch
+    private static final int BATCH = 8192;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Longest sleep of an idle writer, a safety net, producers wake it up as soon as they publish
+    private static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final Event[] EVENTS = new Event[CAPACITY];
+    // Sequence of every slot: the claim number that may take it while free, claim number + 1 once published
+    private static final AtomicLongArray SEQUENCES = new AtomicLongArray(CAPACITY);
+    // Next claim number
+    private static final AtomicLong TAIL = new AtomicLong();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static volatile Level level = Level.INFO;
+    private static volatile PrintStream out = System.out;
+    private static volatile PrintStream err = System.err;
+    // Events already printed, updated by the writer after each batch
+    private static volatile long written;
+    private static final Thread WRITER;
+    // Set by the writer before it parks, read by the producers after they publish
+    private static volatile boolean sleeping;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            EVENTS[i] = new Event();
+            SEQUENCES.set(i, i);
+        }
+        WRITER = new Thread(Log::write, "log-writer");
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
+
+    private Log() {
+    }
+
+    public static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    public static boolean isEnabled(Level eventLevel) {
+        return eventLevel.ordinal() >= level.ordinal();
+    }
+
+    /**
+     * Sends the log to other streams, WARN and ERROR events go to err
+     * @param out Stream for DEBUG and INFO events
+     * @param err Stream for WARN and ERROR events
+     */
+    public static void setOutput(PrintStream out, PrintStream err) {
+        flush();
+        Log.out = out;
+        Log.err = err;
+    }
+
+    public static void debug(String text) {
+        log(Level.DEBUG, 0, text, null);
+    }
+
+    public static void debug(int session, String text, String detail) {
+        log(Level.DEBUG, session, text, detail);
+    }
+
+    public static void info(String text) {
+        log(Level.INFO, 0, text, null);
+    }
+
+    public static void info(int session, String text, String detail) {
+        log(Level.INFO, session, text, detail);
+    }
+
+    public static void warn(String text) {
+        log(Level.WARN, 0, text, null);
+    }
+
+    public static void warn(int session, String text, String detail) {
+        log(Level.WARN, session, text, detail);
+    }
+
+    public static void error(String text) {
+        log(Level.ERROR, 0, text, null);
+    }
+
+    public static void error(int session, String text, String detail) {
+        log(Level.ERROR, session, text, detail);
+    }
+
+    /**
+     * Logs a 3x3 board at DEBUG level, it is drawn by the writer thread
+     * @param clientBoard Bitboard of the client, drawn as X
+     * @param serverBoard Bitboard of the server, drawn as O
+     */
+    public static void board(int clientBoard, int serverBoard) {
+        Event event = claim(Level.DEBUG);
+        if (event == null) return;
+        event.session = 0;
+        event.text = "Board";
+        event.detail = null;
+        event.board = true;
+        event.clientBoard = clientBoard;
+        event.serverBoard = serverBoard;
+        publish(event);
+    }
+
+    /**
+     * Waits until the events logged so far have been printed, for at most a second
+     */
+    public static void flush() {
+        long target = TAIL.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (written < target && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Events dropped because the ring was full, since the last report of the writer
+     * @return Dropped events not reported yet
+     */
+    public static long dropped() {
+        return DROPPED.sum();
+    }
+
+    private static void log(Level eventLevel, int session, String text, String detail) {
+        Event event = claim(eventLevel);
+        if (event == null) return;
+        event.session = session;
+        event.text = text;
+        event.detail = detail;
+        event.board = false;
+        publish(event);
+    }
+
+    /**
+     * Claims the next free slot of the ring
+     * @param eventLevel Level of the event
+     * @return Event to fill in and publish, null if the level is disabled or the ring is full
+     */
+    private static Event claim(Level eventLevel) {
+        if (eventLevel.ordinal() < level.ordinal()) return null;
+        while (true) {
+            long claim = TAIL.get();
+            long sequence = SEQUENCES.get((int) claim & MASK);
+            if (sequence == claim) {
+                if (TAIL.compareAndSet(claim, claim + 1)) {
+                    Event event = EVENTS[(int) claim & MASK];
+                    event.claim = claim;
+                    event.level = eventLevel;
+                    event.time = System.currentTimeMillis();
+                    return event;
+                }
+            } else if (sequence < claim) {
+                // The writer has not freed this slot since the last lap
+                DROPPED.increment();
+                return null;
+            }
+            // Otherwise another thread took the slot first, try the next one
+        }
+    }
+
+    /**
+     * Publishes a filled event, and wakes the writer up if it was asleep.
+     * The sequence is a volatile write before the read of the flag, and the writer sets the flag
+     * before it reads the sequence again, so one of the two always sees the other
+     */
+    private static void publish(Event event) {
+        SEQUENCES.set((int) event.claim & MASK, event.claim + 1);
+        if (sleeping) LockSupport.unpark(WRITER);
+    }
+
+    /**
+     * Body of the writer thread, the only consumer of the ring
+     */
+    private static void write() {
+        StringBuilder batch = new StringBuilder(BATCH * 2);
+        StringBuilder errors = new StringBuilder();
+        long head = 0;
+        while (true) {
+            int index = (int) head & MASK;
+            if (SEQUENCES.get(index) != head + 1 || batch.length() >= BATCH) {
+                long dropped = DROPPED.sumThenReset();
+                if (dropped > 0) errors.append(dropped).append(" log events dropped, the log ring was full\n");
+                print(batch, out);
+                print(errors, err);
+                written = head;
+                if (SEQUENCES.get(index) != head + 1) {
+                    sleeping = true;
+                    if (SEQUENCES.get(index) != head + 1) LockSupport.parkNanos(MAX_PARK_NANOS);
+                    sleeping = false;
+                }
+                continue;
+            }
+            Event event = EVENTS[index];
+            format(event, event.level.ordinal() >= Level.WARN.ordinal() ? errors : batch);
+            event.text = null;
+            event.detail = null;
+            SEQUENCES.lazySet(index, head + CAPACITY);
+            head++;
+        }
+    }
+
+    private static void print(StringBuilder text, PrintStream stream) {
+        if (text.length() == 0) return;
+        stream.print(text);
+        stream.flush();
+        text.setLength(0);
+    }
+
+    private static void format(Event event, StringBuilder line) {
+        TIME.formatTo(Instant.ofEpochMilli(event.time), line);
+        line.append(' ').append(event.level);
+        if (event.session != 0) line.append(" [").append(event.session).append(']');
+        line.append(' ').append(event.text);
+        if (event.detail != null) line.append(' ').append(event.detail);
+        line.append('\n');
+        if (event.board) appendBoard(line, event.clientBoard, event.serverBoard);
+    }
+
+    private static void appendBoard(StringBuilder line, int clientBoard, int serverBoard) {
+        for (int i = 0; i < 3; i++) {
+            if (i > 0) line.append("-------------\n");
+            line.append("| ");
+            for (int j = 0; j < 3; j++) {
+                int bit = 1 << (i * 3 + j);
+                line.append((clientBoard & bit) != 0 ? "X | " : (serverBoard & bit) != 0 ? "O | " : "  | ");
+            }
+            line.append('\n');
+        }
+    }
+
+    /**
+     * Slot of the ring, reused for every event that lands on it
+     */
+    private static final class Event {
+        long claim;
+        Level level;
+        long time;
+        int session;
+        String text;
+        String detail;
+        boolean board;
+        int clientBoard;
+        int serverBoard;
+    }
+}
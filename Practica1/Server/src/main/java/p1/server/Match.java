@@ -0,0 +1,126 @@
+package p1.server;
+
+import utils.engine.Grid;
+
+/**
+ * Game between two clients, shared by their protocols.
+ * The first player moves first. Each move is checked and played under the lock of the match,
+ * so the two connections only contend with each other.
+ */
+final class Match {
+    // Results of play(), the errors are the codes of the ERROR message
+    static final int MOVED = -1;
+    static final int WON = -2;
+    static final int DRAW = -3;
+    static final int UNKNOWN_MOVE = 0;
+    static final int OCCUPIED = 1;
+    static final int NOT_YOUR_TURN = 4;
+
+    private final GameProtocol[] players;
+    private final Grid grid;
+    // Cells in the order they were played, for the journal
+    private final byte[] moves;
+    private int moveCount;
+    private final long startedAt = System.currentTimeMillis();
+    // Index of the player to move
+    private int turn;
+    private boolean ended;
+
+    /**
+     * Constructor
+     * @param first Player who moves first
+     * @param second Other player
+     * @param size Board size
+     * @param k Marks in a row needed to win
+     */
+    Match(GameProtocol first, GameProtocol second, int size, int k) {
+        this.players = new GameProtocol[]{first, second};
+        this.grid = new Grid(size, k);
+        this.moves = new byte[size * size];
+    }
+
+    /**
+     * Plays a move
+     * @param player Protocol of the player that sent it
+     * @param cell Index of the cell
+     * @return MOVED, WON or DRAW if the move is played, or the code of the error
+     */
+    synchronized int play(GameProtocol player, int cell) {
+        if (ended || players[turn] != player) return NOT_YOUR_TURN;
+        if (cell < 0 || cell >= grid.size() * grid.size()) return UNKNOWN_MOVE;
+        if (grid.get(cell) != 0) return OCCUPIED;
+        boolean won = grid.play(cell, turn + 1);
+        moves[moveCount++] = (byte) cell;
+        if (won || grid.isFull()) {
+            ended = true;
+            return won ? WON : DRAW;
+        }
+        turn ^= 1;
+        return MOVED;
+    }
+
+    /**
+     * Ends the match because a player left
+     * @param leaver Protocol of the player who left
+     * @return Opponent, who wins, or null if the match had already ended
+     */
+    synchronized GameProtocol forfeit(GameProtocol leaver) {
+        if (ended) return null;
+        ended = true;
+        return opponent(leaver);
+    }
+
+    /**
+     * Gives the place of a player to the connection that took its session over
+     * @param previous Protocol of the player until now
+     * @param next Protocol of the player from now on
+     */
+    synchronized void replace(GameProtocol previous, GameProtocol next) {
+        for (int i = 0; i < players.length; i++) {
+            if (players[i] == previous) players[i] = next;
+        }
+    }
+
+    /**
+     * Other player of the match
+     * @param player Protocol of one player
+     * @return Protocol of the other one
+     */
+    synchronized GameProtocol opponent(GameProtocol player) {
+        return players[0] == player ? players[1] : players[0];
+    }
+
+    /**
+     * Checks who moved first
+     * @param player Protocol of one player
+     * @return True if the player moved first
+     */
+    synchronized boolean movedFirst(GameProtocol player) {
+        return players[0] == player;
+    }
+
+    int getSize() {
+        return grid.size();
+    }
+
+    int getK() {
+        return grid.k();
+    }
+
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    synchronized int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Move of the match
+     * @param index Number of the move, even for the player who moved first
+     * @return Index of the cell marked
+     */
+    synchronized int getMove(int index) {
+        return moves[index] & 0xFF;
+    }
+}
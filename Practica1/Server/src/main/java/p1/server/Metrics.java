@@ -0,0 +1,239 @@
+package p1.server;
+
+import com.sun.net.httpserver.HttpServer;
+import utils.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server metrics.
+ * Counters are LongAdders and latencies go to LatencyHistograms, so the game threads record them
+ * without locks. The text report can be logged periodically and served over HTTP on the loopback
+ * interface, for instance with curl http://localhost:port/metrics
+ */
+public final class Metrics {
+    private static final String[] OPCODES = {"UNKNOWN", "HELLO", "READY", "PLAY", "ADMIT", "ACTION", "RESULT", "CONFIG", "ERROR", "WATCH"};
+
+    private static final LongAdder ACTIVE_SESSIONS = new LongAdder();
+    private static final LongAdder SESSIONS = new LongAdder();
+    private static final LongAdder GAMES_STARTED = new LongAdder();
+    // Games ended by RESULT flag: server won, client won, draw
+    private static final LongAdder[] GAMES_ENDED = {new LongAdder(), new LongAdder(), new LongAdder()};
+    private static final LongAdder MOVES = new LongAdder();
+    private static final LongAdder ERRORS_SENT = new LongAdder();
+    private static final LongAdder REJECTED = new LongAdder();
+    private static final LongAdder SHED = new LongAdder();
+    private static final LongAdder RESUMED = new LongAdder();
+    private static final LongAdder SPECTATORS_DROPPED = new LongAdder();
+    // Values read when the report is made, such as queue lengths, by name
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+    // Nanoseconds to read and handle a message by opcode, the server move included
+    private static final LatencyHistogram[] HANDLE_TIME = new LatencyHistogram[OPCODES.length];
+    private static final LatencyHistogram SERVER_MOVE_TIME = new LatencyHistogram();
+    private static final LatencyHistogram WRITE_TIME = new LatencyHistogram();
+    private static final long START = System.nanoTime();
+
+    // Moves per second over the last sampling second, updated by the sampler thread
+    private static volatile double movesPerSecond;
+    private static ScheduledExecutorService sampler;
+    private static long sampledMoves;
+
+    static {
+        for (int i = 0; i < HANDLE_TIME.length; i++) HANDLE_TIME[i] = new LatencyHistogram();
+    }
+
+    private Metrics() {
+    }
+
+    public static void sessionOpened() {
+        ACTIVE_SESSIONS.increment();
+        SESSIONS.increment();
+    }
+
+    public static void sessionClosed() {
+        ACTIVE_SESSIONS.decrement();
+    }
+
+    public static void gameStarted() {
+        GAMES_STARTED.increment();
+    }
+
+    /**
+     * Counts a finished game
+     * @param flag Flag of the RESULT message: 0 server won, 1 client won, 2 draw
+     */
+    public static void gameEnded(int flag) {
+        GAMES_ENDED[flag].increment();
+    }
+
+    public static void move() {
+        MOVES.increment();
+    }
+
+    public static void errorSent() {
+        ERRORS_SENT.increment();
+    }
+
+    public static void sessionRejected() {
+        REJECTED.increment();
+    }
+
+    public static void sessionShed() {
+        SHED.increment();
+    }
+
+    public static void sessionResumed() {
+        RESUMED.increment();
+    }
+
+    /**
+     * Counts a spectator dropped because it could not keep up with its session
+     */
+    public static void spectatorDropped() {
+        SPECTATORS_DROPPED.increment();
+    }
+
+    /**
+     * Adds a value to the report, read every time the report is made
+     * @param name Name in the report, a gauge with the same name is replaced
+     * @param value Current value
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * Records the time spent on a message
+     * @param opcode Opcode of the message
+     * @param nanos Time to read and handle it
+     */
+    public static void handled(byte opcode, long nanos) {
+        HANDLE_TIME[opcode > 0 && opcode < OPCODES.length ? opcode : 0].record(nanos);
+    }
+
+    public static void serverMoveTime(long nanos) {
+        SERVER_MOVE_TIME.record(nanos);
+    }
+
+    public static void writeTime(long nanos) {
+        WRITE_TIME.record(nanos);
+    }
+
+    public static long activeSessions() {
+        return ACTIVE_SESSIONS.sum();
+    }
+
+    public static long gamesStarted() {
+        return GAMES_STARTED.sum();
+    }
+
+    public static long moves() {
+        return MOVES.sum();
+    }
+
+    public static long rejected() {
+        return REJECTED.sum();
+    }
+
+    public static long shed() {
+        return SHED.sum();
+    }
+
+    public static long resumed() {
+        return RESUMED.sum();
+    }
+
+    public static long spectatorsDropped() {
+        return SPECTATORS_DROPPED.sum();
+    }
+
+    /**
+     * Text report of every metric, one per line, times in microseconds
+     * @return Report
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        double uptime = (System.nanoTime() - START) / 1e9;
+        report.append(String.format("uptime_seconds %.1f%n", uptime));
+        report.append("sessions_active ").append(ACTIVE_SESSIONS.sum()).append('\n');
+        report.append("sessions_total ").append(SESSIONS.sum()).append('\n');
+        report.append("games_started ").append(GAMES_STARTED.sum()).append('\n');
+        report.append("games_won_server ").append(GAMES_ENDED[0].sum()).append('\n');
+        report.append("games_won_client ").append(GAMES_ENDED[1].sum()).append('\n');
+        report.append("games_drawn ").append(GAMES_ENDED[2].sum()).append('\n');
+        report.append("moves ").append(MOVES.sum()).append('\n');
+        report.append(String.format("moves_per_second %.1f%n", sampler == null ? MOVES.sum() / uptime : movesPerSecond));
+        report.append("errors_sent ").append(ERRORS_SENT.sum()).append('\n');
+        report.append("sessions_rejected ").append(REJECTED.sum()).append('\n');
+        report.append("sessions_shed ").append(SHED.sum()).append('\n');
+        report.append("sessions_resumed ").append(RESUMED.sum()).append('\n');
+        report.append("spectators_dropped ").append(SPECTATORS_DROPPED.sum()).append('\n');
+        for (Map.Entry<String, LongSupplier> gauge : GAUGES.entrySet()) {
+            report.append(gauge.getKey()).append(' ').append(gauge.getValue().getAsLong()).append('\n');
+        }
+        for (int i = 0; i < OPCODES.length; i++) {
+            if (HANDLE_TIME[i].count() == 0) continue;
+            report.append("handle_us{opcode=").append(OPCODES[i]).append("} ").append(HANDLE_TIME[i].summary(1000, "")).append('\n');
+        }
+        report.append("server_move_us ").append(SERVER_MOVE_TIME.summary(1000, "")).append('\n');
+        report.append("write_us ").append(WRITE_TIME.summary(1000, "")).append('\n');
+        return report.toString();
+    }
+
+    /**
+     * Logs the report every period and keeps the moves per second up to date
+     * @param seconds Seconds between two reports, 0 to only sample the moves per second
+     */
+    public static synchronized void startDump(long seconds) {
+        startSampler();
+        if (seconds > 0) sampler.scheduleAtFixedRate(() -> Log.info("Metrics\n" + report()), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Serves the report over HTTP on the loopback interface
+     * @param port Port of the endpoint, the report is at /metrics
+     * @return Started server
+     * @throws IOException If the port cannot be bound
+     */
+    public static HttpServer serve(int port) throws IOException {
+        startDump(0);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = report().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        Log.info("Metrics at http://localhost:" + server.getAddress().getPort() + "/metrics");
+        return server;
+    }
+
+    private static void startSampler() {
+        if (sampler != null) return;
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampledMoves = MOVES.sum();
+        sampler.scheduleAtFixedRate(() -> {
+            long moves = MOVES.sum();
+            movesPerSecond = moves - sampledMoves;
+            sampledMoves = moves;
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,257 @@
+package p1.server;
+
+import utils.ComUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * One client of the NIO server.
+ * Incoming bytes are collected until a whole message is available, then the message is handed to
+ * the same GameProtocol used by the blocking server through a ComUtils that reads from the input
+ * buffer and writes to the output buffer, so both servers speak exactly the same protocol.
+ * A connection that watches a session writes the shared frames of its subscription straight from
+ * their read-only views, after the replies.
+ */
+final class NioConnection implements Admission.Session {
+    private static final int INITIAL_BUFFER = 256;
+    // Longest message accepted, player names and error messages included
+    private static final int MAX_MESSAGE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final GameProtocol protocol;
+    private final Admission admission;
+    // Hands the connection to its event loop, the only thread that touches the channel and the protocol
+    private final Consumer<NioConnection> schedule;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // Set by another thread, the event loop closes the connection on its next flush
+    private volatile boolean closing;
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER);
+    // Frame of the subscription partly written, null if there is none
+    private ByteBuffer frame;
+    private volatile long lastActivity;
+
+    /**
+     * Constructor
+     * @param channel Non-blocking channel of the client
+     * @param key Key of the channel in its event loop
+     * @param admission Admission control that gave the client its slot
+     * @param context Services of the server shared by its sessions
+     * @param schedule Hands the connection to its event loop to be flushed, from any thread
+     * @throws IOException If an I/O error occurs
+     */
+    NioConnection(SocketChannel channel, SelectionKey key, Admission admission, ServerContext context,
+                  Consumer<NioConnection> schedule) throws IOException {
+        this.channel = channel;
+        this.key = key;
+        this.admission = admission;
+        this.schedule = schedule;
+        this.protocol = new GameProtocol(null, new ComUtils(new MessageInput(), new MessageOutput()), context);
+        // The loop writes the frames of a subscription, and closes the connection when it is dropped
+        // or when its session is taken over
+        protocol.setConnection(() -> schedule.accept(this), this::hangUp);
+        this.lastActivity = System.currentTimeMillis();
+        Metrics.sessionOpened();
+        admission.track(this);
+    }
+
+    /**
+     * Reads what the client sent and handles every complete message
+     * @return False if the client closed the connection
+     * @throws IOException If an I/O error occurs
+     */
+    boolean onReadable() throws IOException {
+        if (channel.read(in) == -1) return false;
+        lastActivity = System.currentTimeMillis();
+        in.flip();
+        int length;
+        while ((length = FrameDecoder.frameLength(in, moveWidth())) != -1) {
+            int end = in.position() + length;
+            protocol.handleMessage(in.get());
+            in.position(end);
+        }
+        in.compact();
+        if (!in.hasRemaining()) {
+            if (in.capacity() >= MAX_MESSAGE) throw new IOException("Message too long");
+            in = grow(in, in.capacity() * 2);
+        }
+        return flush();
+    }
+
+    /**
+     * Width of the positions of the message at the position of the input buffer,
+     * which depends on the session of the message when the connection is multiplexed
+     * @return Bytes of a position
+     */
+    private int moveWidth() {
+        return protocol.moveWidth(in.remaining() >= 5 ? in.getInt(in.position() + 1) : 0);
+    }
+
+    /**
+     * Writes the pending replies, then the frames of the subscription, waiting for the channel
+     * to be writable if they do not fit
+     * @return True, the connection stays open
+     * @throws IOException If an I/O error occurs, the subscription has ended or the connection has to be closed
+     */
+    boolean flush() throws IOException {
+        if (closing) throw new IOException("Connection closed by the server");
+        out.flip();
+        if (out.hasRemaining()) {
+            long start = System.nanoTime();
+            channel.write(out);
+            Metrics.writeTime(System.nanoTime() - start);
+        }
+        out.compact();
+        boolean pending = out.position() > 0;
+        Spectator spectator = protocol.getSpectator();
+        if (!pending && spectator != null) pending = !writeFrames(spectator);
+        key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        return true;
+    }
+
+    /**
+     * Writes the queued frames of a subscription
+     * @param spectator Subscription of the connection
+     * @return True if every frame has been written, false if the channel is full
+     * @throws IOException If an I/O error occurs, or the subscription has ended
+     */
+    private boolean writeFrames(Spectator spectator) throws IOException {
+        if (spectator.isDropped()) throw new IOException("Spectator too slow");
+        while (true) {
+            if (frame == null) {
+                Frame next = spectator.poll();
+                if (next == null) return true;
+                frame = next.buffer();
+            }
+            channel.write(frame);
+            if (frame.hasRemaining()) return false;
+            frame = null;
+            lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Checks if the client has been silent for too long
+     * @param now Current time in milliseconds
+     * @return True if the client should be disconnected
+     */
+    boolean isIdle(long now) {
+        // A spectator only reads, and the game it watches can be quiet for longer than the timeout
+        if (protocol.getSpectator() != null) return false;
+        return now - lastActivity > GameProtocol.IDLE_TIMEOUT;
+    }
+
+    /**
+     * Closes the connection and frees its slot, only the first call has an effect.
+     * Called only from the event loop, so the protocol is never detached while it handles a message
+     */
+    void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        protocol.detach();
+        Metrics.sessionClosed();
+        admission.release(this);
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.error(0, "Error closing connection:", e.getMessage());
+        }
+        Log.info("Client disconnected");
+    }
+
+    @Override
+    public long lastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Asks the event loop to close the connection, called from the accepting thread
+     */
+    @Override
+    public void shed() {
+        hangUp();
+    }
+
+    /**
+     * Asks the event loop to close the connection, from any thread
+     */
+    private void hangUp() {
+        closing = true;
+        schedule.accept(this);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    /**
+     * Reads the message being handled from the input buffer
+     */
+    private final class MessageInput extends InputStream {
+        @Override
+        public int read() {
+            return in.hasRemaining() ? in.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) return 0;
+            if (!in.hasRemaining()) return -1;
+            int count = Math.min(length, in.remaining());
+            in.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return in.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int limit) {
+            in.mark();
+        }
+
+        @Override
+        public void reset() {
+            in.reset();
+        }
+    }
+
+    /**
+     * Appends the replies to the output buffer
+     */
+    private final class MessageOutput extends OutputStream {
+        @Override
+        public void write(int b) {
+            ensure(1);
+            out.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            out.put(bytes, offset, length);
+        }
+
+        private void ensure(int bytes) {
+            if (out.remaining() < bytes) out = grow(out, Math.max(out.capacity() * 2, out.position() + bytes));
+        }
+    }
+}
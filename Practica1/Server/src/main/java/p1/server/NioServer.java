@@ -0,0 +1,199 @@
+package p1.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking server core.
+ * One thread accepts the clients and hands them round-robin to a small fixed set of event loops,
+ * each one a thread with its own Selector that serves all of its clients without blocking.
+ */
+public class NioServer {
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final ServerConfig config;
+    private final Admission admission;
+    private final ServerContext context;
+
+    /**
+     * Constructor
+     * Opens the server channel
+     * @param config Settings of the server
+     * @param eventLoops Number of event loop threads
+     */
+    public NioServer(ServerConfig config, int eventLoops) {
+        this(config, eventLoops, new ServerContext(config.getEngine()));
+    }
+
+    /**
+     * Constructor
+     * Opens the server channel
+     * @param config Settings of the server
+     * @param eventLoops Number of event loop threads
+     * @param context Services of the server shared by its sessions, without lobby as the event
+     *                loops do not relay moves between clients
+     * @throws IllegalArgumentException If the engine of the server is MCTS, too slow for an event loop
+     */
+    public NioServer(ServerConfig config, int eventLoops, ServerContext context) {
+        if (context.getEngine() == GameLogic.Engine.MCTS) {
+            throw new IllegalArgumentException("The mcts engine is not served in nio mode, use threads or virtual.");
+        }
+        this.config = config;
+        // The event loops compute the server moves themselves, only the quick ones are allowed
+        this.context = context.setInlineMoves(true);
+        this.admission = new Admission(config.getMaxConnections(), config.getOverloadPolicy());
+        Metrics.gauge("sessions_registered", context.getRegistry()::size);
+        int port = config.getPort();
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            loops = new EventLoop[eventLoops];
+            for (int i = 0; i < eventLoops; i++) loops[i] = new EventLoop(Selector.open());
+            Log.info("Server up & listening on port " + port + " with " + eventLoops + " event loops...\nPress Cntrl + C to stop.");
+        } catch (IOException e) {
+            throw new RuntimeException("I/O error when opening the Server Socket:\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts the event loops and accepts clients forever
+     */
+    public void run() {
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "event-loop-" + i);
+            thread.start();
+        }
+        int next = 0;
+        while (true) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                if (!admission.acquire()) {
+                    // Still blocking, the socket adaptor can write the ERROR message
+                    Admission.reject(channel.socket());
+                    continue;
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                throw new RuntimeException("I/O error when accepting a client:\n" + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for a free slot:\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Thread serving the clients registered in its selector
+     */
+    private final class EventLoop implements Runnable {
+        // Milliseconds between two checks for idle clients
+        private static final long IDLE_CHECK = 1000;
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        // Connections with frames to write, handed over by the threads of the sessions they watch
+        private final Queue<NioConnection> scheduled = new ConcurrentLinkedQueue<>();
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Hands a new client to this loop, called from the accepting thread
+         * @param channel Non-blocking channel of the client
+         */
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Asks this loop to flush a connection, called from any thread
+         * @param connection Connection of this loop
+         */
+        void schedule(NioConnection connection) {
+            scheduled.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long nextIdleCheck = System.currentTimeMillis() + IDLE_CHECK;
+            while (true) {
+                try {
+                    selector.select(IDLE_CHECK);
+                    registerPending();
+                    flushScheduled();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now >= nextIdleCheck) {
+                        closeIdle(now);
+                        nextIdleCheck = now + IDLE_CHECK;
+                    }
+                } catch (IOException e) {
+                    Log.error(0, "Error in event loop:", e.getMessage());
+                }
+            }
+        }
+
+        private void registerPending() throws IOException {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new NioConnection(channel, key, admission, context, this::schedule));
+                    Log.info("Client accepted");
+                } catch (ClosedChannelException e) {
+                    admission.release(null);
+                    Log.info("Client disconnected");
+                }
+            }
+        }
+
+        private void flushScheduled() {
+            NioConnection connection;
+            while ((connection = scheduled.poll()) != null) {
+                try {
+                    connection.flush();
+                } catch (IOException | RuntimeException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                boolean open = true;
+                if (key.isValid() && key.isReadable()) open = connection.onReadable();
+                if (open && key.isValid() && key.isWritable()) open = connection.flush();
+                if (!open) connection.close();
+            } catch (IOException | RuntimeException e) {
+                connection.close();
+            }
+        }
+
+        private void closeIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                NioConnection connection = (NioConnection) key.attachment();
+                if (connection != null && connection.isIdle(now)) connection.close();
+            }
+        }
+    }
+}
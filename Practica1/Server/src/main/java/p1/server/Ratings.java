@@ -0,0 +1,262 @@
+package p1.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Elo ratings of the players, by the name of their HELLO.
+ * The ratings are immutable entries kept in a map by name and in a skip list ordered by rating,
+ * which is the leaderboard: an update replaces the entry of each player in both, and the top
+ * players are read from the head of the skip list without sorting anybody.
+ * The games against the server rate the player against the rating of the server, which is not a
+ * player of the leaderboard: its changes are summed in an adder, so the games of all the clients
+ * against the server never wait for each other on one entry.
+ * <p>
+ * Snapshot: int MAGIC, int count, then for each player, best first, short name length, name in
+ * latin1, float rating and int games. The server, once it has played, is the last entry, named SERVER. It is written to a temporary file and moved over the
+ * previous one, so a crash leaves either the old snapshot or the new one.
+ */
+public final class Ratings {
+    public static final double INITIAL_RATING = 1500;
+    // Largest change of a rating in one game
+    public static final double K_FACTOR = 32;
+    // Name of the rating of the server
+    public static final String SERVER = "@server";
+    private static final int MAGIC = 0x454C4F31;
+    private static final int MAX_NAME = 0xFFFF;
+    // Best rating first, the name breaks the ties so that two players are never equal
+    private static final Comparator<Rating> LEADERBOARD = Comparator.comparingDouble((Rating r) -> -r.rating).thenComparing(r -> r.name);
+
+    /**
+     * Rating of a player after some games
+     */
+    public static final class Rating {
+        private final String name;
+        private final double rating;
+        private final int games;
+
+        private Rating(String name, double rating, int games) {
+            this.name = name;
+            this.rating = rating;
+            this.games = games;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getRating() {
+            return rating;
+        }
+
+        public int getGames() {
+            return games;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Rating> players = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Rating> leaderboard = new ConcurrentSkipListSet<>(LEADERBOARD);
+    // Rating of the server, as the sum of its changes since INITIAL_RATING
+    private final DoubleAdder serverChange = new DoubleAdder();
+    private final LongAdder serverGames = new LongAdder();
+    // Games rated, the snapshots are only written when it changes
+    private final AtomicLong updates = new AtomicLong();
+    private ScheduledExecutorService snapshots;
+
+    /**
+     * Rates a game
+     * @param first Name of a player
+     * @param second Name of the other player
+     * @param score Score of the first player: 1 won, 0.5 draw, 0 lost
+     */
+    public void record(String first, String second, double score) {
+        if (first == null || second == null || first.equals(second)) return;
+        double expected = 1 / (1 + Math.pow(10, (rating(second) - rating(first)) / 400));
+        double change = K_FACTOR * (score - expected);
+        adjust(first, change);
+        adjust(second, -change);
+        updates.incrementAndGet();
+    }
+
+    /**
+     * Changes the rating of a player, the map locks the player meanwhile.
+     * The server only adds the change to its adder
+     */
+    private void adjust(String name, double change) {
+        if (SERVER.equals(name)) {
+            serverChange.add(change);
+            serverGames.increment();
+            return;
+        }
+        players.compute(name, (key, old) -> {
+            Rating updated = old == null
+                    ? new Rating(key, INITIAL_RATING + change, 1)
+                    : new Rating(key, old.rating + change, old.games + 1);
+            if (old != null) leaderboard.remove(old);
+            leaderboard.add(updated);
+            return updated;
+        });
+    }
+
+    /**
+     * Rating of a player
+     * @param name Name of the player
+     * @return Rating, INITIAL_RATING if the player has not been rated
+     */
+    public double rating(String name) {
+        if (SERVER.equals(name)) return INITIAL_RATING + serverChange.sum();
+        Rating rating = players.get(name);
+        return rating == null ? INITIAL_RATING : rating.rating;
+    }
+
+    /**
+     * Entry of a player
+     * @param name Name of the player, or SERVER
+     * @return Rating and games, or null if the player has not been rated
+     */
+    public Rating get(String name) {
+        if (SERVER.equals(name)) {
+            long games = serverGames.sum();
+            return games == 0 ? null : new Rating(SERVER, rating(SERVER), (int) games);
+        }
+        return players.get(name);
+    }
+
+    /**
+     * Best players
+     * @param count Number of players
+     * @return Up to count ratings, best first
+     */
+    public List<Rating> top(int count) {
+        List<Rating> top = new ArrayList<>(Math.min(count, 64));
+        Iterator<Rating> iterator = leaderboard.iterator();
+        while (top.size() < count && iterator.hasNext()) top.add(iterator.next());
+        return top;
+    }
+
+    /**
+     * Rated players
+     * @return Number of players, the server not included
+     */
+    public int size() {
+        return players.size();
+    }
+
+    /**
+     * Text leaderboard
+     * @param count Number of players listed
+     * @return One player per line: position, name, rating and games
+     */
+    public String report(int count) {
+        StringBuilder report = new StringBuilder();
+        int position = 0;
+        for (Rating rating : top(count)) {
+            report.append(++position).append(' ').append(rating.name)
+                    .append(String.format(" %.0f", rating.rating)).append(" games=").append(rating.games).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes a snapshot of the ratings
+     * @param file Snapshot file, replaced
+     * @throws IOException If an I/O error occurs
+     */
+    public void save(Path file) throws IOException {
+        // From the map, an update is never missing from it while it moves in the leaderboard
+        List<Rating> ratings = new ArrayList<>(players.values());
+        ratings.sort(LEADERBOARD);
+        Rating server = get(SERVER);
+        if (server != null) ratings.add(server);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(ratings.size());
+            for (Rating rating : ratings) {
+                byte[] name = rating.name.getBytes(StandardCharsets.ISO_8859_1);
+                int length = Math.min(name.length, MAX_NAME);
+                out.writeShort(length);
+                out.write(name, 0, length);
+                out.writeFloat((float) rating.rating);
+                out.writeInt(rating.games);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the ratings of a snapshot
+     * @param file Snapshot file
+     * @return Ratings of the snapshot, none if the file does not exist
+     * @throws IOException If the file cannot be read or is not a snapshot
+     */
+    public static Ratings load(Path file) throws IOException {
+        Ratings ratings = new Ratings();
+        if (!Files.exists(file)) return ratings;
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            if (in.getInt() != MAGIC) throw new IOException("Not a ratings snapshot: " + file);
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[in.getShort() & MAX_NAME];
+                in.get(name);
+                Rating rating = new Rating(new String(name, StandardCharsets.ISO_8859_1), in.getFloat(), in.getInt());
+                if (SERVER.equals(rating.name)) {
+                    ratings.serverChange.add(rating.rating - INITIAL_RATING);
+                    ratings.serverGames.add(rating.games);
+                    continue;
+                }
+                ratings.players.put(rating.name, rating);
+                ratings.leaderboard.add(rating);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated ratings snapshot: " + file);
+        }
+        Log.info("Ratings loaded, " + ratings.size() + " players");
+        return ratings;
+    }
+
+    /**
+     * Writes a snapshot periodically from a daemon thread, when some game has been rated since the last one
+     * @param file Snapshot file
+     * @param seconds Seconds between two snapshots
+     */
+    public synchronized void saveEvery(Path file, long seconds) {
+        if (snapshots != null) return;
+        snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ratings");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] saved = {updates.get()};
+        snapshots.scheduleWithFixedDelay(() -> {
+            long current = updates.get();
+            if (current == saved[0]) return;
+            try {
+                save(file);
+                saved[0] = current;
+            } catch (IOException e) {
+                Log.error(0, "Error saving the ratings:", e.getMessage());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+}
@@ -1,21 +1,219 @@
 package p1.server;
 
+import com.sun.net.httpserver.HttpServer;
+import utils.engine.MoveTable;
+
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.channels.IllegalBlockingModeException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import utils.ComUtils;  
 
 public class Server {
-    public static final String INIT_ERROR = "Server should be initialized with -p <port>";
+    public static final String INIT_ERROR = "Server should be initialized with -p <port> [-e <minimax|table|mcts|weak>] [-m <threads|virtual|nio>] [-b <on|off>] [-n <on|off>] [-l <debug|info|warn|error|off>] [-s <metrics port>] [-d <seconds>] [-c <connections>] [-o <reject|delay|shed>] [-w <workers>] [-q <queue>] [-j <journal directory>] [-f <milliseconds>] [-r <ratings file>]";
+    // Seconds between two snapshots of the ratings
+    private static final long RATINGS_SNAPSHOT = 10;
+    // Players listed by /leaderboard when the query does not say how many
+    private static final int LEADERBOARD_TOP = 10;
+
+    /**
+     * How the server serves its clients
+     */
+    public enum Mode {
+        // One blocking thread per client
+        THREADS,
+        // One blocking virtual thread per client, needs Java 21
+        VIRTUAL,
+        // A few non-blocking event loops for all the clients
+        NIO
+    }
+
     Socket socket;
     ServerSocket ss;
     int port;
     ComUtils comutils;
+    ServerConfig config;
+    NioServer nioServer;
+    // Runs the handlers on virtual threads, null when each client gets a platform thread
+    ExecutorService virtualThreads;
+    // Bounded pool running the handlers, null when each client gets its own thread
+    ThreadPoolExecutor workers;
+    Admission admission;
+    // Journal of the finished games, null when it is not kept
+    GameJournal journal;
+    // Ratings of the players, rated after every game
+    final Ratings ratings;
+    // Services shared by the sessions: registry, journal, ratings and, in the blocking modes, the lobby
+    final ServerContext context;
 
     public Server(int port) {
-        this.port = port;
-        setConnection();
+        this(port, GameLogic.Engine.MINIMAX);
+    }
+
+    public Server(int port, GameLogic.Engine engine) {
+        this(port, engine, Mode.THREADS);
+    }
+
+    public Server(int port, GameLogic.Engine engine, Mode mode) {
+        this(new ServerConfig(port).setEngine(engine).setMode(mode));
+    }
+
+    public Server(ServerConfig config) {
+        this.port = config.getPort();
+        this.config = config;
+        Log.setLevel(config.getLogLevel());
+        Mode mode = config.getMode();
+        if (config.getEngine() == GameLogic.Engine.TABLE) {
+            // Build the move table before accepting clients
+            Log.info("Move table ready, " + MoveTable.legalPositions() + " positions solved");
+        }
+        ratings = openRatings(config);
+        startMetrics();
+        journal = openJournal(config);
+        context = new ServerContext(config.getEngine()).setJournal(journal).setRatings(ratings);
+        if (mode == Mode.NIO) {
+            nioServer = new NioServer(config, Runtime.getRuntime().availableProcessors(), context);
+        } else {
+            // Players waiting for a human opponent, the blocking modes relay the moves between their threads
+            Lobby lobby = new Lobby();
+            context.setLobby(lobby);
+            if (mode == Mode.VIRTUAL) virtualThreads = newVirtualThreadExecutor();
+            else if (config.getWorkers() > 0) workers = newWorkerPool(config.getWorkers(), config.getQueue());
+            admission = new Admission(config.getMaxConnections(), config.getOverloadPolicy());
+            Metrics.gauge("sessions_registered", context.getRegistry()::size);
+            Metrics.gauge("lobby_waiting", lobby::waiting);
+            setConnection();
+        }
+    }
+
+    /**
+     * Starts the metrics endpoint and the periodic reports chosen in the settings.
+     * The endpoint also serves the leaderboard at /leaderboard, /leaderboard?top=n for the n best players
+     */
+    private void startMetrics() {
+        if (config.getMetricsPort() > 0) {
+            try {
+                HttpServer http = Metrics.serve(config.getMetricsPort());
+                http.createContext("/leaderboard", exchange -> {
+                    String query = exchange.getRequestURI().getQuery();
+                    int top = LEADERBOARD_TOP;
+                    try {
+                        if (query != null && query.startsWith("top=")) top = Integer.parseInt(query.substring(4));
+                    } catch (NumberFormatException e) {
+                        // Default length
+                    }
+                    byte[] body = ratings.report(top).getBytes(StandardCharsets.ISO_8859_1);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=iso-8859-1");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+            } catch (IOException e) {
+                throw new RuntimeException("I/O error when opening the metrics endpoint:\n" + e.getMessage());
+            }
+        }
+        if (config.getMetricsInterval() > 0) Metrics.startDump(config.getMetricsInterval());
+    }
+
+    /**
+     * Loads the ratings of the snapshot chosen in the settings, and keeps the snapshot up to date
+     * @param config Settings of the server
+     * @return Ratings, only in memory if the settings choose no snapshot
+     */
+    private static Ratings openRatings(ServerConfig config) {
+        Ratings ratings = new Ratings();
+        if (config.getRatingsFile() != null) {
+            Path file = Paths.get(config.getRatingsFile());
+            try {
+                ratings = Ratings.load(file);
+            } catch (IOException e) {
+                throw new RuntimeException("I/O error when loading the ratings:\n" + e.getMessage());
+            }
+            ratings.saveEvery(file, RATINGS_SNAPSHOT);
+            Ratings saved = ratings;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    saved.save(file);
+                } catch (IOException e) {
+                    Log.error(0, "Error saving the ratings:", e.getMessage());
+                }
+            }, "ratings-shutdown"));
+        }
+        Metrics.gauge("ratings_players", ratings::size);
+        return ratings;
+    }
+
+    /**
+     * Opens the game journal chosen in the settings
+     * @param config Settings of the server
+     * @return Journal, or null if the settings keep none
+     */
+    private static GameJournal openJournal(ServerConfig config) {
+        if (config.getJournalDirectory() == null) return null;
+        try {
+            GameJournal journal = new GameJournal(Paths.get(config.getJournalDirectory()),
+                    GameJournal.DEFAULT_SEGMENT_SIZE, config.getJournalForceInterval());
+            Metrics.gauge("journal_records", journal::records);
+            Metrics.gauge("journal_dropped", journal::dropped);
+            return journal;
+        } catch (IOException e) {
+            throw new RuntimeException("I/O error when opening the game journal:\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the bounded pool of handler threads.
+     * A handler keeps its worker for the whole session, so the workers are the sessions
+     * played at once and the queue holds the admitted clients waiting for one of them
+     * @param threads Number of workers
+     * @param queue Clients that can wait, 0 to hand each client straight to an idle worker
+     * @return Pool that throws RejectedExecutionException when the workers and the queue are full
+     */
+    private static ThreadPoolExecutor newWorkerPool(int threads, int queue) {
+        BlockingQueue<Runnable> waiting = queue > 0 ? new ArrayBlockingQueue<>(queue) : new SynchronousQueue<>();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, waiting);
+        Metrics.gauge("workers_active", pool::getActiveCount);
+        Metrics.gauge("workers_queue", () -> pool.getQueue().size());
+        return pool;
+    }
+
+    /**
+     * Checks if the running JVM has virtual threads
+     * @return True on Java 21 or newer
+     */
+    public static boolean supportsVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task.
+     * The build targets Java 17, so the Java 21 factory is looked up at run time.
+     * @return Executor.newVirtualThreadPerTaskExecutor()
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or newer, running on " + Runtime.version());
+        }
     }
 
     public ComUtils getComutils(Socket socket) {
@@ -33,7 +231,7 @@ public class Server {
         if (this.ss == null) {
             try {
                 ss = new ServerSocket(port);
-                System.out.println("Server up & listening on port "+port+"...\nPress Cntrl + C to stop.");
+                Log.info("Server up & listening on port "+port+"...\nPress Cntrl + C to stop.");
             } catch (IOException e) {
                 throw new RuntimeException("I/O error when opening the Server Socket:\n" + e.getMessage());
             }
@@ -45,13 +243,38 @@ public class Server {
     }    
     
     public void init() {  
+        if (nioServer != null) {
+            nioServer.run();
+            return;
+        }
         while(true) { 
             try {
                 socket = ss.accept();
+                // With the delay policy this waits for a free slot, the next clients wait in the accept backlog
+                if (!admission.acquire()) {
+                    Admission.reject(socket);
+                    continue;
+                }
                 comutils = getComutils(socket);
-                System.out.println("Client accepted");
-                // Start a new thread for each client
-                new Thread(new GameHandler(socket)).start();
+                Log.info("Client accepted");
+                GameHandler handler = new GameHandler(socket, config, admission, context);
+                if (virtualThreads != null) {
+                    virtualThreads.execute(handler);
+                } else if (workers != null) {
+                    try {
+                        workers.execute(handler);
+                    } catch (RejectedExecutionException e) {
+                        admission.release(null);
+                        Metrics.sessionRejected();
+                        Admission.reject(socket);
+                    }
+                } else {
+                    // Start a new thread for each client
+                    new Thread(handler).start();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for a free slot:\n" + e.getMessage());
             } catch (IOException e) {
                 throw new RuntimeException("I/O error when accepting a client:\n" + e.getMessage());
             } catch (SecurityException e) {
@@ -65,24 +288,7 @@ public class Server {
     }
 
     public static void main(String[] args) {
-
-        if (args.length != 2) {
-            throw new IllegalArgumentException("Wrong amount of arguments.\n" + INIT_ERROR);
-        }
-
-        if (!args[0].equals("-p")) {
-            throw new IllegalArgumentException("Wrong argument keyword.\n"+INIT_ERROR);
-        }
-
-        int port;
-
-        try {
-            port = Integer.parseInt(args[1]);
-        } catch (NumberFormatException e) {
-            throw new NumberFormatException("<port> should be an Integer.");
-        }
-
-        Server server = new Server(port);
+        Server server = new Server(ServerConfig.parse(args));
         server.init();
     }
 }
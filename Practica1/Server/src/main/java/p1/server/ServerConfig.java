@@ -0,0 +1,278 @@
+package p1.server;
+
+/**
+ * Settings of a server, read from the command line.
+ * Every setting has a default, so only the port has to be given.
+ */
+public class ServerConfig {
+    private int port;
+    private GameLogic.Engine engine = GameLogic.Engine.MINIMAX;
+    private Server.Mode mode = Server.Mode.THREADS;
+    // Each reply is assembled in memory and sent with a single write
+    private boolean bufferedWrites = true;
+    // Disables Nagle's algorithm, replies are sent at once instead of waiting for the previous ACK
+    private boolean tcpNoDelay = true;
+    // Boards are only logged at DEBUG level
+    private Log.Level logLevel = Log.Level.INFO;
+    // Port of the HTTP metrics endpoint on localhost, 0 to disable it
+    private int metricsPort;
+    // Seconds between two metrics reports in the log, 0 to disable them
+    private int metricsInterval;
+    // Sessions served at once, 0 for no limit
+    private int maxConnections;
+    // What happens to the clients over the limit
+    private Admission.Policy overloadPolicy = Admission.Policy.REJECT;
+    // Threads of the handler pool, 0 to start a thread per client
+    private int workers;
+    // Admitted clients waiting for a free worker
+    private int queue;
+    // Directory of the game journal, null to keep no journal
+    private String journalDirectory;
+    // Milliseconds between two forces of the journal to disk, 0 to force only full segments
+    private long journalForceInterval = GameJournal.DEFAULT_FORCE_INTERVAL;
+    // Snapshot file of the ratings, null to keep them only in memory
+    private String ratingsFile;
+
+    /**
+     * Constructor
+     * @param port Port to listen on
+     */
+    public ServerConfig(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Parses the command line arguments
+     * @param args -p port followed by option pairs, see Server.INIT_ERROR
+     * @return Settings with the defaults for the options not given
+     */
+    public static ServerConfig parse(String[] args) {
+        if (args.length < 2 || args.length % 2 != 0) {
+            throw new IllegalArgumentException("Wrong amount of arguments.\n" + Server.INIT_ERROR);
+        }
+
+        if (!args[0].equals("-p")) {
+            throw new IllegalArgumentException("Wrong argument keyword.\n" + Server.INIT_ERROR);
+        }
+
+        ServerConfig config;
+        try {
+            config = new ServerConfig(Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("<port> should be an Integer.");
+        }
+
+        for (int i = 2; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-e":
+                    try {
+                        config.engine = GameLogic.Engine.valueOf(value.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("<engine> should be minimax, table, mcts or weak.");
+                    }
+                    break;
+                case "-m":
+                    try {
+                        config.mode = Server.Mode.valueOf(value.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("<mode> should be threads, virtual or nio.");
+                    }
+                    break;
+                case "-b":
+                    config.bufferedWrites = parseSwitch(value, "<buffered>");
+                    break;
+                case "-n":
+                    config.tcpNoDelay = parseSwitch(value, "<nodelay>");
+                    break;
+                case "-l":
+                    try {
+                        config.logLevel = Log.Level.valueOf(value.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("<level> should be debug, info, warn, error or off.");
+                    }
+                    break;
+                case "-s":
+                    config.metricsPort = parseNumber(value, "<metrics port>");
+                    break;
+                case "-d":
+                    config.metricsInterval = parseNumber(value, "<seconds>");
+                    break;
+                case "-c":
+                    config.maxConnections = parseNumber(value, "<connections>");
+                    break;
+                case "-o":
+                    try {
+                        config.overloadPolicy = Admission.Policy.valueOf(value.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("<policy> should be reject, delay or shed.");
+                    }
+                    break;
+                case "-w":
+                    config.workers = parseNumber(value, "<workers>");
+                    break;
+                case "-q":
+                    config.queue = parseNumber(value, "<queue>");
+                    break;
+                case "-j":
+                    config.journalDirectory = value;
+                    break;
+                case "-f":
+                    config.journalForceInterval = parseNumber(value, "<milliseconds>");
+                    break;
+                case "-r":
+                    config.ratingsFile = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Wrong argument keyword.\n" + Server.INIT_ERROR);
+            }
+        }
+        return config;
+    }
+
+    private static boolean parseSwitch(String value, String name) {
+        if (value.equalsIgnoreCase("on")) return true;
+        if (value.equalsIgnoreCase("off")) return false;
+        throw new IllegalArgumentException(name + " should be on or off.");
+    }
+
+    private static int parseNumber(String value, String name) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= 0) return number;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(name + " should be a positive Integer.");
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public GameLogic.Engine getEngine() {
+        return engine;
+    }
+
+    public ServerConfig setEngine(GameLogic.Engine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    public Server.Mode getMode() {
+        return mode;
+    }
+
+    public ServerConfig setMode(Server.Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public boolean isBufferedWrites() {
+        return bufferedWrites;
+    }
+
+    public ServerConfig setBufferedWrites(boolean bufferedWrites) {
+        this.bufferedWrites = bufferedWrites;
+        return this;
+    }
+
+    public Log.Level getLogLevel() {
+        return logLevel;
+    }
+
+    public ServerConfig setLogLevel(Log.Level logLevel) {
+        this.logLevel = logLevel;
+        return this;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public ServerConfig setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public ServerConfig setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+        return this;
+    }
+
+    public int getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    public ServerConfig setMetricsInterval(int metricsInterval) {
+        this.metricsInterval = metricsInterval;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public ServerConfig setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public Admission.Policy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    public ServerConfig setOverloadPolicy(Admission.Policy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+        return this;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public ServerConfig setWorkers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    public int getQueue() {
+        return queue;
+    }
+
+    public ServerConfig setQueue(int queue) {
+        this.queue = queue;
+        return this;
+    }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public ServerConfig setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+        return this;
+    }
+
+    public long getJournalForceInterval() {
+        return journalForceInterval;
+    }
+
+    public ServerConfig setJournalForceInterval(long journalForceInterval) {
+        this.journalForceInterval = journalForceInterval;
+        return this;
+    }
+
+    public String getRatingsFile() {
+        return ratingsFile;
+    }
+
+    public ServerConfig setRatingsFile(String ratingsFile) {
+        this.ratingsFile = ratingsFile;
+        return this;
+    }
+}
@@ -0,0 +1,85 @@
+package p1.server;
+
+/**
+ * Services of a server shared by all of its sessions.
+ * The server builds one context before it accepts clients and passes it to every handler and
+ * protocol. Only the engine and the registry are always there, the other services are null when
+ * the server does not use them.
+ */
+public class ServerContext {
+    // Engine of the server moves when the client does not choose one
+    private final GameLogic.Engine engine;
+    // Sessions of the server, to give unique ids and resume the games of dropped connections
+    private final SessionRegistry registry;
+    // Journal of the finished games, null to keep none
+    private GameJournal journal;
+    // Players waiting for a human opponent, null to play only against the server
+    private Lobby lobby;
+    // Ratings of the players, null to rate no game
+    private Ratings ratings;
+    // The server moves are computed on the thread that serves many clients, only the quick ones are allowed
+    private boolean inlineMoves;
+
+    /**
+     * Constructor
+     * Context of a server with its own registry and no other service
+     * @param engine Engine used for the server moves
+     */
+    public ServerContext(GameLogic.Engine engine) {
+        this(engine, new SessionRegistry());
+    }
+
+    /**
+     * Constructor
+     * @param engine Engine used for the server moves
+     * @param registry Sessions of the server
+     */
+    public ServerContext(GameLogic.Engine engine, SessionRegistry registry) {
+        this.engine = engine;
+        this.registry = registry;
+    }
+
+    public GameLogic.Engine getEngine() {
+        return engine;
+    }
+
+    public SessionRegistry getRegistry() {
+        return registry;
+    }
+
+    public GameJournal getJournal() {
+        return journal;
+    }
+
+    public ServerContext setJournal(GameJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    public Lobby getLobby() {
+        return lobby;
+    }
+
+    public ServerContext setLobby(Lobby lobby) {
+        this.lobby = lobby;
+        return this;
+    }
+
+    public Ratings getRatings() {
+        return ratings;
+    }
+
+    public ServerContext setRatings(Ratings ratings) {
+        this.ratings = ratings;
+        return this;
+    }
+
+    public boolean isInlineMoves() {
+        return inlineMoves;
+    }
+
+    public ServerContext setInlineMoves(boolean inlineMoves) {
+        this.inlineMoves = inlineMoves;
+        return this;
+    }
+}
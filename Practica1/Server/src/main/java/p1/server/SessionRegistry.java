@@ -0,0 +1,187 @@
+package p1.server;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sessions of a server by id.
+ * A session is owned by the connection that said HELLO with its id. When the connection drops the
+ * game is kept, and a new connection that says HELLO with the same id and the resume token of the
+ * session takes it over and goes on playing. The token also takes a session from a connection the
+ * server still holds, as a client usually reconnects before the server sees the old connection
+ * drop: the old connection hands its session over and is closed. The token is a random number
+ * given only to the owner, so a session can not be taken by guessing its id. After
+ * MAX_FAILED_RESUMES wrong tokens a session without connection is forgotten, and the token of a
+ * connected one is revoked. Sessions left without a connection for RESUME_TIMEOUT are forgotten.
+ */
+public final class SessionRegistry {
+    // Milliseconds a session without connection can be resumed
+    public static final long RESUME_TIMEOUT = 5 * 60 * 1000;
+    // Milliseconds between two sweeps of the forgotten sessions
+    private static final long SWEEP_INTERVAL = 10 * 1000;
+    // Sessions kept at once, connected or waiting to be resumed
+    public static final int MAX_SESSIONS = 1 << 24;
+    // Wrong resume tokens a session without connection takes before it is forgotten
+    private static final int MAX_FAILED_RESUMES = 3;
+    private static final SecureRandom TOKENS = new SecureRandom();
+
+    /**
+     * Game of a session, kept while no connection owns it
+     */
+    static final class Entry {
+        // Protocol of the connection playing the session, null while it can be resumed
+        private volatile GameProtocol owner;
+        private long detachedAt;
+        // Token needed to resume the session, 0 until the owner asks for one
+        private int token;
+        private int failedResumes;
+        // State of the session while it has no connection, saved by the last owner
+        BoardGame game;
+        int size;
+        int k;
+        boolean compact;
+        GameLogic.Engine engine;
+        int opponent;
+    }
+
+    /**
+     * Session taken by a HELLO
+     */
+    static final class Claim {
+        final Entry entry;
+        // Connection that played the session until now, null if it had none
+        final GameProtocol previous;
+
+        private Claim(Entry entry, GameProtocol previous) {
+            this.entry = entry;
+            this.previous = previous;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Entry> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.currentTimeMillis() + SWEEP_INTERVAL);
+
+    /**
+     * Gives a new session an id no other session has, any positive int
+     * @param owner Protocol of the connection
+     * @return Session id
+     * @throws IllegalStateException If MAX_SESSIONS are kept, even after forgetting the expired ones
+     */
+    public int allocate(GameProtocol owner) {
+        long now = System.currentTimeMillis();
+        sweep(now);
+        if (sessions.size() >= MAX_SESSIONS) {
+            // Does not wait for the next sweep before giving up
+            nextSweep.set(now);
+            sweep(now);
+            if (sessions.size() >= MAX_SESSIONS) throw new IllegalStateException("No session id left");
+        }
+        while (true) {
+            int id = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+            Entry entry = new Entry();
+            entry.owner = owner;
+            if (sessions.putIfAbsent(id, entry) == null) return id;
+        }
+    }
+
+    /**
+     * Takes the session the client asked for in its HELLO.
+     * An id no session has becomes a new session, a played session or a session without connection
+     * needs its token
+     * @param id Session id sent by the client
+     * @param token Resume token sent by the client, 0 if it sent none
+     * @param owner Protocol of the connection
+     * @return Session taken, with the connection that has to hand it over if it was played, or null
+     *         if the token is wrong
+     */
+    Claim claim(int id, int token, GameProtocol owner) {
+        sweep(System.currentTimeMillis());
+        Claim[] claimed = new Claim[1];
+        sessions.compute(id, (key, entry) -> {
+            if (entry == null) {
+                entry = new Entry();
+            } else if (entry.owner == owner) {
+                claimed[0] = new Claim(entry, null);
+                return entry;
+            } else if (entry.token == 0 || entry.token != token) {
+                // A token can not be found by trying them all: the session is forgotten, or its token revoked
+                if (entry.token != 0 && token != 0 && ++entry.failedResumes >= MAX_FAILED_RESUMES) {
+                    if (entry.owner == null) return null;
+                    entry.token = 0;
+                    entry.failedResumes = 0;
+                }
+                return entry;
+            }
+            claimed[0] = new Claim(entry, entry.owner);
+            entry.failedResumes = 0;
+            entry.owner = owner;
+            return entry;
+        });
+        return claimed[0];
+    }
+
+    /**
+     * Keeps the state of a connection that ended, so the session can be resumed
+     * @param id Session id
+     * @param owner Protocol of the connection, nothing is kept if it no longer owns the session
+     */
+    void detach(int id, GameProtocol owner) {
+        sessions.computeIfPresent(id, (key, entry) -> {
+            if (entry.owner != owner) return entry;
+            entry.owner = null;
+            entry.detachedAt = System.currentTimeMillis();
+            owner.saveSession(entry);
+            return entry;
+        });
+    }
+
+    /**
+     * Gives the session a new resume token, the previous one is no longer valid
+     * @param id Session id
+     * @param owner Protocol of the connection, only the owner of the session gets a token
+     * @return Token, never 0, or 0 if the connection does not own the session
+     */
+    int issueToken(int id, GameProtocol owner) {
+        int[] issued = new int[1];
+        sessions.computeIfPresent(id, (key, entry) -> {
+            if (entry.owner != owner) return entry;
+            int token;
+            do {
+                token = TOKENS.nextInt();
+            } while (token == 0);
+            entry.token = token;
+            issued[0] = token;
+            return entry;
+        });
+        return issued[0];
+    }
+
+    /**
+     * Protocol of the connection playing a session
+     * @param id Session id
+     * @return Protocol, or null if there is no such session or it has no connection
+     */
+    GameProtocol owner(int id) {
+        Entry entry = sessions.get(id);
+        return entry == null ? null : entry.owner;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Forgets the sessions without connection for too long, at most once every SWEEP_INTERVAL
+     * @param now Current time in milliseconds
+     */
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + SWEEP_INTERVAL)) return;
+        for (Integer id : sessions.keySet()) {
+            sessions.computeIfPresent(id, (key, entry) ->
+                    entry.owner == null && now - entry.detachedAt > RESUME_TIMEOUT ? null : entry);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package p1.server;
+
+import utils.ComUtils;
+import utils.engine.Grid;
+import utils.engine.Strategy;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays the games of a tournament through a server, as player-vs-player matches.
+ * Each game opens two connections that say HELLO with the names of the players and ask for the
+ * same opponent group with CONFIG, a group of its own, so that the lobby pairs them with each other.
+ * The calling thread drives both connections: it sends the move of the player to move and reads
+ * the move the server relays to the other one. The server decides who moves first, normally the
+ * player who asked first.
+ * With the engines the second player is the server itself: one connection asks with CONFIG for the
+ * server engine of the second player's strategy and plays against it, so the server computes half
+ * of the moves as it does for its clients
+ */
+public final class SocketArena implements Tournament.Arena {
+    private static final byte HELLO = 1;
+    private static final byte READY = 2;
+    private static final byte PLAY = 3;
+    private static final byte ADMIT = 4;
+    private static final byte ACTION = 5;
+    private static final byte RESULT = 6;
+    private static final byte CONFIG = 7;
+    private static final byte OPTION_OPPONENT = 5;
+    private static final byte OPTION_ENGINE = 6;
+    // Opponent groups go from 1 to 2^23 - 1, 0 is the server
+    private static final int GROUPS = (1 << 23) - 1;
+    private static final int TIMEOUT = 10000;
+
+    private final String host;
+    private final int port;
+    // True if the second player of each game is played by the server engine
+    private final boolean engines;
+    private final AtomicInteger groups = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param host Host of the server
+     * @param port Port of the server
+     */
+    public SocketArena(String host, int port) {
+        this(host, port, false);
+    }
+
+    /**
+     * Constructor
+     * @param host Host of the server
+     * @param port Port of the server
+     * @param engines True to play the second player of each game with the server engine of its strategy
+     */
+    public SocketArena(String host, int port, boolean engines) {
+        this.host = host;
+        this.port = port;
+        this.engines = engines;
+    }
+
+    @Override
+    public int play(Tournament.Player first, Tournament.Player second) throws IOException {
+        if (engines) return playEngine(first, second);
+        int group = 1 + Math.floorMod(groups.getAndIncrement(), GROUPS);
+        try (Socket firstSocket = new Socket(host, port); Socket secondSocket = new Socket(host, port)) {
+            Side[] sides = {new Side(firstSocket, first), new Side(secondSocket, second)};
+            sides[0].join(OPTION_OPPONENT, group);
+            sides[1].join(OPTION_OPPONENT, group);
+            // The side with ADMIT flag 1 moves first
+            int mover = sides[0].admit() == 1 ? 0 : 1;
+            sides[1].admit();
+            int[] boards = new int[2];
+            while (true) {
+                Side side = sides[mover], other = sides[mover ^ 1];
+                int cell = side.player.getStrategy().move(boards[mover], boards[mover ^ 1]);
+                // An illegal move loses, the connection of the player closes and the server gives the match to the other one
+                if (cell < 0 || cell > 8 || ((boards[0] | boards[1]) & 1 << cell) != 0) return outcome(sides, other);
+                boards[mover] |= 1 << cell;
+                side.sendAction(cell);
+                byte opcode = other.readMove();
+                if (opcode == RESULT) {
+                    int flag = other.flag;
+                    side.readMove();
+                    if (flag == 2) return Tournament.DRAW;
+                    return outcome(sides, flag == 0 ? side : other);
+                }
+                if (opcode != ACTION || other.cell != cell) throw new IOException("Unexpected message " + opcode + " from the server");
+                mover ^= 1;
+            }
+        }
+    }
+
+    /**
+     * Plays a game against the server engine of the second player, the client always moves first
+     */
+    private int playEngine(Tournament.Player first, Tournament.Player second) throws IOException {
+        int engine = engine(second.getStrategy());
+        try (Socket socket = new Socket(host, port)) {
+            Side side = new Side(socket, first);
+            side.join(OPTION_ENGINE, engine);
+            if (side.admit() != 1) throw new IOException("The server did not admit the game");
+            int own = 0, server = 0;
+            while (true) {
+                int cell = first.getStrategy().move(own, server);
+                // An illegal move loses, the connection closes and the game is abandoned
+                if (cell < 0 || cell > 8 || ((own | server) & 1 << cell) != 0) return Tournament.SECOND_WON;
+                own |= 1 << cell;
+                side.sendAction(cell);
+                byte opcode = side.readMove();
+                if (opcode == RESULT) {
+                    if (side.flag == 2) return Tournament.DRAW;
+                    return side.flag == 1 ? Tournament.FIRST_WON : Tournament.SECOND_WON;
+                }
+                if (side.cell < 0 || ((own | server) & 1 << side.cell) != 0) throw new IOException("Illegal move " + side.cell + " from the server");
+                server |= 1 << side.cell;
+            }
+        }
+    }
+
+    /**
+     * Value of the engine option for a strategy
+     * @param strategy Strategy of a player
+     * @return 1 to 4, the engines in the order of GameLogic.Engine
+     * @throws IllegalArgumentException If the server has no engine for the strategy
+     */
+    private static int engine(Strategy strategy) {
+        for (GameLogic.Engine engine : GameLogic.Engine.values()) {
+            if (engine.strategy() == strategy) return engine.ordinal() + 1;
+        }
+        throw new IllegalArgumentException("The server has no engine for the strategy " + strategy);
+    }
+
+    /**
+     * Outcome of the tournament game by the winner
+     */
+    private static int outcome(Side[] sides, Side winner) {
+        return winner == sides[0] ? Tournament.FIRST_WON : Tournament.SECOND_WON;
+    }
+
+    /**
+     * Connection of one player of a game
+     */
+    private static final class Side {
+        private final Tournament.Player player;
+        private final ComUtils comutils;
+        private int id;
+        // Cell and flag of the last message read
+        private int cell;
+        private int flag;
+
+        Side(Socket socket, Tournament.Player player) throws IOException {
+            socket.setSoTimeout(TIMEOUT);
+            socket.setTcpNoDelay(true);
+            this.player = player;
+            this.comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+        }
+
+        /**
+         * Says HELLO, sets an option and asks to play
+         * @param option Option of the CONFIG, the opponent group or the engine
+         * @param value Value of the option
+         */
+        void join(byte option, int value) throws IOException {
+            comutils.getDataOutputStream().writeByte(HELLO);
+            comutils.write_int32(0);
+            comutils.write_string(player.getName());
+            comutils.getDataOutputStream().writeByte(0);
+            comutils.getDataOutputStream().writeByte(0);
+            comutils.flush();
+            expect(READY);
+            id = comutils.read_int32();
+
+            comutils.getDataOutputStream().writeByte(CONFIG);
+            comutils.write_int32(id);
+            comutils.getDataOutputStream().writeByte(option);
+            comutils.write_int32(value);
+            comutils.flush();
+            expect(CONFIG);
+            comutils.read_int32();
+            comutils.getDataInputStream().readByte();
+            if (comutils.read_int32() != value) throw new IOException("The server refused option " + option + " with value " + value);
+
+            comutils.getDataOutputStream().writeByte(PLAY);
+            comutils.write_int32(id);
+            comutils.flush();
+        }
+
+        /**
+         * Waits for the start of the match
+         * @return 1 if this player moves first, 2 otherwise
+         */
+        int admit() throws IOException {
+            expect(ADMIT);
+            comutils.read_int32();
+            return comutils.getDataInputStream().readByte();
+        }
+
+        void sendAction(int move) throws IOException {
+            comutils.getDataOutputStream().writeByte(ACTION);
+            comutils.write_int32(id);
+            comutils.write_string(Grid.formatMove(move, 3));
+            comutils.flush();
+        }
+
+        /**
+         * Reads the ACTION or the RESULT relayed by the server
+         * @return Opcode of the message
+         */
+        byte readMove() throws IOException {
+            byte opcode = comutils.getDataInputStream().readByte();
+            if (opcode != ACTION && opcode != RESULT) throw new IOException("Unexpected message " + opcode + " from the server");
+            comutils.read_int32();
+            String move = comutils.read_string(3);
+            cell = move.startsWith("-") ? -1 : Grid.parseMove(move, 3);
+            if (opcode == RESULT) flag = comutils.getDataInputStream().readByte();
+            return opcode;
+        }
+
+        private void expect(byte opcode) throws IOException {
+            byte read = comutils.getDataInputStream().readByte();
+            if (read != opcode) throw new IOException("Expected message " + opcode + " but got " + read);
+        }
+    }
+}
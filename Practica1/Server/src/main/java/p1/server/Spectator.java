@@ -0,0 +1,119 @@
+package p1.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read-only subscriber of a session.
+ * The frames of the session wait in a bounded queue until the connection of the spectator writes
+ * them. The players never wait for a spectator: a spectator whose queue is full is dropped, its
+ * frames are discarded and its connection is hung up, and the game goes on for everyone else.
+ */
+public final class Spectator {
+    // Frames a spectator can fall behind before it is dropped
+    public static final int DEFAULT_CAPACITY = 256;
+    // Last frame of the queue, the connection ends when it takes it
+    private static final Frame END = Frame.empty();
+
+    private final BlockingQueue<Frame> frames;
+    // Run when frames arrive at an empty queue, null if the connection waits on the queue
+    private final Runnable wakeup;
+    // Run when the spectator is dropped, it must not block
+    private final Runnable hangUp;
+    private final AtomicBoolean ended = new AtomicBoolean();
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private volatile boolean dropped;
+
+    /**
+     * Constructor
+     * @param capacity Frames the spectator can fall behind
+     * @param wakeup Run when frames arrive at an empty queue, null if the connection waits on the queue
+     * @param hangUp Run when the spectator is dropped, null if there is nothing to close
+     */
+    public Spectator(int capacity, Runnable wakeup, Runnable hangUp) {
+        this.frames = new ArrayBlockingQueue<>(capacity);
+        this.wakeup = wakeup;
+        this.hangUp = hangUp;
+    }
+
+    /**
+     * Queues a frame, never blocks
+     * @param frame Frame shared by all the spectators
+     * @return False if the spectator has ended, or has just been dropped because its queue is full
+     */
+    public boolean offer(Frame frame) {
+        if (ended.get()) return false;
+        if (frames.offer(frame)) {
+            signal();
+            return true;
+        }
+        dropped = true;
+        Metrics.spectatorDropped();
+        end(true);
+        if (hangUp != null) hangUp.run();
+        return false;
+    }
+
+    /**
+     * Ends the subscription, only the first call has an effect
+     * @param discard True to discard the frames not written yet, false to write them first
+     */
+    public void end(boolean discard) {
+        if (!ended.compareAndSet(false, true)) return;
+        if (discard) frames.clear();
+        // The oldest frames make room for the end
+        while (!frames.offer(END)) frames.poll();
+        signal();
+    }
+
+    /**
+     * Next frame, without waiting
+     * @return Frame, or null if the queue is empty
+     * @throws IOException If the subscription has ended
+     */
+    public Frame poll() throws IOException {
+        signalled.set(false);
+        return check(frames.poll());
+    }
+
+    /**
+     * Next frame, waiting for it
+     * @return Frame
+     * @throws IOException If the subscription has ended
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public Frame take() throws IOException, InterruptedException {
+        return check(frames.take());
+    }
+
+    public boolean isEnded() {
+        return ended.get();
+    }
+
+    public boolean isDropped() {
+        return dropped;
+    }
+
+    /**
+     * Frames waiting to be written
+     * @return Queue length, the end included
+     */
+    public int pending() {
+        return frames.size();
+    }
+
+    private static Frame check(Frame frame) throws IOException {
+        if (frame == END) throw new EOFException("Spectator ended");
+        return frame;
+    }
+
+    /**
+     * Wakes the connection up once per batch of frames, poll() rearms it
+     */
+    private void signal() {
+        if (wakeup != null && signalled.compareAndSet(false, true)) wakeup.run();
+    }
+}
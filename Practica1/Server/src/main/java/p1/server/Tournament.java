@@ -0,0 +1,427 @@
+package p1.server;
+
+import utils.engine.Bitboard;
+import utils.engine.Strategies;
+import utils.engine.Strategy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tournaments between move strategies on the classic board.
+ * The games of a round do not depend on each other, so they are split among the threads of a
+ * work-stealing ForkJoinPool and the standings are updated with atomic counters as each game ends.
+ * A round robin schedules all its rounds at once. A Swiss tournament pairs every round from the
+ * standings of the previous one, players with the same points first and never twice the same pair
+ * while it can be avoided.
+ * The games are played by an Arena: in the process on bitboards with LOCAL, or through a server
+ * with a SocketArena, so the same schedule can load a real server end to end.
+ */
+public final class Tournament {
+    public static final String INIT_ERROR = "Tournament should be initialized with -n <players> [-f <swiss|robin>] [-r <rounds>] [-s <minimax|table|mcts|weak,...>] [-t <threads>] [-h <host:port>] [-m <pvp|engine>] [-k <top>]";
+    // Outcomes of a game
+    public static final int DRAW = 0;
+    public static final int FIRST_WON = 1;
+    public static final int SECOND_WON = 2;
+    // Games a task plays itself, larger batches are split in two
+    private static final int BATCH = 32;
+
+    /**
+     * Plays the games of the tournament, called from many threads at once
+     */
+    public interface Arena {
+        /**
+         * Plays a game
+         * @param first Player who moves first
+         * @param second Other player
+         * @return DRAW, FIRST_WON or SECOND_WON
+         * @throws IOException If the game cannot be played
+         */
+        int play(Player first, Player second) throws IOException;
+    }
+
+    // Plays the games in the calling thread
+    public static final Arena LOCAL = (first, second) -> play(first.getStrategy(), second.getStrategy());
+
+    /**
+     * Player of a tournament
+     */
+    public static final class Player {
+        private final String name;
+        private final Strategy strategy;
+
+        /**
+         * Constructor
+         * @param name Name of the player, also its name in the HELLO of the socket games
+         * @param strategy Strategy of its moves
+         */
+        public Player(String name, Strategy strategy) {
+            this.name = name;
+            this.strategy = strategy;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Strategy getStrategy() {
+            return strategy;
+        }
+    }
+
+    /**
+     * Points and results of a player at some moment
+     */
+    public static final class Standing {
+        private final String name;
+        private final double points;
+        private final int wins;
+        private final int draws;
+        private final int losses;
+
+        private Standing(String name, double points, int wins, int draws, int losses) {
+            this.name = name;
+            this.points = points;
+            this.wins = wins;
+            this.draws = draws;
+            this.losses = losses;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getPoints() {
+            return points;
+        }
+
+        public int getWins() {
+            return wins;
+        }
+
+        public int getDraws() {
+            return draws;
+        }
+
+        public int getLosses() {
+            return losses;
+        }
+
+        @Override
+        public String toString() {
+            return name + " points=" + points + " wins=" + wins + " draws=" + draws + " losses=" + losses;
+        }
+    }
+
+    private final Player[] players;
+    private final Arena arena;
+    private final ForkJoinPool pool;
+    // Points of every player counted in halves, and its results, updated as the games end
+    private final AtomicIntegerArray halfPoints;
+    private final AtomicIntegerArray wins;
+    private final AtomicIntegerArray draws;
+    private final AtomicIntegerArray losses;
+    private final LongAdder games = new LongAdder();
+    // Games every player has moved first in, and the pairs already played, used by the pairing thread only
+    private final int[] firsts;
+    private final Set<Long> met = new HashSet<>();
+
+    /**
+     * Constructor
+     * @param players Players of the tournament
+     * @param arena Plays the games
+     * @param threads Games played at once
+     */
+    public Tournament(List<Player> players, Arena arena, int threads) {
+        this.players = players.toArray(new Player[0]);
+        this.arena = arena;
+        this.pool = new ForkJoinPool(threads);
+        int count = this.players.length;
+        halfPoints = new AtomicIntegerArray(count);
+        wins = new AtomicIntegerArray(count);
+        draws = new AtomicIntegerArray(count);
+        losses = new AtomicIntegerArray(count);
+        firsts = new int[count];
+    }
+
+    /**
+     * Plays a game in the calling thread, a player who plays an illegal move loses
+     * @param first Strategy of the player who moves first
+     * @param second Strategy of the other player
+     * @return DRAW, FIRST_WON or SECOND_WON
+     */
+    public static int play(Strategy first, Strategy second) {
+        int[] boards = new int[2];
+        for (int turn = 0; turn < 9; turn++) {
+            int mover = turn & 1;
+            int own = boards[mover], opponent = boards[mover ^ 1];
+            int cell = (mover == 0 ? first : second).move(own, opponent);
+            if (cell < 0 || cell > 8 || ((own | opponent) & 1 << cell) != 0) return mover == 0 ? SECOND_WON : FIRST_WON;
+            boards[mover] = own | 1 << cell;
+            if (Bitboard.hasLine(boards[mover])) return mover == 0 ? FIRST_WON : SECOND_WON;
+        }
+        return DRAW;
+    }
+
+    /**
+     * Plays a round robin, every player meets every other player once.
+     * The rounds come from the circle method, with a bye when the number of players is odd,
+     * and the first move alternates from round to round
+     * @return Final standings, best first
+     * @throws IOException If a game cannot be played
+     */
+    public List<Standing> roundRobin() throws IOException {
+        int count = players.length;
+        int slots = count + (count & 1);
+        int[] circle = new int[slots];
+        for (int i = 0; i < slots; i++) circle[i] = i;
+        int[] schedule = new int[slots * (slots - 1)];
+        int scheduled = 0;
+        for (int round = 0; round < slots - 1; round++) {
+            for (int i = 0; i < slots / 2; i++) {
+                int a = circle[i], b = circle[slots - 1 - i];
+                if (a >= count || b >= count) continue;
+                if ((round + i) % 2 == 0) scheduled = schedule(schedule, scheduled, a, b);
+                else scheduled = schedule(schedule, scheduled, b, a);
+            }
+            // The first slot stays, the others turn one place
+            int last = circle[slots - 1];
+            System.arraycopy(circle, 1, circle, 2, slots - 2);
+            circle[1] = last;
+        }
+        playAll(schedule, scheduled);
+        return standings();
+    }
+
+    /**
+     * Plays a Swiss tournament.
+     * Every round the players are ranked by points and each one is paired with the next player
+     * of the ranking it has not met yet. With an odd number of players the lowest ranked player
+     * without a bye gets one, worth a win. The player who has moved first less often moves first
+     * @param rounds Number of rounds
+     * @return Final standings, best first
+     * @throws IOException If a game cannot be played
+     */
+    public List<Standing> swiss(int rounds) throws IOException {
+        int count = players.length;
+        boolean[] hadBye = new boolean[count];
+        int[] schedule = new int[count];
+        for (int round = 0; round < rounds; round++) {
+            int[] order = ranking();
+            boolean[] paired = new boolean[count];
+            if (count % 2 == 1) {
+                for (int i = count - 1; i >= 0; i--) {
+                    int player = order[i];
+                    if (hadBye[player] && i > 0) continue;
+                    hadBye[player] = true;
+                    paired[player] = true;
+                    halfPoints.addAndGet(player, 2);
+                    break;
+                }
+            }
+            int scheduled = 0;
+            for (int i = 0; i < count; i++) {
+                int a = order[i];
+                if (paired[a]) continue;
+                int b = -1, rematch = -1;
+                for (int j = i + 1; j < count; j++) {
+                    int candidate = order[j];
+                    if (paired[candidate]) continue;
+                    if (rematch == -1) rematch = candidate;
+                    if (!met.contains(pairKey(a, candidate))) {
+                        b = candidate;
+                        break;
+                    }
+                }
+                // Everybody left has met this player, the nearest one plays it again
+                if (b == -1) b = rematch;
+                if (b == -1) break;
+                paired[a] = true;
+                paired[b] = true;
+                met.add(pairKey(a, b));
+                scheduled = firsts[a] <= firsts[b] ? schedule(schedule, scheduled, a, b) : schedule(schedule, scheduled, b, a);
+            }
+            playAll(schedule, scheduled);
+        }
+        return standings();
+    }
+
+    /**
+     * Current standings, they can be read while the games are played
+     * @return Standing of every player: most points first, then most wins, then by name
+     */
+    public List<Standing> standings() {
+        List<Standing> standings = new ArrayList<>(players.length);
+        for (int i = 0; i < players.length; i++) {
+            standings.add(new Standing(players[i].getName(), halfPoints.get(i) / 2.0, wins.get(i), draws.get(i), losses.get(i)));
+        }
+        standings.sort(Comparator.comparingDouble((Standing s) -> -s.points).thenComparingInt(s -> -s.wins).thenComparing(s -> s.name));
+        return standings;
+    }
+
+    /**
+     * Games played so far
+     * @return Number of games
+     */
+    public long games() {
+        return games.sum();
+    }
+
+    /**
+     * Players ranked by points, the order of the players breaks the ties
+     * @return Indexes of the players, best first
+     */
+    private int[] ranking() {
+        long[] keys = new long[players.length];
+        for (int i = 0; i < players.length; i++) keys[i] = (long) -halfPoints.get(i) << 32 | i;
+        Arrays.sort(keys);
+        int[] order = new int[players.length];
+        for (int i = 0; i < players.length; i++) order[i] = (int) keys[i];
+        return order;
+    }
+
+    private int schedule(int[] schedule, int scheduled, int first, int second) {
+        schedule[scheduled] = first;
+        schedule[scheduled + 1] = second;
+        firsts[first]++;
+        return scheduled + 2;
+    }
+
+    private static long pairKey(int a, int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    /**
+     * Plays scheduled games on the pool and waits for all of them
+     * @param schedule Players of the games, the first player of each game followed by the second
+     * @param scheduled Entries of the schedule in use, two per game
+     * @throws IOException If a game cannot be played
+     */
+    private void playAll(int[] schedule, int scheduled) throws IOException {
+        try {
+            pool.invoke(new Games(schedule, 0, scheduled / 2));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Games of a range of the schedule, split in halves until a batch is small enough to play
+     */
+    private final class Games extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] schedule;
+        private final int from;
+        private final int to;
+
+        Games(int[] schedule, int from, int to) {
+            this.schedule = schedule;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Games(schedule, from, middle), new Games(schedule, middle, to));
+                return;
+            }
+            for (int game = from; game < to; game++) {
+                int first = schedule[2 * game], second = schedule[2 * game + 1];
+                try {
+                    record(first, second, arena.play(players[first], players[second]));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the result of a game to the standings: a win is worth one point and a draw half
+     */
+    private void record(int first, int second, int outcome) {
+        if (outcome == DRAW) {
+            halfPoints.incrementAndGet(first);
+            halfPoints.incrementAndGet(second);
+            draws.incrementAndGet(first);
+            draws.incrementAndGet(second);
+        } else {
+            int winner = outcome == FIRST_WON ? first : second;
+            int loser = outcome == FIRST_WON ? second : first;
+            halfPoints.addAndGet(winner, 2);
+            wins.incrementAndGet(winner);
+            losses.incrementAndGet(loser);
+        }
+        games.increment();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length % 2 != 0 || !args[0].equals("-n")) {
+            throw new IllegalArgumentException("Wrong arguments.\n" + INIT_ERROR);
+        }
+        String format = "swiss", host = null, mode = "pvp";
+        String[] strategies = {"minimax", "table", "mcts", "weak"};
+        int count, rounds = 0, top = 10, threads = Runtime.getRuntime().availableProcessors();
+        try {
+            count = Integer.parseInt(args[1]);
+            for (int i = 2; i < args.length; i += 2) {
+                switch (args[i]) {
+                    case "-f": format = args[i + 1]; break;
+                    case "-r": rounds = Integer.parseInt(args[i + 1]); break;
+                    case "-s": strategies = args[i + 1].split(","); break;
+                    case "-t": threads = Integer.parseInt(args[i + 1]); break;
+                    case "-h": host = args[i + 1]; break;
+                    case "-m": mode = args[i + 1]; break;
+                    case "-k": top = Integer.parseInt(args[i + 1]); break;
+                    default: throw new IllegalArgumentException("Wrong argument keyword.\n" + INIT_ERROR);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Numeric options should be numbers.\n" + INIT_ERROR);
+        }
+        Log.setLevel(Log.Level.WARN);
+        List<Player> players = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = strategies[i % strategies.length];
+            Strategy strategy;
+            try {
+                strategy = Strategies.named(name);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown strategy " + name + ".\n" + INIT_ERROR);
+            }
+            players.add(new Player(name + "-" + i, strategy));
+        }
+        Arena arena = LOCAL;
+        if (host != null) {
+            String[] address = host.split(":");
+            if (!mode.equals("pvp") && !mode.equals("engine")) throw new IllegalArgumentException("Unknown mode " + mode + ".\n" + INIT_ERROR);
+            arena = new SocketArena(address[0], Integer.parseInt(address[1]), mode.equals("engine"));
+        }
+        // Enough rounds for a single player to win them all
+        if (rounds == 0) rounds = 32 - Integer.numberOfLeadingZeros(Math.max(1, count - 1));
+
+        Tournament tournament = new Tournament(players, arena, threads);
+        long start = System.nanoTime();
+        List<Standing> standings;
+        if (format.equals("robin")) standings = tournament.roundRobin();
+        else if (format.equals("swiss")) standings = tournament.swiss(rounds);
+        else throw new IllegalArgumentException("Unknown format " + format + ".\n" + INIT_ERROR);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for (int i = 0; i < Math.min(top, standings.size()); i++) System.out.println((i + 1) + " " + standings.get(i));
+        System.out.println("games " + tournament.games());
+        System.out.printf("seconds %.2f%n", seconds);
+        System.out.printf("games_per_second %.0f%n", tournament.games() / seconds);
+    }
+}
@@ -0,0 +1,115 @@
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.server.Admission;
+import p1.server.Log;
+import p1.server.Metrics;
+import p1.server.Server;
+import p1.server.ServerConfig;
+import utils.ComUtils;
+
+import java.io.IOException;
+import java.net.Socket;
+
+public class AdmissionTest {
+
+    @After
+    public void restore() {
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    private static void start(ServerConfig config) {
+        Server server = new Server(config.setLogLevel(Log.Level.WARN));
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    /**
+     * Connects and says hello
+     * @return Opcode of the reply, READY if admitted and ERROR if rejected
+     */
+    private static byte hello(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        ComUtils comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+        comutils.getDataOutputStream().writeByte(1);
+        comutils.write_int32(0);
+        comutils.write_string("admission");
+        comutils.getDataOutputStream().writeByte(0);
+        comutils.getDataOutputStream().writeByte(0);
+        comutils.flush();
+        byte opcode = comutils.getDataInputStream().readByte();
+        comutils.read_int32();
+        if (opcode == 8) assertEquals(Admission.BUSY, comutils.getDataInputStream().readByte());
+        return opcode;
+    }
+
+    @Test
+    public void clients_over_the_limit_are_rejected() throws IOException, InterruptedException {
+        start(new ServerConfig(2727).setMaxConnections(2).setWorkers(2));
+        long rejected = Metrics.rejected();
+        try (Socket first = new Socket("localhost", 2727); Socket second = new Socket("localhost", 2727)) {
+            assertEquals(2, hello(first));
+            assertEquals(2, hello(second));
+            try (Socket third = new Socket("localhost", 2727)) {
+                assertEquals(8, hello(third));
+            }
+            // A HELLO sent after the server has answered does not reset the connection
+            try (Socket late = new Socket("localhost", 2727)) {
+                Thread.sleep(30);
+                assertEquals(8, hello(late));
+            }
+            assertEquals(2, Metrics.rejected() - rejected);
+
+            first.close();
+            // The slot is free once the server has seen the disconnection
+            byte opcode = 8;
+            for (int attempt = 0; attempt < 50 && opcode == 8; attempt++) {
+                Thread.sleep(20);
+                try (Socket fourth = new Socket("localhost", 2727)) {
+                    opcode = hello(fourth);
+                }
+            }
+            assertEquals(2, opcode);
+        }
+    }
+
+    @Test
+    public void clients_over_the_limit_wait_with_the_delay_policy() throws IOException {
+        start(new ServerConfig(2828).setMaxConnections(1).setOverloadPolicy(Admission.Policy.DELAY));
+        try (Socket first = new Socket("localhost", 2828); Socket second = new Socket("localhost", 2828)) {
+            assertEquals(2, hello(first));
+            // The second client is accepted once the first one leaves
+            Thread closer = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                    first.close();
+                } catch (InterruptedException | IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            closer.start();
+            assertEquals(2, hello(second));
+        }
+    }
+
+    @Test
+    public void the_idlest_session_gives_its_slot_with_the_shed_policy() throws IOException, InterruptedException {
+        start(new ServerConfig(5252).setMode(Server.Mode.NIO).setMaxConnections(1).setOverloadPolicy(Admission.Policy.SHED));
+        long shed = Metrics.shed();
+        try (Socket first = new Socket("localhost", 5252)) {
+            assertEquals(2, hello(first));
+            // Only a session silent for 5 s can be shed
+            Thread.sleep(5200);
+            try (Socket second = new Socket("localhost", 5252)) {
+                long start = System.currentTimeMillis();
+                assertEquals(2, hello(second));
+                assertTrue(System.currentTimeMillis() - start < 500);
+            }
+            // The event loop closes the shed connection
+            assertEquals(-1, first.getInputStream().read());
+            assertEquals(1, Metrics.shed() - shed);
+        }
+    }
+}
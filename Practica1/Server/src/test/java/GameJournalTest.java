@@ -0,0 +1,171 @@
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import p1.server.GameJournal;
+import p1.server.GameLogic;
+import p1.server.Log;
+import p1.server.Server;
+import p1.server.ServerConfig;
+import utils.ComUtils;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class GameJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void restore() {
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    private static List<GameJournal.Record> readAll(Path directory) throws IOException {
+        List<GameJournal.Record> records = new ArrayList<>();
+        for (Path segment : GameJournal.segments(directory)) GameJournal.read(segment, records::add);
+        return records;
+    }
+
+    @Test
+    public void concurrent_appends_roll_over_segments() throws IOException, InterruptedException {
+        Log.setLevel(Log.Level.WARN);
+        GameLogic game = new GameLogic();
+        game.clientMove("1-1");
+        game.serverMove();
+        game.clientMove("0-1");
+        game.serverMove();
+
+        Path directory = folder.newFolder("journal").toPath();
+        int threads = 4, games = 2000;
+        long kept;
+        try (GameJournal journal = new GameJournal(directory, 4096, 10)) {
+            Thread[] writers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int first = t * games;
+                writers[t] = new Thread(() -> {
+                    for (int i = first; i < first + games; i++) journal.append(i, "player-" + i, game, 2);
+                });
+                writers[t].start();
+            }
+            for (Thread writer : writers) writer.join();
+            // A record that finds no mapped segment is dropped, never waited for
+            assertEquals(threads * games, journal.records() + journal.dropped());
+            kept = journal.records();
+        }
+
+        assertTrue(GameJournal.segments(directory).size() > 1);
+        List<GameJournal.Record> records = readAll(directory);
+        assertEquals(kept, records.size());
+        BitSet seen = new BitSet();
+        for (GameJournal.Record record : records) {
+            assertFalse(seen.get(record.getSessionId()));
+            seen.set(record.getSessionId());
+            assertEquals("player-" + record.getSessionId(), record.getName());
+            assertEquals(4, record.getMoveCount());
+            assertEquals(4, record.getMove(0));
+            assertEquals(0, record.getMove(1));
+            assertEquals(3, record.getSize());
+            assertEquals(GameLogic.Engine.MINIMAX.ordinal() + 1, record.getEngine());
+            assertTrue(record.getStartedAt() <= record.getEndedAt());
+        }
+    }
+
+    @Test
+    public void a_torn_record_does_not_hide_the_next_ones() throws IOException {
+        Log.setLevel(Log.Level.WARN);
+        GameLogic game = new GameLogic();
+        game.clientMove("1-1");
+        game.serverMove();
+        Path directory = folder.newFolder("torn").toPath();
+        try (GameJournal journal = new GameJournal(directory, 4096, 0)) {
+            for (int i = 0; i < 5; i++) journal.append(i, "player-" + i, game, 2);
+        }
+
+        // The third record was claimed but its writer never completed it
+        Path segment = GameJournal.segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int at = 0;
+            for (int i = 0; i < 2; i++) at += 4 + buffer.getInt(at);
+            int length = buffer.getInt(at);
+            for (int i = 0; i < 4 + length; i += 4) buffer.putInt(at + i, 0);
+            buffer.force();
+        }
+
+        List<GameJournal.Record> records = readAll(directory);
+        assertEquals(4, records.size());
+        int[] sessions = {0, 1, 3, 4};
+        for (int i = 0; i < sessions.length; i++) assertEquals(sessions[i], records.get(i).getSessionId());
+        try (GameJournal.Cursor cursor = new GameJournal.Cursor(segment)) {
+            while (cursor.next()) assertEquals(2, cursor.getOutcome());
+            assertEquals(1, cursor.getTorn());
+        }
+    }
+
+    @Test
+    public void finished_games_are_journaled() throws IOException {
+        Path directory = folder.newFolder("server").toPath();
+        Server server = new Server(new ServerConfig(4040).setLogLevel(Log.Level.WARN).setJournalDirectory(directory.toString()));
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try (Socket socket = new Socket("localhost", 4040)) {
+            socket.setSoTimeout(5000);
+            ComUtils comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+            comutils.getDataOutputStream().writeByte(1);
+            comutils.write_int32(0);
+            comutils.write_string("journal");
+            comutils.getDataOutputStream().writeByte(0);
+            comutils.getDataOutputStream().writeByte(0);
+            comutils.flush();
+            assertEquals(2, comutils.getDataInputStream().readByte());
+            int id = comutils.read_int32();
+            comutils.getDataOutputStream().writeByte(3);
+            comutils.write_int32(id);
+            comutils.flush();
+            assertEquals(4, comutils.getDataInputStream().readByte());
+            comutils.read_int32();
+            comutils.getDataInputStream().readByte();
+
+            // Takes the first free cell until the game ends
+            int flag = -1;
+            for (int cell = 0; cell < 9 && flag == -1; cell++) {
+                comutils.getDataOutputStream().writeByte(5);
+                comutils.write_int32(id);
+                comutils.write_string(cell / 3 + "-" + cell % 3);
+                comutils.flush();
+                byte opcode = comutils.getDataInputStream().readByte();
+                comutils.read_int32();
+                if (opcode == 8) {
+                    comutils.getDataInputStream().readByte();
+                    comutils.findString();
+                } else {
+                    comutils.read_string(3);
+                    if (opcode == 6) flag = comutils.getDataInputStream().readByte();
+                }
+            }
+            assertNotEquals(-1, flag);
+
+            List<GameJournal.Record> records = readAll(directory);
+            assertEquals(1, records.size());
+            GameJournal.Record record = records.get(0);
+            assertEquals(id, record.getSessionId());
+            assertEquals("journal", record.getName());
+            assertEquals(flag, record.getOutcome());
+            assertEquals(0, record.getMove(0));
+            assertTrue(record.getMoveCount() >= 5);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import p1.server.GameLogic;
+
+public class GameLogicTest {
+
+    @Test
+    public void validate_moves_test() {
+        GameLogic gameLogic = new GameLogic();
+        assertEquals(0, gameLogic.clientMove("111"));
+        assertEquals(0, gameLogic.clientMove("3-0"));
+        assertEquals(-1, gameLogic.clientMove("1-1"));
+        assertEquals(1, gameLogic.clientMove("1-1"));
+    }
+
+    @Test
+    public void server_never_loses_test() {
+        GameLogic gameLogic = new GameLogic();
+        gameLogic.clientMove("1-1");
+        assertEquals("0-0", gameLogic.serverMove());
+        gameLogic.clientMove("2-2");
+        gameLogic.serverMove();
+        assertFalse(gameLogic.isGameEnded());
+
+        // Client always takes the first free cell, the server must win or draw
+        String[] cells = {"0-0", "0-1", "0-2", "1-0", "1-1", "1-2", "2-0", "2-1", "2-2"};
+        GameLogic naive = new GameLogic();
+        while (!naive.isGameEnded()) {
+            for (String cell : cells) {
+                if (naive.clientMove(cell) == -1) break;
+            }
+            if (!naive.isGameEnded()) naive.serverMove();
+        }
+        assertNotEquals("Client", naive.getWinner());
+    }
+
+    @Test
+    public void table_engine_matches_minimax_test() {
+        Random random = new Random(42);
+        for (int game = 0; game < 50; game++) {
+            GameLogic minimax = new GameLogic(GameLogic.Engine.MINIMAX);
+            GameLogic table = new GameLogic(GameLogic.Engine.TABLE);
+            while (!minimax.isGameEnded()) {
+                String move;
+                do {
+                    move = random.nextInt(3) + "-" + random.nextInt(3);
+                } while (table.clientMove(move) != -1);
+                minimax.clientMove(move);
+                assertEquals(minimax.isGameEnded(), table.isGameEnded());
+                if (!minimax.isGameEnded()) assertEquals(minimax.serverMove(), table.serverMove());
+            }
+            assertEquals(minimax.getWinner(), table.getWinner());
+        }
+    }
+}
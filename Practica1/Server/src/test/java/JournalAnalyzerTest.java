@@ -0,0 +1,74 @@
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import p1.server.GameJournal;
+import p1.server.GameLogic;
+import p1.server.JournalAnalyzer;
+import p1.server.Log;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+public class JournalAnalyzerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void restore() {
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    /**
+     * Classic game with the given moves, client first
+     */
+    private static class ScriptedGame extends GameLogic {
+        ScriptedGame(Engine engine, int... cells) {
+            super(engine);
+            for (int cell : cells) recordMove(cell);
+        }
+    }
+
+    @Test
+    public void statistics_of_a_journal() throws IOException {
+        Log.setLevel(Log.Level.WARN);
+        Path directory = folder.newFolder("journal").toPath();
+        // The client leaves the 2-4-6 diagonal open at its third move, then loses
+        // The same blunder against two engines
+        GameLogic blunder = new ScriptedGame(GameLogic.Engine.MINIMAX, 0, 4, 1, 2, 3, 6);
+        GameLogic weakBlunder = new ScriptedGame(GameLogic.Engine.WEAK, 0, 4, 1, 2, 3, 6);
+        GameLogic draw = new ScriptedGame(GameLogic.Engine.TABLE, 4, 0, 8, 2, 1, 7, 3, 5, 6);
+        // One journal per batch, so there are several segments and none of them fills up
+        for (int batch = 0; batch < 100; batch += 25) {
+            try (GameJournal journal = new GameJournal(directory, 4096, 0)) {
+                for (int i = batch; i < batch + 25; i++) {
+                    journal.append(i, "alice", i < 60 ? blunder : weakBlunder, 0);
+                    journal.append(i, "alice", draw, 2);
+                    journal.append(i, "bob", draw, 2);
+                }
+                assertEquals(0, journal.dropped());
+            }
+        }
+        assertTrue(GameJournal.segments(directory).size() > 1);
+
+        JournalAnalyzer.Stats stats = new JournalAnalyzer(4).analyze(directory);
+        assertEquals(300, stats.getGames());
+        assertEquals(8.0, stats.getAverageLength(), 1e-9);
+        assertArrayEquals(new long[]{100, 0, 100}, stats.getOutcomes("alice"));
+        assertArrayEquals(new long[]{0, 0, 100}, stats.getOutcomes("bob"));
+        List<String> openings = stats.getTopOpenings(2);
+        assertEquals("3x3: 1-1 0-0 2-2", openings.get(0));
+        assertEquals("3x3: 0-0 1-1 0-1", openings.get(1));
+        assertEquals(100, stats.getBlunders());
+        assertEquals(60, stats.getBlunders(GameLogic.Engine.MINIMAX.ordinal() + 1));
+        assertEquals(40, stats.getBlunders(GameLogic.Engine.WEAK.ordinal() + 1));
+        assertEquals(0, stats.getBlunders(GameLogic.Engine.TABLE.ordinal() + 1));
+        String report = stats.report(5);
+        assertTrue(report.contains("blunder{position=XXO/.O./...} count=100"));
+        assertTrue(report.contains("blunders{engine=minimax} 60\nblunders{engine=weak} 40\n"));
+    }
+}
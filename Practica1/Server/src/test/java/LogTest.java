@@ -0,0 +1,67 @@
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.server.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+public class LogTest {
+
+    @After
+    public void restore() {
+        Log.setOutput(System.out, System.err);
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @Test
+    public void events_of_every_thread_are_written_in_order() throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Log.setOutput(new PrintStream(out, true), new PrintStream(new ByteArrayOutputStream(), true));
+        Log.setLevel(Log.Level.INFO);
+
+        int threads = 8, events = 1000;
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int session = t + 1;
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < events; i++) Log.info(session, "event", Integer.toString(i));
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) producer.join();
+        Log.debug(1, "event", "hidden");
+        Log.flush();
+
+        int[] next = new int[threads + 1];
+        int lines = 0;
+        for (String line : out.toString().split("\n")) {
+            // HH:mm:ss.SSS INFO [session] event i, servers left running by other tests may log too
+            String[] fields = line.split(" ");
+            if (fields.length != 5 || !fields[3].equals("event")) continue;
+            lines++;
+            assertEquals("INFO", fields[1]);
+            int session = Integer.parseInt(fields[2].substring(1, fields[2].length() - 1));
+            assertEquals(next[session]++, Integer.parseInt(fields[4]));
+        }
+        // The ring holds more events than this, so none is dropped
+        assertEquals(threads * events, lines);
+    }
+
+    @Test
+    public void boards_are_debug_events() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Log.setOutput(new PrintStream(out, true), new PrintStream(new ByteArrayOutputStream(), true));
+
+        Log.setLevel(Log.Level.INFO);
+        Log.board(0b000010000, 0b000000001);
+        Log.flush();
+        assertFalse(out.toString().contains("Board"));
+
+        Log.setLevel(Log.Level.DEBUG);
+        Log.board(0b000010000, 0b000000001);
+        Log.flush();
+        assertTrue(out.toString().contains("Board\n| O |   |   | \n-------------\n|   | X |   | \n-------------\n|   |   |   | \n"));
+    }
+}
@@ -0,0 +1,145 @@
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import p1.server.Log;
+import p1.server.Ratings;
+import p1.server.Server;
+import p1.server.ServerConfig;
+import utils.ComUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+public class RatingsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void restore() {
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @Test
+    public void leaderboard_follows_the_results() throws IOException {
+        Log.setLevel(Log.Level.WARN);
+        Ratings ratings = new Ratings();
+        for (int i = 0; i < 10; i++) {
+            ratings.record("alice", "bob", 1);
+            ratings.record("bob", "carol", 1);
+            ratings.record("alice", "carol", 0.5);
+        }
+        List<Ratings.Rating> top = ratings.top(2);
+        assertEquals(2, top.size());
+        assertEquals("alice", top.get(0).getName());
+        assertEquals("bob", top.get(1).getName());
+        assertEquals(20, top.get(0).getGames());
+        assertEquals(3, ratings.top(10).size());
+        // Elo only moves points between the players
+        double total = 0;
+        for (Ratings.Rating rating : ratings.top(10)) total += rating.getRating();
+        assertEquals(3 * Ratings.INITIAL_RATING, total, 1e-6);
+
+        // A player who wins everything climbs to the top
+        for (int i = 0; i < 30; i++) ratings.record("dave", "alice", 1);
+        assertEquals("dave", ratings.top(1).get(0).getName());
+        assertTrue(ratings.report(2).startsWith("1 dave "));
+
+        Path snapshot = folder.getRoot().toPath().resolve("ratings.bin");
+        ratings.save(snapshot);
+        Ratings loaded = Ratings.load(snapshot);
+        assertEquals(ratings.size(), loaded.size());
+        for (Ratings.Rating rating : ratings.top(10)) {
+            assertEquals(rating.getRating(), loaded.rating(rating.getName()), 1e-3);
+            assertEquals(rating.getGames(), loaded.get(rating.getName()).getGames());
+        }
+        assertEquals(ratings.report(10), loaded.report(10));
+        assertEquals(0, Ratings.load(folder.getRoot().toPath().resolve("missing.bin")).size());
+    }
+
+    @Test
+    public void the_server_is_rated_apart_from_the_players() throws IOException {
+        Ratings ratings = new Ratings();
+        for (int i = 0; i < 10; i++) ratings.record("alice", Ratings.SERVER, 1);
+        ratings.record(Ratings.SERVER, "bob", 1);
+        assertEquals(2, ratings.size());
+        assertEquals(2, ratings.top(10).size());
+        assertTrue(ratings.rating(Ratings.SERVER) < Ratings.INITIAL_RATING);
+        assertEquals(11, ratings.get(Ratings.SERVER).getGames());
+        // Elo still only moves points between the players and the server
+        double total = ratings.rating(Ratings.SERVER);
+        for (Ratings.Rating rating : ratings.top(10)) total += rating.getRating();
+        assertEquals(3 * Ratings.INITIAL_RATING, total, 1e-6);
+
+        Path snapshot = folder.getRoot().toPath().resolve("server.bin");
+        ratings.save(snapshot);
+        Ratings loaded = Ratings.load(snapshot);
+        assertEquals(2, loaded.size());
+        assertEquals(ratings.rating(Ratings.SERVER), loaded.rating(Ratings.SERVER), 1e-3);
+        assertEquals(11, loaded.get(Ratings.SERVER).getGames());
+    }
+
+    @Test
+    public void games_against_the_server_are_rated() throws IOException {
+        Server server = new Server(new ServerConfig(4747).setLogLevel(Log.Level.WARN).setMetricsPort(4848));
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try (Socket socket = new Socket("localhost", 4747)) {
+            socket.setSoTimeout(5000);
+            ComUtils comutils = new ComUtils(socket.getInputStream(), socket.getOutputStream(), true);
+            comutils.getDataOutputStream().writeByte(1);
+            comutils.write_int32(0);
+            comutils.write_string("rated");
+            comutils.getDataOutputStream().writeByte(0);
+            comutils.getDataOutputStream().writeByte(0);
+            comutils.flush();
+            assertEquals(2, comutils.getDataInputStream().readByte());
+            int id = comutils.read_int32();
+            comutils.getDataOutputStream().writeByte(3);
+            comutils.write_int32(id);
+            comutils.flush();
+            assertEquals(4, comutils.getDataInputStream().readByte());
+            comutils.read_int32();
+            comutils.getDataInputStream().readByte();
+
+            // Takes the first free cell until the game ends, the server does not lose
+            int flag = -1;
+            for (int cell = 0; cell < 9 && flag == -1; cell++) {
+                comutils.getDataOutputStream().writeByte(5);
+                comutils.write_int32(id);
+                comutils.write_string(cell / 3 + "-" + cell % 3);
+                comutils.flush();
+                byte opcode = comutils.getDataInputStream().readByte();
+                comutils.read_int32();
+                if (opcode == 8) {
+                    comutils.getDataInputStream().readByte();
+                    comutils.findString();
+                } else {
+                    comutils.read_string(3);
+                    if (opcode == 6) flag = comutils.getDataInputStream().readByte();
+                }
+            }
+            assertNotEquals(1, flag);
+        }
+
+        String leaderboard;
+        try (InputStream in = new URL("http://localhost:4848/leaderboard?top=5").openStream()) {
+            leaderboard = new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+        // The server is rated apart, it is not on the leaderboard
+        String[] lines = leaderboard.split("\n");
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].startsWith("1 rated "));
+        assertTrue(lines[0].endsWith(" games=1"));
+    }
+}
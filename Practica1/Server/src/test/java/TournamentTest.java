@@ -0,0 +1,110 @@
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import p1.server.Log;
+import p1.server.Server;
+import p1.server.SocketArena;
+import p1.server.Tournament;
+import utils.engine.Strategies;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TournamentTest {
+
+    @After
+    public void restore() {
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    private static List<Tournament.Player> players(int count, String... strategies) {
+        List<Tournament.Player> players = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String strategy = strategies[i % strategies.length];
+            players.add(new Tournament.Player(strategy + "-" + i, Strategies.named(strategy)));
+        }
+        return players;
+    }
+
+    private static double totalPoints(List<Tournament.Standing> standings) {
+        double total = 0;
+        for (Tournament.Standing standing : standings) total += standing.getPoints();
+        return total;
+    }
+
+    @Test
+    public void games_are_played_on_bitboards() {
+        // Perfect players always draw
+        assertEquals(Tournament.DRAW, Tournament.play(Strategies.MINIMAX, Strategies.TABLE));
+        assertEquals(Tournament.DRAW, Tournament.play(Strategies.TABLE, Strategies.MINIMAX));
+        // A player who plays an occupied cell loses
+        assertEquals(Tournament.SECOND_WON, Tournament.play((own, opponent) -> 4, Strategies.WEAK));
+    }
+
+    @Test
+    public void round_robin_plays_every_pair() throws IOException {
+        Tournament tournament = new Tournament(players(9, "minimax", "table", "weak"), Tournament.LOCAL, 4);
+        List<Tournament.Standing> standings = tournament.roundRobin();
+        assertEquals(36, tournament.games());
+        assertEquals(36, totalPoints(standings), 1e-9);
+        for (Tournament.Standing standing : standings) {
+            assertEquals(8, standing.getWins() + standing.getDraws() + standing.getLosses());
+            // Perfect players never lose
+            if (!standing.getName().startsWith("weak")) assertEquals(0, standing.getLosses());
+        }
+        assertFalse(standings.get(0).getName().startsWith("weak"));
+    }
+
+    @Test
+    public void swiss_pairs_thousands_of_players() throws IOException {
+        int count = 1001, rounds = 10;
+        Tournament tournament = new Tournament(players(count, "table", "weak"), Tournament.LOCAL, 4);
+        List<Tournament.Standing> standings = tournament.swiss(rounds);
+        assertEquals(count, standings.size());
+        assertEquals(rounds * (count / 2), tournament.games());
+        // One point per game and per bye
+        assertEquals(rounds * (count / 2) + rounds, totalPoints(standings), 1e-9);
+        for (int i = 1; i < count; i++) assertTrue(standings.get(i - 1).getPoints() >= standings.get(i).getPoints());
+        for (Tournament.Standing standing : standings) {
+            int games = standing.getWins() + standing.getDraws() + standing.getLosses();
+            assertTrue(games == rounds || games == rounds - 1);
+            if (standing.getName().startsWith("table")) assertEquals(0, standing.getLosses());
+        }
+    }
+
+    @Test
+    public void a_tournament_can_be_played_through_the_server() throws IOException {
+        Server server = new Server(4949);
+        Log.setLevel(Log.Level.WARN);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        Tournament tournament = new Tournament(players(4, "minimax", "weak"), new SocketArena("localhost", 4949), 2);
+        List<Tournament.Standing> standings = tournament.roundRobin();
+        assertEquals(6, tournament.games());
+        assertEquals(6, totalPoints(standings), 1e-9);
+        for (Tournament.Standing standing : standings) {
+            if (standing.getName().startsWith("minimax")) assertEquals(0, standing.getLosses());
+        }
+    }
+
+    @Test
+    public void a_tournament_can_be_played_against_the_server_engines() throws IOException {
+        Server server = new Server(6060);
+        Log.setLevel(Log.Level.WARN);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        Tournament tournament = new Tournament(players(4, "table", "weak"), new SocketArena("localhost", 6060, true), 2);
+        List<Tournament.Standing> standings = tournament.roundRobin();
+        assertEquals(6, tournament.games());
+        assertEquals(6, totalPoints(standings), 1e-9);
+        for (Tournament.Standing standing : standings) {
+            if (standing.getName().startsWith("table")) assertEquals(0, standing.getLosses());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import p1.server.GameLogic;
+import p1.server.Server;
+import utils.ComUtils;
+
+public class VirtualThreadLoadTest {
+    // Idle sessions kept open at once, run with -Dload.sessions=100000 (and a high ulimit -n) for the full load test
+    private static final int SESSIONS = Integer.getInteger("load.sessions", 2000);
+
+    @Test
+    public void idle_sessions_test() throws Exception {
+        Assume.assumeTrue("Virtual threads need Java 21", Server.supportsVirtualThreads());
+
+        Server server = new Server(8090, GameLogic.Engine.MINIMAX, Server.Mode.VIRTUAL);
+        Thread serverThread = new Thread(server::init);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        long heapBefore = usedHeap();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < SESSIONS; i++) {
+                Socket socket = new Socket("localhost", 8090);
+                sockets.add(socket);
+                ComUtils comUtils = new ComUtils(socket.getInputStream(), socket.getOutputStream());
+                comUtils.getDataOutputStream().writeByte(1);
+                comUtils.write_int32(0);
+                comUtils.write_string("Load" + i);
+                comUtils.getDataOutputStream().writeByte(0);
+                comUtils.getDataOutputStream().writeByte(0);
+                assertEquals(2, comUtils.getDataInputStream().readByte());
+                comUtils.read_int32();
+            }
+
+            // Every session now has a handler blocked waiting for its next message
+            long perSession = (usedHeap() - heapBefore) / SESSIONS;
+            int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+            System.out.println(SESSIONS + " idle sessions, " + perSession + " bytes of heap per session (client side included), "
+                    + platformThreads + " new platform threads");
+            assertTrue("platform threads: " + platformThreads, platformThreads < 64);
+            assertTrue("bytes per session: " + perSession, perSession < 64 * 1024);
+        } finally {
+            for (Socket socket : sockets) socket.close();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}